@@ -0,0 +1,6 @@
+#!/bin/sh
+# Запуск приложения с модулем Vector API: без него поиск в PackedRTree
+# использует скалярную реализацию tree.geometry.ScalarLeafKernel.
+# Перед запуском: mvn package (собирает классы и копирует зависимости в target/lib)
+dir="$(dirname "$0")/target"
+exec java --add-modules jdk.incubator.vector -cp "$dir/classes:$dir/lib/*" com.blodich.Main "$@"
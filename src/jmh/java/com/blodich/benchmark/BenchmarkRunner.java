@@ -0,0 +1,23 @@
+package com.blodich.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Запуск бенчмарков с профилировщиком аллокаций и сборки мусора (-prof gc).
+ * Принимает стандартные аргументы JMH, например: java -jar target/benchmarks.jar QueryBenchmark -p size=10000
+ */
+public class BenchmarkRunner {
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
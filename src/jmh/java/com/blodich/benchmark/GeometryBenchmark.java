@@ -0,0 +1,45 @@
+package com.blodich.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tree.geometry.Point;
+
+/**
+ * Расчет расстояния по ортодромии.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+  // Количество пар точек, размер - степень двойки
+  private static final int PAIR_COUNT = 1024;
+
+  private Point[] from;
+  private Point[] to;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    from = PointGenerator.generate(PointGenerator.Distribution.UNIFORM, PAIR_COUNT, 1).toArray(new Point[0]);
+    to = PointGenerator.generate(PointGenerator.Distribution.UNIFORM, PAIR_COUNT, 2).toArray(new Point[0]);
+  }
+
+  @Benchmark
+  public double distance() {
+    next = (next + 1) & (PAIR_COUNT - 1);
+    return from[next].distance(to[next]);
+  }
+}
@@ -0,0 +1,127 @@
+package com.blodich.benchmark;
+
+import com.blodich.indexer.CsvPointScanner;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import tree.geometry.Point;
+
+/**
+ * Генератор синтетических точек для бенчмарков. Генерация детерминирована для заданного seed.
+ */
+public final class PointGenerator {
+  /**
+   * Распределение точек.
+   */
+  public enum Distribution {
+    // Равномерно по всей поверхности (равномерно по площади сферы)
+    UNIFORM,
+    // Плотные гауссовы кластеры вокруг случайных центров, как города
+    CLUSTERED,
+    // Координаты реальных аэропортов из airports.csv с небольшим шумом
+    AIRPORT_LIKE
+  }
+
+  // Количество центров для CLUSTERED
+  private static final int CLUSTER_COUNT = 500;
+
+  // Стандартное отклонение внутри кластера в градусах
+  private static final double CLUSTER_SIGMA = 0.5;
+
+  // Стандартное отклонение шума вокруг реального аэропорта в градусах
+  private static final double AIRPORT_SIGMA = 0.05;
+
+  // Путь к airports.csv: внутри benchmarks.jar ресурс недоступен как файл, поэтому берется из исходников
+  private static final String SOURCE = System.getProperty("benchmark.csv", "src/main/resources/airports.csv");
+
+  private static List<Point> airports;
+
+  private PointGenerator() {
+  }
+
+  /**
+   * Генерирует точки. Поле seek каждой точки равно ее порядковому номеру.
+   *
+   * @param distribution - распределение.
+   * @param size - количество точек.
+   * @param seed - начальное значение генератора случайных чисел.
+   * @return сгенерированные точки.
+   */
+  public static List<Point> generate(Distribution distribution, int size, long seed) {
+    Random random = new Random(seed);
+    List<Point> result = new ArrayList<>(size);
+    switch (distribution) {
+      case UNIFORM -> {
+        for (int i = 0; i < size; i++) {
+          result.add(new Point(uniformLatitude(random), uniformLongitude(random), i));
+        }
+      }
+      case CLUSTERED -> {
+        double[][] centers = new double[CLUSTER_COUNT][];
+        for (int i = 0; i < CLUSTER_COUNT; i++) {
+          centers[i] = new double[] {uniformLatitude(random), uniformLongitude(random)};
+        }
+        for (int i = 0; i < size; i++) {
+          double[] center = centers[random.nextInt(CLUSTER_COUNT)];
+          result.add(jitter(random, center[0], center[1], CLUSTER_SIGMA, i));
+        }
+      }
+      case AIRPORT_LIKE -> {
+        List<Point> real = airports();
+        for (int i = 0; i < size; i++) {
+          Point airport = real.get(random.nextInt(real.size()));
+          result.add(jitter(random, airport.getX(), airport.getY(), AIRPORT_SIGMA, i));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Случайные целевые точки запросов из того же распределения.
+   */
+  public static List<Point> targets(Distribution distribution, int size, long seed) {
+    return generate(distribution, size, seed ^ 0x5DEECE66DL);
+  }
+
+  /**
+   * Путь к файлу airports.csv. Переопределяется свойством -Dbenchmark.csv.
+   */
+  public static Path source() {
+    return Paths.get(SOURCE);
+  }
+
+  private static double uniformLatitude(Random random) {
+    return Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+  }
+
+  private static double uniformLongitude(Random random) {
+    return random.nextDouble() * 360 - 180;
+  }
+
+  private static Point jitter(Random random, double latitude, double longitude, double sigma, long seek) {
+    double lat = Math.max(-90, Math.min(90, latitude + random.nextGaussian() * sigma));
+    double lon = longitude + random.nextGaussian() * sigma;
+    if (lon > 180) {
+      lon -= 360;
+    } else if (lon < -180) {
+      lon += 360;
+    }
+    return new Point(lat, lon, seek);
+  }
+
+  private static synchronized List<Point> airports() {
+    if (airports == null) {
+      try {
+        airports = new CsvPointScanner(source(), 6, 7).scan(1);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return airports;
+  }
+}
@@ -0,0 +1,120 @@
+package com.blodich.benchmark;
+
+import com.blodich.search.CsvIndexSearchEngine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tree.GridIndex;
+import tree.PackedRTree;
+import tree.RTree;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+
+/**
+ * Запросы к готовому дереву: range с окнами разного размера и поиск CsvIndexSearchEngine,
+ * а также те же запросы к PackedRTree (пакетные проверки LeafKernel; без Vector API -
+ * с -jvmArgsAppend -Drtree.simd=false) и к GridIndex с размером ячейки gridCell.
+ * Целевые точки перебираются по кругу, чтобы не измерять один и тот же горячий путь.
+ * Для больших наборов: -p size=10000000,50000000 (требуется соответствующий -Xmx).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "--add-modules=jdk.incubator.vector"})
+public class QueryBenchmark {
+  // Количество заранее сгенерированных целевых точек
+  private static final int TARGET_COUNT = 4096;
+
+  @Param({"10000", "100000", "1000000"})
+  private int size;
+
+  @Param({"UNIFORM", "CLUSTERED", "AIRPORT_LIKE"})
+  private PointGenerator.Distribution distribution;
+
+  // Размер окна range в градусах
+  @Param({"0.1", "1", "10"})
+  private double window;
+
+  // Радиус поиска CsvIndexSearchEngine в километрах
+  @Param({"200"})
+  private double radius;
+
+  // Размер ячейки GridIndex в градусах
+  @Param({"0.5"})
+  private double gridCell;
+
+  private RTree tree;
+  private PackedRTree packed;
+  private GridIndex grid;
+  private Rectangle[] windows;
+  private Point[] targets;
+  private CsvIndexSearchEngine searchEngine;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    List<Point> points = PointGenerator.generate(distribution, size, 42);
+    tree = new RTree(16);
+    tree.bulkLoad(new ArrayList<>(points));
+    grid = new GridIndex(gridCell);
+    grid.bulkLoad(points);
+    packed = tree.freeze();
+    targets = PointGenerator.targets(distribution, TARGET_COUNT, 42).toArray(new Point[0]);
+    windows = new Rectangle[TARGET_COUNT];
+    for (int i = 0; i < TARGET_COUNT; i++) {
+      double x = targets[i].getX();
+      double y = targets[i].getY();
+      windows[i] = new Rectangle(x - window / 2, y - window / 2, x + window / 2, y + window / 2);
+    }
+    searchEngine = new CsvIndexSearchEngine();
+  }
+
+  private int nextIndex() {
+    next = (next + 1) & (TARGET_COUNT - 1);
+    return next;
+  }
+
+  @Benchmark
+  public List<Point> range() {
+    return tree.range(windows[nextIndex()]);
+  }
+
+  @Benchmark
+  public List<Point> search() {
+    return searchEngine.search(tree, targets[nextIndex()], radius);
+  }
+
+  @Benchmark
+  public List<Point> packedRange() {
+    return packed.range(windows[nextIndex()]);
+  }
+
+  @Benchmark
+  public List<Point> packedNearest() {
+    return packed.nearest(targets[nextIndex()], CsvIndexSearchEngine.RESULT_LIMIT, radius);
+  }
+
+  @Benchmark
+  public List<Point> gridRange() {
+    return grid.range(windows[nextIndex()]);
+  }
+
+  @Benchmark
+  public List<Point> gridSearch() {
+    return searchEngine.search(grid, targets[nextIndex()], radius);
+  }
+}
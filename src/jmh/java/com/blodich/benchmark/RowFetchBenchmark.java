@@ -0,0 +1,105 @@
+package com.blodich.benchmark;
+
+import com.blodich.indexer.RTreeFileIndexer;
+import com.blodich.reader.CoalescingRowSource;
+import com.blodich.reader.ColumnarStore;
+import com.blodich.reader.FilteredCsvRandomAccessReader;
+import com.blodich.reader.MappedRowSource;
+import com.blodich.reader.RandomAccessRowSource;
+import com.blodich.reader.RowSource;
+import com.blodich.search.CsvIndexSearchEngine;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tree.RTree;
+import tree.SpatialIndex;
+import tree.geometry.Point;
+
+/**
+ * Полный путь запроса FilteredCsvRandomAccessReader.read на реальном airports.csv:
+ * поиск по индексу и чтение найденных строк. readColumns читает только три колонки;
+ * для columnar индекс хранит номера строк, а хранилище создается во временном каталоге;
+ * coalescing читает строки запроса пакетом отсортированных объединенных запросов.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowFetchBenchmark {
+  // Количество заранее сгенерированных целевых точек, размер - степень двойки
+  private static final int TARGET_COUNT = 4096;
+
+  // Колонки для readColumns: название, широта, долгота
+  private static final int[] COLUMNS = {1, 6, 7};
+
+  @Param({"mapped", "random", "columnar", "coalescing"})
+  private String reader;
+
+  @Param({"200"})
+  private double radius;
+
+  private SpatialIndex tree;
+  private RowSource rowSource;
+  private FilteredCsvRandomAccessReader csvReader;
+  private Point[] targets;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path source = PointGenerator.source();
+    boolean columnar = "columnar".equals(reader);
+    tree = new RTreeFileIndexer(source, new int[] {6, 7, 8}, null, Runtime.getRuntime().availableProcessors(),
+        () -> new RTree(4), columnar).index();
+    RowSource rowSource;
+    if (columnar) {
+      rowSource = ColumnarStore.open(source, Files.createTempDirectory("columns"));
+    } else if ("mapped".equals(reader)) {
+      rowSource = new MappedRowSource(source);
+    } else if ("coalescing".equals(reader)) {
+      rowSource = new CoalescingRowSource(source);
+    } else {
+      rowSource = new RandomAccessRowSource(source);
+    }
+    this.rowSource = rowSource;
+    csvReader = new FilteredCsvRandomAccessReader(rowSource, new CsvIndexSearchEngine());
+    targets = PointGenerator.targets(PointGenerator.Distribution.AIRPORT_LIKE, TARGET_COUNT, 42)
+        .toArray(new Point[0]);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (rowSource instanceof Closeable closeable) {
+      closeable.close();
+    }
+  }
+
+  @Benchmark
+  public List<String> read() throws IOException {
+    next = (next + 1) & (TARGET_COUNT - 1);
+    return csvReader.read(tree, targets[next], radius);
+  }
+
+  @Benchmark
+  public List<String[]> readColumns() throws IOException {
+    next = (next + 1) & (TARGET_COUNT - 1);
+    return csvReader.readColumns(tree, targets[next], radius, COLUMNS);
+  }
+}
@@ -0,0 +1,103 @@
+package com.blodich.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tree.GridIndex;
+import tree.OffHeapRTree;
+import tree.RTree;
+import tree.geometry.Point;
+
+/**
+ * Построение дерева: вставка по одной точке и массовая загрузка; то же для GridIndex
+ * с размером ячейки gridCell и для OffHeapRTree (страницы во временном файле, дерево закрывается
+ * после замера, чтобы файлы не накапливались).
+ * Для больших наборов: -p size=10000000,50000000 (требуется соответствующий -Xmx).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class TreeBuildBenchmark {
+  @Param({"10000", "100000", "1000000"})
+  private int size;
+
+  @Param({"UNIFORM", "CLUSTERED", "AIRPORT_LIKE"})
+  private PointGenerator.Distribution distribution;
+
+  // Размер ячейки GridIndex в градусах
+  @Param({"0.5"})
+  private double gridCell;
+
+  private List<Point> points;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    points = PointGenerator.generate(distribution, size, 42);
+  }
+
+  @Benchmark
+  public RTree add() {
+    RTree tree = new RTree(16);
+    for (Point point : points) {
+      tree.add(point);
+    }
+    return tree;
+  }
+
+  @Benchmark
+  public RTree bulkLoad() {
+    RTree tree = new RTree(16);
+    tree.bulkLoad(new ArrayList<>(points));
+    return tree;
+  }
+
+  @Benchmark
+  public GridIndex gridAdd() {
+    GridIndex grid = new GridIndex(gridCell);
+    for (Point point : points) {
+      grid.add(point);
+    }
+    return grid;
+  }
+
+  @Benchmark
+  public GridIndex gridBulkLoad() {
+    GridIndex grid = new GridIndex(gridCell);
+    grid.bulkLoad(points);
+    return grid;
+  }
+
+  @Benchmark
+  public int offHeapAdd() throws IOException {
+    try (OffHeapRTree tree = new OffHeapRTree(16)) {
+      for (Point point : points) {
+        tree.add(point);
+      }
+      return tree.size();
+    }
+  }
+
+  @Benchmark
+  public int offHeapBulkLoad() throws IOException {
+    try (OffHeapRTree tree = new OffHeapRTree(16)) {
+      tree.bulkLoad(points);
+      return tree.size();
+    }
+  }
+}
@@ -3,22 +3,61 @@ package com.blodich;
 import com.amihaiemil.eoyaml.Yaml;
 import com.amihaiemil.eoyaml.YamlMapping;
 import com.blodich.indexer.RTreeFileIndexer;
+import com.blodich.indexer.ShardDirectory;
+import com.blodich.indexer.ShardedIndexer;
+import com.blodich.reader.CachingRowSource;
+import com.blodich.reader.CoalescingRowSource;
+import com.blodich.reader.ColumnarStore;
 import com.blodich.reader.FileProcessor;
 import com.blodich.reader.FilteredCsvRandomAccessReader;
+import com.blodich.reader.MappedRowSource;
+import com.blodich.reader.RandomAccessRowSource;
+import com.blodich.reader.RowSource;
+import com.blodich.reader.ShardedCsvReader;
+import com.blodich.search.CachingIndexSearchEngine;
 import com.blodich.search.CsvIndexSearchEngine;
+import com.blodich.search.IndexSearchEngine;
+import com.blodich.server.QueryServer;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import tree.geometry.Point;
+import tree.GridIndex;
+import tree.OffHeapRTree;
 import tree.RTree;
+import tree.SpatialIndex;
+import tree.geometry.Point;
+import tree.metrics.QueryMetrics;
 
 public class Main {
+  // Порт сервера по умолчанию
+  private static final int DEFAULT_PORT = 8080;
+
   public static void main(String[] args) {
+    // Режим сервера: server [порт]
+    boolean serverMode = args.length > 0 && "server".equals(args[0]);
+    int port = DEFAULT_PORT;
     int[] columns = null;
     try {
-      if (args.length > 2) {
+      if (serverMode) {
+        if (args.length > 1) {
+          port = Integer.parseInt(args[1]);
+        }
+        columns = getColumnsFromSettings();
+        columns[0]--;
+        columns[1]--;
+        columns[2]--;
+      }
+      else if (args.length > 2) {
         columns = new int[3];
         columns[0] = Integer.parseInt(args[0]) - 1;
         columns[1] = Integer.parseInt(args[1]) - 1;
@@ -42,26 +81,117 @@ public class Main {
       System.out.println("Ошибка значения аргумета для индексации колонки: " + e.getMessage());
     }
     if (columns == null) return;
-    RTreeFileIndexer fileIndexer = new RTreeFileIndexer(columns);
+    Path source = RTreeFileIndexer.defaultSource();
     try {
-      RTree tree = fileIndexer.index();
-      Scanner sc = new Scanner(System.in);
-      System.out.print("Введите широту: ");
-      double latitude = Double.parseDouble(sc.nextLine());
-      System.out.print("Введите долготу: ");
-      double longitude = Double.parseDouble(sc.nextLine());
-      double radius = getRadiusFromSettings();
-      long start = System.currentTimeMillis();
-      Point targetPoint = new Point(latitude, longitude);
-      FileProcessor fileProcessor = new FileProcessor(new RTreeFileIndexer(columns),
-          new FilteredCsvRandomAccessReader("", new CsvIndexSearchEngine()));
+      Supplier<SpatialIndex> indexFactory;
+      if ("grid".equals(getIndexEngineFromSettings())) {
+        double gridCell = getGridCellFromSettings();
+        indexFactory = () -> new GridIndex(gridCell);
+      } else if ("offheap".equals(getIndexEngineFromSettings())) {
+        indexFactory = () -> new OffHeapRTree(16);
+      } else {
+        indexFactory = () -> new RTree(4);
+      }
+      List<Path> shardInputs = getShardsFromSettings();
+      if (!shardInputs.isEmpty()) {
+        if (serverMode) {
+          System.out.println("Режим сервера не поддерживает поиск по нескольким файлам (shards)");
+          return;
+        }
+        // Несколько файлов: отдельный индекс на каждый файл, запрос расходится только по подходящим шардам
+        // Индексы шардов закрываются после поиска: OffHeapRTree держит файлы страниц
+        try (ShardDirectory directory = new ShardedIndexer(shardInputs, columns,
+            Runtime.getRuntime().availableProcessors(), indexFactory, getElevationIndexFromSettings()).index()) {
+          ShardedCsvReader shardedReader = new ShardedCsvReader(directory, new CsvIndexSearchEngine(),
+              CsvIndexSearchEngine.RESULT_LIMIT);
+          Scanner sc = new Scanner(System.in);
+          System.out.print("Введите широту: ");
+          double latitude = Double.parseDouble(sc.nextLine());
+          System.out.print("Введите долготу: ");
+          double longitude = Double.parseDouble(sc.nextLine());
+          long start = System.currentTimeMillis();
+          var result = shardedReader.read(new Point(latitude, longitude), getRadiusFromSettings());
+          long end = System.currentTimeMillis();
+          System.out.println("Результат:");
+          result.forEach(System.out::println);
+          System.out.printf("Количество найденных записей: %d\n", result.size());
+          System.out.printf("Затраченное время на поиск: %d мс\n", end-start);
+        }
+        return;
+      }
+      // В режиме columnar строки читаются из колоночного хранилища, а индекс хранит номера строк
+      String readerMode = getReaderModeFromSettings();
+      boolean columnar = "columnar".equals(readerMode);
+      RTreeFileIndexer fileIndexer = new RTreeFileIndexer(source, columns,
+          source.resolveSibling(source.getFileName() + (columnar ? ".rows.idx" : ".idx")),
+          Runtime.getRuntime().availableProcessors(), indexFactory, columnar, getElevationIndexFromSettings());
+      RowSource rowSource;
+      if (columnar) {
+        rowSource = ColumnarStore.open(source, source.resolveSibling(source.getFileName() + ".columns"));
+      } else if ("mapped".equals(readerMode)) {
+        rowSource = new MappedRowSource(source);
+      } else if ("coalescing".equals(readerMode)) {
+        rowSource = new CoalescingRowSource(source);
+      } else {
+        rowSource = new RandomAccessRowSource(source);
+      }
+      int cacheSize = getCacheSizeFromSettings();
+      if (cacheSize > 0) {
+        rowSource = new CachingRowSource(rowSource, source, cacheSize * 1024L * 1024L,
+            "tinylfu".equals(getCachePolicyFromSettings())
+                ? CachingRowSource.Policy.TINY_LFU
+                : CachingRowSource.Policy.LRU);
+      }
+      IndexSearchEngine searchEngine = new CsvIndexSearchEngine();
+      double searchCacheCell = getSearchCacheCellFromSettings();
+      if (searchCacheCell > 0) {
+        searchEngine = new CachingIndexSearchEngine(searchEngine, CsvIndexSearchEngine.RESULT_LIMIT,
+            searchCacheCell, getSearchCacheSizeFromSettings(), getSearchCacheTtlFromSettings());
+      }
+      FilteredCsvRandomAccessReader reader = new FilteredCsvRandomAccessReader(rowSource, searchEngine);
+      FileProcessor fileProcessor = new FileProcessor(fileIndexer, reader);
       fileProcessor.preprocess();
-      var result = fileProcessor.process(targetPoint, radius);
-      long end = System.currentTimeMillis();
-      System.out.println("Результат:");
-      result.forEach(System.out::println);
-      System.out.printf("Количество найденных записей: %d\n", result.size());
-      System.out.printf("Затраченное время на поиск: %d мс\n", end-start);
+      // Метрики включаются свойством -Drtree.metrics=true и публикуются через JMX
+      if (QueryMetrics.ENABLED) {
+        QueryMetrics.registerMBean();
+      }
+      if (serverMode) {
+        QueryServer server = new QueryServer(fileProcessor.getIndexes(), reader, getRadiusFromSettings());
+        server.start(port);
+        // Сервер работает до остановки процесса, индекс закрывается при завершении JVM
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          try {
+            fileProcessor.close();
+          } catch (IOException e) {
+            System.out.println("Ошибка при закрытии индекса: " + e.getMessage());
+          }
+        }));
+        System.out.printf("Сервер запущен на порту %d\n", server.getPort());
+        long updateInterval = getUpdateIntervalFromSettings();
+        // Колоночное хранилище не видит дописанных строк, его нужно конвертировать заново
+        if (updateInterval > 0 && !columnar) {
+          scheduleUpdates(fileProcessor, updateInterval);
+        }
+        return;
+      }
+      try {
+        Scanner sc = new Scanner(System.in);
+        System.out.print("Введите широту: ");
+        double latitude = Double.parseDouble(sc.nextLine());
+        System.out.print("Введите долготу: ");
+        double longitude = Double.parseDouble(sc.nextLine());
+        double radius = getRadiusFromSettings();
+        long start = System.currentTimeMillis();
+        Point targetPoint = new Point(latitude, longitude);
+        var result = fileProcessor.process(targetPoint, radius);
+        long end = System.currentTimeMillis();
+        System.out.println("Результат:");
+        result.forEach(System.out::println);
+        System.out.printf("Количество найденных записей: %d\n", result.size());
+        System.out.printf("Затраченное время на поиск: %d мс\n", end-start);
+      } finally {
+        fileProcessor.close();
+      }
     } catch (FileNotFoundException e) {
       System.out.println("Ошибка при поиске таблицы: " + e.getMessage());
     } catch (IOException e) {
@@ -69,6 +199,27 @@ public class Main {
     }
   }
 
+  /**
+   * Периодически индексирует строки, дописанные в конец файла. Поиск во время обновления
+   * продолжает работать с предыдущей версией индекса.
+   * @param fileProcessor - обработчик файла, индекс которого обновляется.
+   * @param intervalMillis - интервал между обновлениями в миллисекундах.
+   */
+  private static void scheduleUpdates(FileProcessor fileProcessor, long intervalMillis) {
+    ScheduledExecutorService updater = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "index-updater");
+      thread.setDaemon(true);
+      return thread;
+    });
+    updater.scheduleWithFixedDelay(() -> {
+      try {
+        fileProcessor.update();
+      } catch (IOException e) {
+        System.out.println("Ошибка при обновлении индекса: " + e.getMessage());
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
   /**
    * Читает колонки для индексации из файла настроек.
    * @return - колонки.
@@ -101,5 +252,171 @@ public class Main {
     }
   }
 
+  /**
+   * Читает режим чтения строк из файла настроек.
+   * @return - "mapped" для отображения файла в память, "columnar" - для колоночного хранилища,
+   * "coalescing" - для пакетного асинхронного чтения строк, иначе - чтение через RandomAccessFile.
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static String getReaderModeFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      return yamlMapping.string("reader");
+    }
+  }
+
+  /**
+   * Читает размер кэша строк из файла настроек.
+   * @return - размер кэша в мегабайтах, 0 или меньше - кэш выключен.
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static int getCacheSizeFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      return yamlMapping.integer("cache");
+    }
+  }
+
+  /**
+   * Читает политику вытеснения кэша строк из файла настроек.
+   * @return - "tinylfu" для фильтра допуска TinyLFU, иначе - LRU.
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static String getCachePolicyFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      return yamlMapping.string("cache-policy");
+    }
+  }
+
+  /**
+   * Читает размер ячейки кэша результатов поиска из файла настроек.
+   * @return - размер ячейки в градусах, 0 или меньше - кэш выключен.
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static double getSearchCacheCellFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      return yamlMapping.doubleNumber("search-cache-cell");
+    }
+  }
+
+  /**
+   * Читает максимальное количество записей кэша результатов поиска из файла настроек.
+   * @return - количество записей.
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static int getSearchCacheSizeFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      return yamlMapping.integer("search-cache-size");
+    }
+  }
+
+  /**
+   * Читает время жизни записей кэша результатов поиска из файла настроек.
+   * @return - время жизни в миллисекундах.
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static long getSearchCacheTtlFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      return yamlMapping.longNumber("search-cache-ttl");
+    }
+  }
+
+  /**
+   * Читает тип пространственного индекса из файла настроек.
+   * @return - "grid" для индекса на равномерной сетке, "offheap" для R-дерева с узлами вне кучи,
+   * иначе - R-дерево.
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static String getIndexEngineFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      return yamlMapping.string("index");
+    }
+  }
+
+  /**
+   * Читает размер ячейки индекса на сетке из файла настроек.
+   * @return - размер ячейки в градусах.
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static double getGridCellFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      return yamlMapping.doubleNumber("grid-cell");
+    }
+  }
+
+  /**
+   * Читает из файла настроек список csv файлов и каталогов для поиска по нескольким файлам.
+   * @return - пути из значения shards через запятую; пустой список, если настройка не задана.
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static List<Path> getShardsFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      String value = yamlMapping.string("shards");
+      List<Path> result = new ArrayList<>();
+      if (value != null) {
+        for (String part : value.split(",")) {
+          if (!part.isBlank()) {
+            result.add(Paths.get(part.trim()));
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Читает из файла настроек интервал индексации строк, дописанных в файл, в режиме сервера.
+   * @return - интервал в миллисекундах, 0 - если ключ отсутствует (строки не дописываются).
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static long getUpdateIntervalFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      String value = yamlMapping.string("update-interval");
+      return value == null ? 0 : Long.parseLong(value.trim());
+    }
+  }
+
+  /**
+   * Читает из файла настроек, нужно ли хранить высоту в индексе.
+   * @return - true, если высота индексируется и доступна для фильтрации при поиске.
+   * @throws IOException - в случае, если произошла проблема при работе с файлом настроек
+   */
+  public static boolean getElevationIndexFromSettings() throws IOException {
+    try(var res = Main.class.getClassLoader().getResourceAsStream("application.yml")) {
+      YamlMapping yamlMapping = Yaml
+          .createYamlInput(res)
+          .readYamlMapping();
+      return Boolean.parseBoolean(yamlMapping.string("elevation-index"));
+    }
+  }
+
 
 }
\ No newline at end of file
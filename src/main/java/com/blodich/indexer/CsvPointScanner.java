@@ -0,0 +1,420 @@
+package com.blodich.indexer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import tree.geometry.Point;
+
+/**
+ * Параллельный разбор координат из csv файла.
+ *
+ * Файл делится на диапазоны байт, границы которых выровнены по началу строк.
+ * Каждый диапазон отображается в память и разбирается отдельной задачей ForkJoinPool
+ * побайтовым токенизатором с учетом кавычек. Разбираются только нужные колонки,
+ * смещение строки - это точное смещение ее первого байта, поэтому поддерживаются и LF, и CRLF.
+ * Переводы строк внутри значений в кавычках не поддерживаются.
+ * Если задана колонка высоты, она тоже разбирается; пустое значение и \N дают высоту NaN.
+ */
+public class CsvPointScanner {
+  // Минимальный размер диапазона, меньшие куски не стоят накладных расходов на задачу
+  private static final long MIN_CHUNK_BYTES = 1L << 20;
+
+  // Максимальный размер диапазона, отображаемого в память одним буфером
+  private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+  // Количество диапазонов на поток для выравнивания нагрузки
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  // Степени десяти, точно представимые в double
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final Path source;
+  private final int latitudeColumn;
+  private final int longitudeColumn;
+  private final int elevationColumn;
+
+  /**
+   * @param source путь к csv файлу
+   * @param latitudeColumn номер колонки широты (с нуля)
+   * @param longitudeColumn номер колонки долготы (с нуля)
+   */
+  public CsvPointScanner(Path source, int latitudeColumn, int longitudeColumn) {
+    this(source, latitudeColumn, longitudeColumn, -1);
+  }
+
+  /**
+   * @param source путь к csv файлу
+   * @param latitudeColumn номер колонки широты (с нуля)
+   * @param longitudeColumn номер колонки долготы (с нуля)
+   * @param elevationColumn номер колонки высоты (с нуля), -1 - высота не разбирается
+   */
+  public CsvPointScanner(Path source, int latitudeColumn, int longitudeColumn, int elevationColumn) {
+    this.source = source;
+    this.latitudeColumn = latitudeColumn;
+    this.longitudeColumn = longitudeColumn;
+    this.elevationColumn = elevationColumn;
+  }
+
+  /**
+   * Разбирает весь файл.
+   * @param parallelism количество потоков, 1 - разбор в текущем потоке
+   * @return точки в порядке следования строк в файле
+   * @throws IOException в случае ошибки чтения или разбора строки
+   */
+  public List<Point> scan(int parallelism) throws IOException {
+    return scan(0, parallelism);
+  }
+
+  /**
+   * Разбирает файл, начиная с заданного смещения.
+   * @param from смещение начала первой разбираемой строки
+   * @param parallelism количество потоков, 1 - разбор в текущем потоке
+   * @return точки в порядке следования строк в файле
+   * @throws IOException в случае ошибки чтения или разбора строки
+   */
+  public List<Point> scan(long from, int parallelism) throws IOException {
+    return scan(from, Long.MAX_VALUE, parallelism);
+  }
+
+  /**
+   * Разбирает строки файла в диапазоне байт [from; to).
+   * @param from смещение начала первой разбираемой строки
+   * @param to смещение конца диапазона, должно совпадать с началом строки или концом файла
+   * @param parallelism количество потоков, 1 - разбор в текущем потоке
+   * @return точки в порядке следования строк в файле
+   * @throws IOException в случае ошибки чтения или разбора строки
+   */
+  public List<Point> scan(long from, long to, int parallelism) throws IOException {
+    try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+      long[] boundaries = boundaries(channel, from, Math.min(to, channel.size()), parallelism);
+      List<Chunk> chunks = new ArrayList<>(boundaries.length);
+      if (parallelism <= 1) {
+        for (int i = 0; i + 1 < boundaries.length; i++) {
+          chunks.add(scanRange(channel, boundaries[i], boundaries[i + 1]));
+        }
+      } else {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+          chunks = pool.submit(new ScanTask(channel, boundaries, 0, boundaries.length - 1)).get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException(e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) e.getCause()).getCause();
+          }
+          throw new IOException(e.getCause());
+        } finally {
+          pool.shutdown();
+        }
+      }
+
+      int total = 0;
+      for (Chunk chunk : chunks) {
+        total += chunk.size;
+      }
+      List<Point> points = new ArrayList<>(total);
+      for (Chunk chunk : chunks) {
+        for (int i = 0; i < chunk.size; i++) {
+          points.add(new Point(chunk.latitude[i], chunk.longitude[i], chunk.seek[i], chunk.elevation[i]));
+        }
+      }
+      return points;
+    }
+  }
+
+  /**
+   * Смещение конца последней полной строки, то есть позиция после последнего символа '\n'.
+   * Строка, которая еще дописывается в конец файла, в этот диапазон не входит.
+   * @return смещение или 0, если в файле нет ни одного перевода строки
+   * @throws IOException в случае ошибки чтения
+   */
+  public long completeLength() throws IOException {
+    return completeLength(Long.MAX_VALUE);
+  }
+
+  /**
+   * Смещение конца последней полной строки в диапазоне [0; limit), например в той части файла,
+   * которую уже видит источник строк.
+   * @param limit граница диапазона, больше размера файла - весь файл
+   * @return смещение или 0, если в диапазоне нет ни одного перевода строки
+   * @throws IOException в случае ошибки чтения
+   */
+  public long completeLength(long limit) throws IOException {
+    try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(8192);
+      long end = Math.min(limit, channel.size());
+      while (end > 0) {
+        long start = Math.max(0, end - buffer.capacity());
+        buffer.clear().limit((int) (end - start));
+        int read = 0;
+        while (read < buffer.limit()) {
+          int n = channel.read(buffer, start + read);
+          if (n <= 0) {
+            break;
+          }
+          read += n;
+        }
+        for (int i = read - 1; i >= 0; i--) {
+          if (buffer.get(i) == '\n') {
+            return start + i + 1;
+          }
+        }
+        end = start;
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Делит диапазон файла на части, выровненные по началу строк.
+   * @return отсортированные границы частей, первая - from, последняя - size
+   */
+  private static long[] boundaries(FileChannel channel, long from, long size, int parallelism) throws IOException {
+    long length = Math.max(0, size - from);
+    int chunkCount = (int) Math.max(
+        Math.min(Math.max(1, parallelism) * CHUNKS_PER_THREAD, length / MIN_CHUNK_BYTES),
+        (length + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+    chunkCount = Math.max(1, chunkCount);
+
+    long[] boundaries = new long[chunkCount + 1];
+    int count = 0;
+    boundaries[count++] = from;
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    for (int i = 1; i < chunkCount; i++) {
+      long boundary = nextLineStart(channel, buffer, from + length * i / chunkCount);
+      if (boundary > boundaries[count - 1] && boundary < size) {
+        boundaries[count++] = boundary;
+      }
+    }
+    boundaries[count++] = Math.max(from, size);
+    return Arrays.copyOf(boundaries, count);
+  }
+
+  /**
+   * Находит начало первой строки, начинающейся не раньше заданной позиции.
+   */
+  private static long nextLineStart(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    long current = position - 1;
+    while (true) {
+      buffer.clear();
+      int read = channel.read(buffer, current);
+      if (read <= 0) {
+        return channel.size();
+      }
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          return current + i + 1;
+        }
+      }
+      current += read;
+    }
+  }
+
+  /**
+   * Результат разбора одного диапазона.
+   */
+  private static class Chunk {
+    private double[] latitude = new double[1024];
+    private double[] longitude = new double[1024];
+    private double[] elevation = new double[1024];
+    private long[] seek = new long[1024];
+    private int size;
+
+    void add(double lat, double lon, double elev, long offset) {
+      if (size == seek.length) {
+        latitude = Arrays.copyOf(latitude, size * 2);
+        longitude = Arrays.copyOf(longitude, size * 2);
+        elevation = Arrays.copyOf(elevation, size * 2);
+        seek = Arrays.copyOf(seek, size * 2);
+      }
+      latitude[size] = lat;
+      longitude[size] = lon;
+      elevation[size] = elev;
+      seek[size] = offset;
+      size++;
+    }
+  }
+
+  /**
+   * Задача разбора диапазонов [from; to) из массива границ. Делится пополам, пока не останется один диапазон.
+   */
+  private class ScanTask extends RecursiveTask<List<Chunk>> {
+    private final FileChannel channel;
+    private final long[] boundaries;
+    private final int from;
+    private final int to;
+
+    ScanTask(FileChannel channel, long[] boundaries, int from, int to) {
+      this.channel = channel;
+      this.boundaries = boundaries;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected List<Chunk> compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        ScanTask right = new ScanTask(channel, boundaries, middle, to);
+        right.fork();
+        List<Chunk> result = new ScanTask(channel, boundaries, from, middle).compute();
+        result.addAll(right.join());
+        return result;
+      }
+
+      List<Chunk> result = new ArrayList<>(1);
+      if (to > from) {
+        try {
+          result.add(scanRange(channel, boundaries[from], boundaries[to]));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Разбирает строки диапазона [start; end).
+   */
+  private Chunk scanRange(FileChannel channel, long start, long end) throws IOException {
+    Chunk chunk = new Chunk();
+    if (end <= start) {
+      return chunk;
+    }
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    int limit = buffer.limit();
+    int lineStart = 0;
+    while (lineStart < limit) {
+      int lineEnd = lineStart;
+      while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      int contentEnd = lineEnd;
+      if (contentEnd > lineStart && buffer.get(contentEnd - 1) == '\r') {
+        contentEnd--;
+      }
+      if (contentEnd > lineStart) {
+        parseLine(buffer, lineStart, contentEnd, start + lineStart, chunk);
+      }
+      lineStart = lineEnd + 1;
+    }
+    return chunk;
+  }
+
+  /**
+   * Разбирает одну строку, читая только колонки широты, долготы и, если задана, высоты.
+   */
+  private void parseLine(ByteBuffer buffer, int lineStart, int lineEnd, long seek, Chunk chunk) throws IOException {
+    int lastColumn = Math.max(Math.max(latitudeColumn, longitudeColumn), elevationColumn);
+    double latitude = Double.NaN;
+    double longitude = Double.NaN;
+    double elevation = Double.NaN;
+    int column = 0;
+    int fieldStart = lineStart;
+    boolean inQuotes = false;
+    for (int i = lineStart; i <= lineEnd && column <= lastColumn; i++) {
+      byte b = i < lineEnd ? buffer.get(i) : (byte) ',';
+      if (b == '"') {
+        inQuotes = !inQuotes;
+      } else if (b == ',' && !inQuotes) {
+        if (column == latitudeColumn) {
+          latitude = parseDouble(buffer, fieldStart, i, seek);
+        }
+        if (column == longitudeColumn) {
+          longitude = parseDouble(buffer, fieldStart, i, seek);
+        }
+        if (column == elevationColumn && !isEmpty(buffer, fieldStart, i)) {
+          elevation = parseDouble(buffer, fieldStart, i, seek);
+        }
+        column++;
+        fieldStart = i + 1;
+      }
+    }
+    if (column <= lastColumn) {
+      throw new IOException("Недостаточно колонок в строке со смещением " + seek);
+    }
+    chunk.add(latitude, longitude, elevation, seek);
+  }
+
+  /**
+   * Проверяет, что поле пустое: нет символов, пустые кавычки или \N.
+   */
+  private static boolean isEmpty(ByteBuffer buffer, int from, int to) {
+    return to == from
+        || to - from == 2 && (buffer.get(from) == '"' && buffer.get(from + 1) == '"'
+            || buffer.get(from) == '\\' && buffer.get(from + 1) == 'N');
+  }
+
+  /**
+   * Разбирает число из байт поля. Десятичные числа до 15 значащих цифр разбираются напрямую,
+   * что дает точно округленный результат; остальные передаются в Double.parseDouble.
+   */
+  static double parseDouble(ByteBuffer buffer, int from, int to, long seek) throws IOException {
+    if (to - from >= 2 && buffer.get(from) == '"' && buffer.get(to - 1) == '"') {
+      from++;
+      to--;
+    }
+    int i = from;
+    boolean negative = false;
+    if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+      negative = buffer.get(i) == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = 0;
+    boolean fraction = false;
+    boolean simple = i < to;
+    for (; i < to; i++) {
+      byte b = buffer.get(i);
+      if (b >= '0' && b <= '9') {
+        if (mantissa != 0 || b != '0') {
+          digits++;
+        }
+        mantissa = mantissa * 10 + (b - '0');
+        if (fraction) {
+          fractionDigits++;
+        }
+      } else if (b == '.' && !fraction) {
+        fraction = true;
+      } else {
+        simple = false;
+        break;
+      }
+      if (digits > 15) {
+        simple = false;
+        break;
+      }
+    }
+    if (simple && fractionDigits <= 22) {
+      double value = mantissa / POWERS_OF_TEN[fractionDigits];
+      return negative ? -value : value;
+    }
+
+    byte[] bytes = new byte[to - from];
+    for (int j = 0; j < bytes.length; j++) {
+      bytes[j] = buffer.get(from + j);
+    }
+    try {
+      return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+    } catch (NumberFormatException e) {
+      throw new IOException("Некорректное число в строке со смещением " + seek + ": " + e.getMessage());
+    }
+  }
+}
@@ -1,37 +1,240 @@
 package com.blodich.indexer;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import tree.ConcurrentRTree;
+import tree.PackedRTree;
 import tree.geometry.Point;
 import tree.RTree;
+import tree.SpatialIndex;
 
 public class RTreeFileIndexer{
+  private final Path source;
   private final int[] columns;
+  private final Path snapshot;
+  private final int parallelism;
+  private final Supplier<SpatialIndex> indexFactory;
+  private final boolean rowIds;
+  private final boolean elevation;
+
+  // Смещение конца проиндексированной части файла
+  private long indexedLength;
+
+  // Количество проиндексированных непустых строк
+  private long indexedRows;
 
   public RTreeFileIndexer(int[] columns) {
+    this(defaultSource(), columns, null);
+  }
+
+  /**
+   * @param source путь к csv файлу
+   * @param columns индексируемые колонки
+   * @param snapshot путь к снимку индекса на диске, null - не использовать снимок
+   */
+  public RTreeFileIndexer(Path source, int[] columns, Path snapshot) {
+    this(source, columns, snapshot, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param source путь к csv файлу
+   * @param columns индексируемые колонки
+   * @param snapshot путь к снимку индекса на диске, null - не использовать снимок
+   * @param parallelism количество потоков для разбора файла, 1 - последовательный разбор
+   */
+  public RTreeFileIndexer(Path source, int[] columns, Path snapshot, int parallelism) {
+    this(source, columns, snapshot, parallelism, () -> new RTree(4), false);
+  }
+
+  /**
+   * @param source путь к csv файлу
+   * @param columns индексируемые колонки
+   * @param snapshot путь к снимку индекса на диске, null - не использовать снимок;
+   *                 снимок поддерживается только для RTree
+   * @param parallelism количество потоков для разбора файла, 1 - последовательный разбор
+   * @param indexFactory создает пустой индекс, например RTree или GridIndex
+   * @param rowIds true - в поле seek точек хранится номер непустой строки (для ColumnarStore),
+   *               false - смещение строки в байтах
+   */
+  public RTreeFileIndexer(Path source, int[] columns, Path snapshot, int parallelism,
+                          Supplier<SpatialIndex> indexFactory, boolean rowIds) {
+    this(source, columns, snapshot, parallelism, indexFactory, rowIds, false);
+  }
+
+  /**
+   * @param source путь к csv файлу
+   * @param columns индексируемые колонки: широта, долгота и высота
+   * @param snapshot путь к снимку индекса на диске, null - не использовать снимок;
+   *                 снимок поддерживается только для RTree
+   * @param parallelism количество потоков для разбора файла, 1 - последовательный разбор
+   * @param indexFactory создает пустой индекс, например RTree или GridIndex
+   * @param rowIds true - в поле seek точек хранится номер непустой строки (для ColumnarStore),
+   *               false - смещение строки в байтах
+   * @param elevation true - высота из колонки columns[2] сохраняется в индексе и доступна
+   *                  для фильтрации при обходе, false - высота не разбирается
+   */
+  public RTreeFileIndexer(Path source, int[] columns, Path snapshot, int parallelism,
+                          Supplier<SpatialIndex> indexFactory, boolean rowIds, boolean elevation) {
+    this.source = source;
     this.columns = columns;
+    this.snapshot = snapshot;
+    this.parallelism = parallelism;
+    this.indexFactory = indexFactory;
+    this.rowIds = rowIds;
+    this.elevation = elevation;
+  }
+
+  /**
+   * Путь к файлу airports.csv из ресурсов приложения.
+   * @return путь к файлу
+   */
+  public static Path defaultSource() {
+    try {
+      return Paths.get(RTreeFileIndexer.class.getClassLoader().getResource("airports.csv").toURI());
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Строит индекс по файлу. Если фабрика создает RTree, возвращается его неизменяемое компактное
+   * представление {@link PackedRTree}, на котором выполняется поиск; при заданном снимке оно
+   * читается из снимка, а при его отсутствии или устаревании строится заново и сохраняется.
+   * @return индекс файла
+   * @throws IOException если файл не читается или снимок не записывается
+   */
+  public SpatialIndex index() throws IOException {
+    SpatialIndex index = indexFactory.get();
+    if (!(index instanceof RTree)) {
+      return build(index);
+    }
+    if (snapshot == null) {
+      return ((RTree) build(index)).freeze();
+    }
+
+    RTreeSnapshot rTreeSnapshot = new RTreeSnapshot(snapshot, source, indexedColumns());
+    PackedRTree packed = rTreeSnapshot.load();
+    if (packed != null) {
+      // Снимок соответствует файлу того же размера, значит построен по тем же полным строкам
+      indexedLength = scanner().completeLength();
+      indexedRows = packed.size();
+      return packed;
+    }
+    packed = ((RTree) build(index)).freeze();
+    rTreeSnapshot.save(packed);
+    return packed;
+  }
+
+  /**
+   * Добавляет в индекс строки, дописанные в конец файла после последней индексации.
+   * Индексируются только полные строки, заканчивающиеся переводом строки; недописанная
+   * строка будет проиндексирована при следующем вызове. Новые точки добавляются одним пакетом.
+   * Если файл проиндексирован полностью и индекс целиком упакован в PackedRTree,
+   * снимок индекса перезаписывается.
+   * Чтобы искать по индексу во время обновления, он должен быть потокобезопасным ({@link ConcurrentRTree});
+   * PackedRTree, который возвращает index, изменять нельзя, его нужно обернуть в ConcurrentRTree.
+   * Сам метод не должен вызываться из нескольких потоков одновременно.
+   * @param index индекс, построенный методом index этого индексатора
+   * @return количество добавленных точек
+   * @throws IOException если файл уменьшился (требуется полная переиндексация) или не читается
+   */
+  public int update(SpatialIndex index) throws IOException {
+    return update(index, Long.MAX_VALUE);
+  }
+
+  /**
+   * Аналог update, индексирующий только строки в диапазоне [0; readableLength), например в той
+   * части файла, которую уже отображил в память источник строк: строка не должна попасть
+   * в индекс раньше, чем ее можно прочитать.
+   * @param index индекс, построенный методом index этого индексатора
+   * @param readableLength граница доступной для чтения части файла
+   * @return количество добавленных точек
+   * @throws IOException если файл уменьшился (требуется полная переиндексация) или не читается
+   */
+  public int update(SpatialIndex index, long readableLength) throws IOException {
+    long size = Files.size(source);
+    if (size < indexedLength) {
+      throw new IOException("Файл уменьшился после индексации, требуется полная переиндексация: " + source);
+    }
+    CsvPointScanner scanner = scanner();
+    long end = scanner.completeLength(readableLength);
+    if (end <= indexedLength) {
+      return 0;
+    }
+
+    List<Point> points = number(scanner.scan(indexedLength, end, parallelism));
+    index.bulkLoad(points);
+    indexedLength = end;
+    if (snapshot != null && end == size) {
+      PackedRTree packed = index instanceof ConcurrentRTree concurrent ? concurrent.getPacked()
+          : index instanceof RTree tree ? tree.freeze() : null;
+      if (packed != null) {
+        new RTreeSnapshot(snapshot, source, indexedColumns()).save(packed);
+      }
+    }
+    return points.size();
+  }
+
+  /**
+   * Фабрика, создающая пустой индекс того же типа, что и построенный этим индексатором.
+   * @return фабрика индексов
+   */
+  public Supplier<SpatialIndex> getIndexFactory() {
+    return indexFactory;
+  }
+
+  /**
+   * Смещение конца проиндексированной части файла.
+   * @return смещение в байтах
+   */
+  public long getIndexedLength() {
+    return indexedLength;
+  }
+
+  /**
+   * Индексирует только полные строки: недописанная последняя строка (или последняя строка
+   * без перевода строки) будет добавлена методом update, когда ее допишут.
+   */
+  private SpatialIndex build(SpatialIndex index) throws IOException {
+    CsvPointScanner scanner = scanner();
+    long end = scanner.completeLength();
+    indexedRows = 0;
+    List<Point> points = number(scanner.scan(0, end, parallelism));
+    index.bulkLoad(points);
+    indexedLength = end;
+    return index;
+  }
+
+  private CsvPointScanner scanner() {
+    return new CsvPointScanner(source, columns[0], columns[1], elevation ? columns[2] : -1);
+  }
+
+  /**
+   * Колонки, которые фактически попадают в индекс. По ним снимок, построенный без высоты,
+   * отличается от снимка с высотой.
+   */
+  private int[] indexedColumns() {
+    return elevation ? columns : Arrays.copyOf(columns, 2);
   }
 
-  public RTree index() throws IOException {
-    try (BufferedReader br =
-             new BufferedReader(
-                 new InputStreamReader(
-                     RTreeFileIndexer.class.getClassLoader().getResourceAsStream("airports.csv")))) {
-      RTree tree = new RTree(4);
-      String row;
-      long seek = 0;
-      while ((row = br.readLine()) != null) {
-        String[] splited = row.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
-        double latitude = Double.parseDouble(splited[columns[0]]);
-        double longitude = Double.parseDouble(splited[columns[1]]);
-        double elevation = Double.parseDouble(splited[columns[2]]);
-        Point point = new Point(latitude, longitude, seek);
-        seek += (row.getBytes(StandardCharsets.UTF_8).length + 2);
-        tree.add(point);
+  /**
+   * В режиме rowIds заменяет смещения точек номерами строк, продолжая нумерацию
+   * после уже проиндексированных строк. Точки идут в порядке следования строк в файле.
+   */
+  private List<Point> number(List<Point> points) {
+    if (rowIds) {
+      for (int i = 0; i < points.size(); i++) {
+        Point point = points.get(i);
+        points.set(i, new Point(point.getX(), point.getY(), indexedRows + i, point.getElevation()));
       }
-      return tree;
     }
+    indexedRows += points.size();
+    return points;
   }
 }
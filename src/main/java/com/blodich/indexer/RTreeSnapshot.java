@@ -0,0 +1,140 @@
+package com.blodich.indexer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import tree.PackedRTree;
+
+/**
+ * Бинарный снимок индекса на диске.
+ *
+ * Формат файла (little-endian):
+ * магическое число, версия формата, размер исходного файла, время его изменения, CRC32 его содержимого,
+ * количество и номера индексируемых колонок, затем дерево в формате {@link PackedRTree#write(FileChannel)}.
+ * Если исходный файл или колонки не совпадают с заголовком, снимок считается устаревшим.
+ */
+public class RTreeSnapshot {
+  // "RTIX"
+  private static final int MAGIC = 0x52544958;
+  private static final int VERSION = 3;
+
+  // Размер блока, которым исходный файл отображается в память при подсчете контрольной суммы
+  private static final long CHECKSUM_CHUNK_BYTES = 1L << 26;
+
+  private final Path snapshot;
+  private final Path source;
+  private final int[] columns;
+
+  /**
+   * Конструктор класса
+   * @param snapshot путь к файлу снимка
+   * @param source путь к исходному csv файлу
+   * @param columns индексируемые колонки
+   */
+  public RTreeSnapshot(Path snapshot, Path source, int[] columns) {
+    this.snapshot = snapshot;
+    this.source = source;
+    this.columns = columns;
+  }
+
+  /**
+   * Загружает дерево из снимка, если снимок существует и соответствует исходному файлу.
+   * Массивы дерева отображаются в память без копирования, дерево сразу готово к поиску.
+   * @return дерево или null, если снимок отсутствует, устарел или не может быть прочитан
+   */
+  public PackedRTree load() {
+    if (!Files.isRegularFile(snapshot)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+      int headerBytes = headerBytes();
+      if (channel.size() < headerBytes) {
+        return null;
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerBytes)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+        return null;
+      }
+      long size = header.getLong();
+      long modified = header.getLong();
+      long checksum = header.getLong();
+      if (size != Files.size(source) || modified != Files.getLastModifiedTime(source).toMillis()) {
+        return null;
+      }
+      if (header.getInt() != columns.length) {
+        return null;
+      }
+      for (int column : columns) {
+        if (header.getInt() != column) {
+          return null;
+        }
+      }
+      if (checksum != checksum(source)) {
+        return null;
+      }
+      return PackedRTree.read(channel, headerBytes);
+    } catch (IOException e) {
+      // Поврежденный или нечитаемый снимок просто перестраивается
+      return null;
+    }
+  }
+
+  /**
+   * Сохраняет дерево в снимок. Запись идет во временный файл, который затем атомарно заменяет снимок.
+   * @param tree дерево
+   * @throws IOException в случае ошибки записи
+   */
+  public void save(PackedRTree tree) throws IOException {
+    Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(headerBytes()).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC)
+          .putInt(VERSION)
+          .putLong(Files.size(source))
+          .putLong(Files.getLastModifiedTime(source).toMillis())
+          .putLong(checksum(source))
+          .putInt(columns.length);
+      for (int column : columns) {
+        header.putInt(column);
+      }
+      header.flip();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      tree.write(channel);
+    }
+    Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private int headerBytes() {
+    return 2 * Integer.BYTES + 3 * Long.BYTES + Integer.BYTES + columns.length * Integer.BYTES;
+  }
+
+  /**
+   * Считает CRC32 содержимого файла, отображая его в память блоками.
+   * @param file файл
+   * @return контрольная сумма
+   * @throws IOException в случае ошибки чтения
+   */
+  public static long checksum(Path file) throws IOException {
+    CRC32 crc = new CRC32();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      for (long position = 0; position < size; position += CHECKSUM_CHUNK_BYTES) {
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.min(CHECKSUM_CHUNK_BYTES, size - position));
+        crc.update(chunk);
+      }
+    }
+    return crc.getValue();
+  }
+}
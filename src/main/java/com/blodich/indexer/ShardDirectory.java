@@ -0,0 +1,128 @@
+package com.blodich.indexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import tree.SpatialIndex;
+import tree.geometry.GeodesicWindow;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+
+/**
+ * Каталог шардов: для каждого исходного файла - его собственный индекс и ограничивающий
+ * прямоугольник всех его точек. По прямоугольникам выбираются шарды, которые могут
+ * содержать точки в пределах радиуса поиска, остальные шарды запросом не затрагиваются.
+ */
+public class ShardDirectory implements Closeable {
+  /**
+   * Шард.
+   * @param source исходный csv файл, смещения точек индекса относятся к нему
+   * @param index индекс точек файла
+   * @param bounds ограничивающий прямоугольник точек (X - широта, Y - долгота), null - файл без точек
+   */
+  public record Shard(Path source, SpatialIndex index, Rectangle bounds) {
+  }
+
+  private final List<Shard> shards;
+
+  /**
+   * @param shards шарды в порядке исходных файлов
+   */
+  public ShardDirectory(List<Shard> shards) {
+    this.shards = List.copyOf(shards);
+  }
+
+  /**
+   * Все шарды каталога.
+   * @return шарды в порядке исходных файлов
+   */
+  public List<Shard> getShards() {
+    return shards;
+  }
+
+  /**
+   * Закрывает индексы шардов, которые требуют закрытия (например, OffHeapRTree).
+   * @throws IOException если не удалось закрыть хотя бы один индекс
+   */
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (Shard shard : shards) {
+      if (shard.index() instanceof AutoCloseable closeable) {
+        try {
+          closeable.close();
+        } catch (Exception e) {
+          IOException exception = e instanceof IOException io ? io : new IOException(e);
+          if (failure == null) {
+            failure = exception;
+          } else {
+            failure.addSuppressed(exception);
+          }
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Выбирает шарды, прямоугольник которых пересекает геодезическое окно круга
+   * и удален от целевой точки не дальше радиуса.
+   * @param target целевая точка
+   * @param radiusKm радиус в километрах
+   * @return шарды в порядке возрастания минимального расстояния до их прямоугольника
+   */
+  public List<Shard> candidates(Point target, double radiusKm) {
+    List<Shard> result = new ArrayList<>();
+    if (!(radiusKm >= 0)) {
+      return result;
+    }
+    List<Rectangle> window = GeodesicWindow.around(target.getX(), target.getY(), radiusKm);
+    List<Double> distances = new ArrayList<>();
+    for (Shard shard : shards) {
+      Rectangle bounds = shard.bounds();
+      if (bounds == null
+          || !GeodesicWindow.intersects(window, bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY())) {
+        continue;
+      }
+      double distance = bounds.minDistance(target);
+      if (distance <= radiusKm) {
+        result.add(shard);
+        distances.add(distance);
+      }
+    }
+    Integer[] order = new Integer[result.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingDouble(distances::get));
+    List<Shard> sorted = new ArrayList<>(order.length);
+    for (int i : order) {
+      sorted.add(result.get(i));
+    }
+    return sorted;
+  }
+
+  /**
+   * Ограничивающий прямоугольник всех точек индекса.
+   * @param index индекс
+   * @return прямоугольник или null, если индекс пуст
+   */
+  static Rectangle bounds(SpatialIndex index) {
+    double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    index.range(new Rectangle(-90, -180, 90, 180), point -> {
+      bounds[0] = Math.min(bounds[0], point.getX());
+      bounds[1] = Math.min(bounds[1], point.getY());
+      bounds[2] = Math.max(bounds[2], point.getX());
+      bounds[3] = Math.max(bounds[3], point.getY());
+      return true;
+    });
+    return bounds[0] > bounds[2] ? null : new Rectangle(bounds[0], bounds[1], bounds[2], bounds[3]);
+  }
+}
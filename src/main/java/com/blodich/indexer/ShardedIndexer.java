@@ -0,0 +1,117 @@
+package com.blodich.indexer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import tree.RTree;
+import tree.SpatialIndex;
+
+/**
+ * Индексатор набора csv файлов. Каждый файл становится отдельным шардом со своим индексом
+ * и снимком индекса рядом с файлом ({@code <файл>.idx}); региональные файлы уже разделены
+ * по территории, поэтому прямоугольники шардов почти не пересекаются. Шарды строятся
+ * независимо и параллельно, по одному файлу на задачу.
+ */
+public class ShardedIndexer {
+  private final List<Path> inputs;
+  private final int[] columns;
+  private final int parallelism;
+  private final Supplier<SpatialIndex> indexFactory;
+  private final boolean elevation;
+
+  /**
+   * @param inputs csv файлы и каталоги; из каталога берутся файлы *.csv без вложенных каталогов
+   * @param columns индексируемые колонки, одинаковые для всех файлов
+   * @param parallelism количество одновременно индексируемых файлов
+   */
+  public ShardedIndexer(List<Path> inputs, int[] columns, int parallelism) {
+    this(inputs, columns, parallelism, () -> new RTree(4), false);
+  }
+
+  /**
+   * @param inputs csv файлы и каталоги; из каталога берутся файлы *.csv без вложенных каталогов
+   * @param columns индексируемые колонки, одинаковые для всех файлов
+   * @param parallelism количество одновременно индексируемых файлов
+   * @param indexFactory создает пустой индекс шарда
+   * @param elevation true - высота сохраняется в индексах шардов
+   */
+  public ShardedIndexer(List<Path> inputs, int[] columns, int parallelism,
+                        Supplier<SpatialIndex> indexFactory, boolean elevation) {
+    this.inputs = List.copyOf(inputs);
+    this.columns = columns;
+    this.parallelism = Math.max(1, parallelism);
+    this.indexFactory = indexFactory;
+    this.elevation = elevation;
+  }
+
+  /**
+   * Список исходных файлов: файлы из inputs как есть, каталоги раскрываются в отсортированный список *.csv.
+   * @return файлы в порядке inputs
+   * @throws IOException если путь не существует или каталог не читается
+   */
+  public List<Path> sources() throws IOException {
+    List<Path> result = new ArrayList<>();
+    for (Path input : inputs) {
+      if (Files.isDirectory(input)) {
+        try (Stream<Path> files = Files.list(input)) {
+          files.filter(file -> Files.isRegularFile(file) && file.getFileName().toString().endsWith(".csv"))
+              .sorted()
+              .forEach(result::add);
+        }
+      } else if (Files.isRegularFile(input)) {
+        result.add(input);
+      } else {
+        throw new IOException("Файл не найден: " + input);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Строит или загружает из снимков индексы всех файлов.
+   * @return каталог шардов
+   * @throws IOException в случае ошибки чтения файлов
+   */
+  public ShardDirectory index() throws IOException {
+    List<Path> sources = sources();
+    List<Callable<ShardDirectory.Shard>> tasks = new ArrayList<>(sources.size());
+    for (Path source : sources) {
+      tasks.add(() -> shard(source));
+    }
+
+    List<ShardDirectory.Shard> shards = new ArrayList<>(sources.size());
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      for (Future<ShardDirectory.Shard> future : pool.invokeAll(tasks)) {
+        shards.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    return new ShardDirectory(shards);
+  }
+
+  private ShardDirectory.Shard shard(Path source) throws IOException {
+    // Файлы индексируются параллельно между собой, поэтому каждый файл разбирается в одном потоке
+    RTreeFileIndexer indexer = new RTreeFileIndexer(source, columns,
+        source.resolveSibling(source.getFileName() + ".idx"), 1, indexFactory, false, elevation);
+    SpatialIndex index = indexer.index();
+    return new ShardDirectory.Shard(source, index, ShardDirectory.bounds(index));
+  }
+}
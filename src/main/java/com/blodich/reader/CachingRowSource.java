@@ -0,0 +1,355 @@
+package com.blodich.reader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import tree.geometry.Point;
+
+/**
+ * Кэш строк поверх другого RowSource, ключ - смещение строки в файле.
+ * Размер кэша ограничен бюджетом в байтах, вес строки оценивается по занимаемой памяти.
+ * Кэш очищается, если у исходного файла изменились размер или время модификации;
+ * проверка выполняется не чаще одного раза в VALIDATE_INTERVAL_NANOS.
+ * Потокобезопасен: структура кэша защищена блокировкой, чтение промахов из файла
+ * выполняется без блокировки.
+ */
+public class CachingRowSource implements RowSource {
+    /**
+     * Политика вытеснения.
+     */
+    public enum Policy {
+        // Вытесняется давно не использованная строка
+        LRU,
+        // LRU с фильтром допуска TinyLFU: новая строка вытесняет старую, только если
+        // по оценке частоты обращений она востребована чаще
+        TINY_LFU
+    }
+
+    /**
+     * Статистика кэша.
+     * @param hits попадания
+     * @param misses промахи
+     * @param evictions вытесненные строки
+     * @param rejections строки, не допущенные фильтром TinyLFU
+     * @param entries количество строк в кэше
+     * @param bytes оценка занимаемой памяти в байтах
+     */
+    public record Stats(long hits, long misses, long evictions, long rejections, int entries, long bytes) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    // Оценка накладных расходов на одну строку: объект String, массив, узел LinkedHashMap и ключ Long
+    private static final int ENTRY_OVERHEAD = 96;
+
+    // Минимальный интервал между проверками изменения исходного файла
+    private static final long VALIDATE_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final RowSource delegate;
+    private final Path path;
+    private final long maxBytes;
+    private final Policy policy;
+    private final FrequencySketch sketch;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, String> rows = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    private volatile long lastValidated;
+    private long sourceSize;
+    private long sourceModified;
+
+    /**
+     * Конструктор класса
+     * @param delegate источник строк, к которому обращается кэш при промахе
+     * @param path путь к исходному файлу для отслеживания изменений
+     * @param maxBytes бюджет кэша в байтах
+     * @param policy политика вытеснения
+     * @throws IOException если не удалось прочитать атрибуты файла
+     */
+    public CachingRowSource(RowSource delegate, Path path, long maxBytes, Policy policy) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Размер кэша должен быть положительным: " + maxBytes);
+        }
+        this.delegate = delegate;
+        this.path = path;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        // Количество счетчиков соответствует ожидаемому числу строк при средней длине строки ~150 байт
+        this.sketch = policy == Policy.TINY_LFU
+            ? new FrequencySketch((int) Math.min(1 << 24, Math.max(1024, maxBytes / (ENTRY_OVERHEAD + 300))))
+            : null;
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        this.sourceSize = attributes.size();
+        this.sourceModified = attributes.lastModifiedTime().toMillis();
+        this.lastValidated = System.nanoTime();
+    }
+
+    @Override
+    public long refresh() throws IOException {
+        return delegate.refresh();
+    }
+
+    @Override
+    public String readRow(long seek) throws IOException {
+        validate();
+        String row = lookup(seek);
+        if (row != null) {
+            return row;
+        }
+        row = delegate.readRow(seek);
+        if (row != null) {
+            admit(seek, row);
+        }
+        return row;
+    }
+
+    /**
+     * Читает строки, отсутствующие в кэше, одним обращением к исходному RowSource
+     */
+    @Override
+    public List<String> readRows(List<Point> points) throws IOException {
+        validate();
+        List<String> result = new ArrayList<>(points.size());
+        List<Point> missed = new ArrayList<>();
+        List<Integer> missedIndexes = new ArrayList<>();
+        for (int i = 0; i < points.size(); i++) {
+            String row = lookup(points.get(i).getSeek());
+            result.add(row);
+            if (row == null) {
+                missed.add(points.get(i));
+                missedIndexes.add(i);
+            }
+        }
+        if (missed.isEmpty()) {
+            return result;
+        }
+
+        List<String> loaded = delegate.readRows(missed);
+        for (int i = 0; i < missed.size(); i++) {
+            String row = loaded.get(i);
+            result.set(missedIndexes.get(i), row);
+            if (row != null) {
+                admit(missed.get(i).getSeek(), row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Аналог readRows, возвращающий байты строк в кодировке UTF-8; промахи так же читаются
+     * одним обращением к исходному RowSource
+     */
+    @Override
+    public List<ByteBuffer> readRowBuffers(List<Point> points) throws IOException {
+        List<String> rows = readRows(points);
+        List<ByteBuffer> result = new ArrayList<>(rows.size());
+        for (String row : rows) {
+            result.add(ByteBuffer.wrap(row.getBytes(StandardCharsets.UTF_8)));
+        }
+        return result;
+    }
+
+    /**
+     * Текущая статистика кэша
+     * @return Stats
+     */
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), rejections.sum(), rows.size(), bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Очищает кэш, статистика обращений сохраняется
+     */
+    public void invalidate() {
+        lock.lock();
+        try {
+            rows.clear();
+            bytes = 0;
+            if (sketch != null) {
+                sketch.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String lookup(long seek) {
+        String row;
+        lock.lock();
+        try {
+            if (sketch != null) {
+                sketch.increment(seek);
+            }
+            row = rows.get(seek);
+        } finally {
+            lock.unlock();
+        }
+        if (row != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return row;
+    }
+
+    private void admit(long seek, String row) {
+        long weight = weight(row);
+        if (weight > maxBytes) {
+            rejections.increment();
+            return;
+        }
+        lock.lock();
+        try {
+            String previous = rows.put(seek, row);
+            if (previous != null) {
+                bytes -= weight(previous);
+            }
+            bytes += weight;
+            if (bytes <= maxBytes) {
+                return;
+            }
+
+            int frequency = sketch != null ? sketch.frequency(seek) : 0;
+            Iterator<Map.Entry<Long, String>> iterator = rows.entrySet().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<Long, String> eldest = iterator.next();
+                long eldestSeek = eldest.getKey();
+                if (eldestSeek == seek) {
+                    continue;
+                }
+                if (sketch != null && sketch.frequency(eldestSeek) >= frequency) {
+                    // Вытесняемая строка популярнее новой, новая строка не допускается в кэш
+                    rows.remove(seek);
+                    bytes -= weight;
+                    rejections.increment();
+                    return;
+                }
+                bytes -= weight(eldest.getValue());
+                iterator.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long weight(String row) {
+        return ENTRY_OVERHEAD + 2L * row.length();
+    }
+
+    /**
+     * Сбрасывает кэш, если исходный файл изменился
+     */
+    private void validate() {
+        long now = System.nanoTime();
+        if (now - lastValidated < VALIDATE_INTERVAL_NANOS) {
+            return;
+        }
+        lastValidated = now;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            lock.lock();
+            try {
+                if (size != sourceSize || modified != sourceModified) {
+                    sourceSize = size;
+                    sourceModified = modified;
+                    invalidate();
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Приближенный счетчик частоты обращений (count-min sketch) с 4 хэш-функциями.
+     * Счетчики ограничены значением 15 и уменьшаются вдвое после sampleSize обращений,
+     * чтобы старая популярность постепенно забывалась.
+     */
+    private static class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+        private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+        private final byte[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(16, expectedEntries - 1)) << 1;
+            table = new byte[size];
+            mask = size - 1;
+            sampleSize = 10 * size;
+        }
+
+        void increment(long key) {
+            boolean added = false;
+            for (long seed : SEEDS) {
+                int index = index(key, seed);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(long key) {
+            int result = MAX_COUNT;
+            for (long seed : SEEDS) {
+                result = Math.min(result, table[index(key, seed)]);
+            }
+            return result;
+        }
+
+        void clear() {
+            Arrays.fill(table, (byte) 0);
+            additions = 0;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (byte) (table[i] >>> 1);
+            }
+            additions /= 2;
+        }
+
+        private int index(long key, long seed) {
+            long hash = (key + seed) * seed;
+            hash ^= hash >>> 32;
+            return (int) hash & mask;
+        }
+    }
+}
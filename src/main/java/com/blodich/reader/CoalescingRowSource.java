@@ -0,0 +1,245 @@
+package com.blodich.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import tree.geometry.Point;
+
+/**
+ * Чтение строк пакетами через AsynchronousFileChannel. Смещения запрошенных строк сортируются,
+ * близкие смещения объединяются в один диапазон, и все диапазоны читаются параллельно:
+ * запросы отправляются сразу, а строки разбираются из уже прочитанных диапазонов, пока остальные
+ * еще читаются. Вместо случайных seek в порядке расстояния файл читается несколькими крупными
+ * запросами по возрастанию смещений, результат возвращается в порядке исходного списка точек.
+ * Потокобезопасен: используются только позиционные чтения канала.
+ */
+public class CoalescingRowSource implements RowSource, Closeable {
+    // Сколько байт читается от начала строки, если следующей строки в диапазоне нет
+    private static final int DEFAULT_READ_AHEAD = 512;
+
+    // Максимальный разрыв между строками, при котором они читаются одним запросом
+    private static final int DEFAULT_MAX_GAP = 16 * 1024;
+
+    // Максимальный размер одного запроса
+    private static final int DEFAULT_MAX_READ = 1024 * 1024;
+
+    private final Path path;
+    private final AsynchronousFileChannel channel;
+    private final int readAhead;
+    private final int maxGap;
+    private final int maxRead;
+
+    /**
+     * Конструктор класса, запросы выполняются пулом канала по умолчанию
+     * @param path путь к файлу
+     * @throws IOException в случае ошибки открытия файла
+     */
+    public CoalescingRowSource(Path path) throws IOException {
+        this(path, DEFAULT_READ_AHEAD, DEFAULT_MAX_GAP, DEFAULT_MAX_READ, null);
+    }
+
+    /**
+     * Конструктор класса
+     * @param path путь к файлу
+     * @param readAhead сколько байт читается от начала последней строки диапазона
+     * @param maxGap максимальный разрыв в байтах между строками одного запроса
+     * @param maxRead максимальный размер одного запроса в байтах
+     * @param ioExecutor пул потоков ввода-вывода, null - пул канала по умолчанию
+     * @throws IOException в случае ошибки открытия файла
+     */
+    public CoalescingRowSource(Path path, int readAhead, int maxGap, int maxRead, ExecutorService ioExecutor)
+        throws IOException {
+        if (readAhead <= 0 || maxGap < 0 || maxRead < readAhead) {
+            throw new IllegalArgumentException("Недопустимые параметры чтения: readAhead=" + readAhead
+                + ", maxGap=" + maxGap + ", maxRead=" + maxRead);
+        }
+        this.path = path;
+        this.channel = AsynchronousFileChannel.open(path, Set.of(StandardOpenOption.READ), ioExecutor);
+        this.readAhead = readAhead;
+        this.maxGap = maxGap;
+        this.maxRead = maxRead;
+    }
+
+    @Override
+    public String readRow(long seek) throws IOException {
+        return decode(readRowBuffer(seek));
+    }
+
+    @Override
+    public ByteBuffer readRowBuffer(long seek) throws IOException {
+        return readRowBuffers(new long[]{seek}).get(0);
+    }
+
+    @Override
+    public List<String> readRows(List<Point> points) throws IOException {
+        List<ByteBuffer> buffers = readRowBuffers(points);
+        List<String> result = new ArrayList<>(buffers.size());
+        for (ByteBuffer buffer : buffers) {
+            result.add(decode(buffer));
+        }
+        return result;
+    }
+
+    @Override
+    public List<ByteBuffer> readRowBuffers(List<Point> points) throws IOException {
+        long[] seeks = new long[points.size()];
+        for (int i = 0; i < seeks.length; i++) {
+            seeks[i] = points.get(i).getSeek();
+        }
+        return readRowBuffers(seeks);
+    }
+
+    /**
+     * Читает строки по смещениям: сортировка, объединение близких смещений в диапазоны,
+     * параллельное чтение диапазонов и разбор строк
+     * @param seeks смещения начала строк в байтах, в порядке результата
+     * @return буферы только для чтения с байтами строк в порядке seeks
+     * @throws IOException если смещение лежит за пределами файла или чтение не удалось
+     */
+    public List<ByteBuffer> readRowBuffers(long[] seeks) throws IOException {
+        if (seeks.length == 0) {
+            return new ArrayList<>();
+        }
+        long size = channel.size();
+        long[] sorted = seeks.clone();
+        Arrays.sort(sorted);
+        if (sorted[0] < 0 || sorted[sorted.length - 1] >= size) {
+            throw new IOException("Смещение за пределами файла: "
+                + (sorted[0] < 0 ? sorted[0] : sorted[sorted.length - 1]));
+        }
+
+        // Диапазоны: [starts[i], ends[i]) покрывают строки sorted[firsts[i]] .. sorted[firsts[i + 1] - 1]
+        long[] starts = new long[sorted.length];
+        long[] ends = new long[sorted.length];
+        int[] firsts = new int[sorted.length + 1];
+        int ranges = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            long end = Math.min(size, sorted[i] + readAhead);
+            if (ranges > 0 && sorted[i] <= ends[ranges - 1] + maxGap && end - starts[ranges - 1] <= maxRead) {
+                ends[ranges - 1] = Math.max(ends[ranges - 1], end);
+                continue;
+            }
+            starts[ranges] = sorted[i];
+            ends[ranges] = end;
+            firsts[ranges] = i;
+            ranges++;
+        }
+        firsts[ranges] = sorted.length;
+
+        // Все запросы отправляются до ожидания первого из них
+        ByteBuffer[] buffers = new ByteBuffer[ranges];
+        List<Future<Integer>> reads = new ArrayList<>(ranges);
+        for (int i = 0; i < ranges; i++) {
+            buffers[i] = ByteBuffer.allocate((int) (ends[i] - starts[i]));
+            reads.add(channel.read(buffers[i], starts[i]));
+        }
+
+        ByteBuffer[] rows = new ByteBuffer[sorted.length];
+        for (int i = 0; i < ranges; i++) {
+            await(reads.get(i));
+            ByteBuffer buffer = buffers[i];
+            // Канал может прочитать меньше запрошенного, дочитываем остаток
+            while (buffer.hasRemaining()) {
+                if (await(channel.read(buffer, starts[i] + buffer.position())) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            for (int j = firsts[i]; j < firsts[i + 1]; j++) {
+                if (j > 0 && sorted[j] == sorted[j - 1]) {
+                    rows[j] = rows[j - 1];
+                    continue;
+                }
+                rows[j] = row(buffer, (int) (sorted[j] - starts[i]), sorted[j], size);
+            }
+        }
+
+        List<ByteBuffer> result = new ArrayList<>(seeks.length);
+        for (long seek : seeks) {
+            // Повторяющиеся смещения получают независимые представления одной строки
+            result.add(rows[Arrays.binarySearch(sorted, seek)].duplicate());
+        }
+        return result;
+    }
+
+    /**
+     * Закрывает канал
+     * @throws IOException в случае ошибки закрытия
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Выделяет строку из прочитанного диапазона. Если строка не закончилась в диапазоне,
+     * она дочитывается отдельным запросом с удвоением размера
+     */
+    private ByteBuffer row(ByteBuffer buffer, int start, long seek, long size) throws IOException {
+        int end = start;
+        int limit = buffer.limit();
+        while (end < limit && buffer.get(end) != '\n') {
+            end++;
+        }
+        if (end == limit && seek + (end - start) < size) {
+            return readLongRow(seek, size, Math.max(readAhead, end - start) * 2);
+        }
+        return slice(buffer, start, end);
+    }
+
+    private ByteBuffer readLongRow(long seek, long size, int capacity) throws IOException {
+        while (true) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(capacity, size - seek));
+            while (buffer.hasRemaining()) {
+                if (await(channel.read(buffer, seek + buffer.position())) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            int end = 0;
+            while (end < buffer.limit() && buffer.get(end) != '\n') {
+                end++;
+            }
+            if (end < buffer.limit() || seek + end >= size) {
+                return slice(buffer, 0, end);
+            }
+            capacity *= 2;
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        return buffer.slice(start, end - start).asReadOnlyBuffer();
+    }
+
+    private int await(Future<Integer> read) throws IOException {
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Ошибка чтения файла " + path, e.getCause());
+        }
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+}
@@ -0,0 +1,815 @@
+package com.blodich.reader;
+
+import com.blodich.indexer.RTreeSnapshot;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Колоночная бинарная проекция csv файла: по одному отображенному в память файлу на колонку.
+ * Позволяет читать только нужные колонки найденных записей, не читая и не разбирая строку целиком.
+ *
+ * Строки адресуются номером (row id) - порядковым номером непустой строки файла, начиная с нуля.
+ * Этот номер хранится в поле seek точек индекса вместо смещения в байтах
+ * (см. RTreeFileIndexer с параметром rowIds). Как RowSource хранилище восстанавливает
+ * исходную строку байт в байт. Строки, дописанные в файл после конвертации, в хранилище не попадают:
+ * оно конвертируется заново при следующем открытии.
+ *
+ * Формат каталога хранилища (little-endian):
+ * meta.bin - магическое число, версия формата, размер исходного файла, время его изменения,
+ * CRC32 его содержимого, количество строк и колонок, тип каждой колонки;
+ * column-N.bin - данные колонки N. Тип колонки выбирается при конвертации:
+ * LONG и DOUBLE - long или double на строку; значения, запись которых не совпадает с Long.toString
+ * или Double.toString (например, -90 в колонке DOUBLE или \N), хранятся исходными байтами
+ * в отсортированной таблице исключений. Числовой тип выбирается, если исключений не больше 1/8 строк;
+ * STRING - исходные байты полей (вместе с кавычками) одним из способов:
+ * PLAIN - int[строк + 1] смещений и куча байт;
+ * DICTIONARY - словарь различных значений (int[значений + 1] смещений и куча байт)
+ * и код значения для каждой строки шириной 1, 2 или 4 байта. Выбирается, если он компактнее.
+ * Файл meta.bin записывается последним, поэтому прерванная конвертация просто повторяется.
+ */
+public class ColumnarStore implements RowSource {
+    /**
+     * Тип колонки.
+     */
+    public enum Type {
+        LONG,
+        DOUBLE,
+        STRING
+    }
+
+    // "RTCS"
+    private static final int MAGIC = 0x52544353;
+    private static final int VERSION = 1;
+
+    private static final String META_FILE = "meta.bin";
+
+    private static final int PLAIN = 0;
+    private static final int DICTIONARY = 1;
+
+    // Максимальный размер словаря строковой колонки, при превышении словарь не строится
+    private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    // Размер блока исходного файла, отображаемого в память при конвертации
+    private static final long CONVERT_CHUNK_BYTES = 1L << 30;
+
+    private final int rowCount;
+    private final Column[] columns;
+
+    private ColumnarStore(int rowCount, Column[] columns) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    /**
+     * Открывает хранилище, предварительно сконвертировав csv файл, если хранилище
+     * отсутствует или не соответствует исходному файлу
+     * @param source путь к csv файлу
+     * @param directory каталог хранилища
+     * @return хранилище
+     * @throws IOException в случае ошибки чтения, записи или разбора файла
+     */
+    public static ColumnarStore open(Path source, Path directory) throws IOException {
+        if (!isCurrent(source, directory)) {
+            convert(source, directory);
+        }
+        return load(directory);
+    }
+
+    /**
+     * Конвертирует csv файл в колоночное хранилище. Количество колонок определяется
+     * по первой строке, все остальные непустые строки должны содержать столько же колонок.
+     * Переводы строк внутри значений в кавычках не поддерживаются.
+     * @param source путь к csv файлу
+     * @param directory каталог хранилища, существующие файлы перезаписываются
+     * @throws IOException в случае ошибки чтения, записи или разбора файла
+     */
+    public static void convert(Path source, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(META_FILE));
+
+        long size = Files.size(source);
+        long modified = Files.getLastModifiedTime(source).toMillis();
+        List<ColumnBuilder> builders = new ArrayList<>();
+        int rows = 0;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(CONVERT_CHUNK_BYTES, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int limit = (int) length;
+                if (position + length < size) {
+                    // Блок обрезается по последнему переводу строки, остаток попадет в следующий блок
+                    while (limit > 0 && buffer.get(limit - 1) != '\n') {
+                        limit--;
+                    }
+                    if (limit == 0) {
+                        throw new IOException("Строка длиннее " + CONVERT_CHUNK_BYTES + " байт: " + source);
+                    }
+                }
+                int lineStart = 0;
+                while (lineStart < limit) {
+                    int lineEnd = lineStart;
+                    while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                        lineEnd++;
+                    }
+                    int contentEnd = lineEnd;
+                    if (contentEnd > lineStart && buffer.get(contentEnd - 1) == '\r') {
+                        contentEnd--;
+                    }
+                    if (contentEnd > lineStart) {
+                        ByteBuffer row = buffer.duplicate();
+                        row.position(lineStart).limit(contentEnd);
+                        int[] bounds = CsvFields.bounds(row);
+                        if (builders.isEmpty()) {
+                            for (int i = 0; i < bounds.length / 2; i++) {
+                                builders.add(new ColumnBuilder());
+                            }
+                        } else if (bounds.length / 2 != builders.size()) {
+                            throw new IOException("Количество колонок в строке " + rows + " отличается от первой строки: "
+                                + bounds.length / 2 + " вместо " + builders.size());
+                        }
+                        for (int i = 0; i < builders.size(); i++) {
+                            builders.get(i).add(buffer, lineStart + bounds[2 * i], lineStart + bounds[2 * i + 1]);
+                        }
+                        rows++;
+                    }
+                    lineStart = lineEnd + 1;
+                }
+                position += limit;
+            }
+        }
+
+        Type[] types = new Type[builders.size()];
+        for (int i = 0; i < builders.size(); i++) {
+            types[i] = builders.get(i).write(directory.resolve(columnFile(i)), rows);
+        }
+
+        ByteBuffer meta = ByteBuffer.allocate(2 * Integer.BYTES + 3 * Long.BYTES + 2 * Integer.BYTES + types.length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        meta.putInt(MAGIC)
+            .putInt(VERSION)
+            .putLong(size)
+            .putLong(modified)
+            .putLong(RTreeSnapshot.checksum(source))
+            .putInt(rows)
+            .putInt(types.length);
+        for (Type type : types) {
+            meta.put((byte) type.ordinal());
+        }
+        write(directory.resolve(META_FILE), meta.flip());
+    }
+
+    /**
+     * Количество строк
+     * @return количество строк
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Количество колонок
+     * @return количество колонок
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Тип колонки
+     * @param column номер колонки с нуля
+     * @return тип колонки
+     */
+    public Type getType(int column) {
+        return columns[column].type();
+    }
+
+    /**
+     * Значение колонки типа LONG
+     * @param column номер колонки с нуля
+     * @param row номер строки
+     * @return значение
+     * @throws IllegalStateException если значение в таблице исключений не является целым числом
+     */
+    public long getLong(int column, int row) {
+        if (columns[column].type() != Type.LONG) {
+            throw new IllegalArgumentException("Колонка " + column + " имеет тип " + columns[column].type());
+        }
+        return ((NumberColumn) columns[column]).getLong(checkRow(row));
+    }
+
+    /**
+     * Значение колонки типа DOUBLE
+     * @param column номер колонки с нуля
+     * @param row номер строки
+     * @return значение, NaN - для \N
+     * @throws IllegalStateException если значение в таблице исключений не является числом
+     */
+    public double getDouble(int column, int row) {
+        if (columns[column].type() != Type.DOUBLE) {
+            throw new IllegalArgumentException("Колонка " + column + " имеет тип " + columns[column].type());
+        }
+        return ((NumberColumn) columns[column]).getDouble(checkRow(row));
+    }
+
+    /**
+     * Значение колонки любого типа в виде строки: без кавычек, \N - null
+     * @param column номер колонки с нуля
+     * @param row номер строки
+     * @return значение
+     */
+    public String getString(int column, int row) {
+        return columns[column].value(checkRow(row));
+    }
+
+    /**
+     * Восстанавливает исходную строку
+     * @param seek номер строки
+     * @return строка
+     * @throws IOException если номер строки за пределами хранилища
+     */
+    @Override
+    public String readRow(long seek) throws IOException {
+        ByteBuffer row = readRowBuffer(seek);
+        return new String(row.array(), 0, row.limit(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Хранилище строится конвертацией файла целиком, дописанные строки в него не попадают
+     * @throws IOException всегда, для новых строк файл нужно сконвертировать заново
+     */
+    @Override
+    public long refresh() throws IOException {
+        throw new IOException("Колоночное хранилище не поддерживает дописывание строк, требуется повторная конвертация");
+    }
+
+    /**
+     * Восстанавливает байты исходной строки из всех колонок
+     * @param seek номер строки
+     * @return буфер с байтами строки
+     * @throws IOException если номер строки за пределами хранилища
+     */
+    @Override
+    public ByteBuffer readRowBuffer(long seek) throws IOException {
+        int row = rowOf(seek);
+        byte[][] fields = new byte[columns.length][];
+        int length = columns.length - 1;
+        for (int i = 0; i < columns.length; i++) {
+            fields[i] = columns[i].raw(row);
+            length += fields[i].length;
+        }
+        byte[] bytes = new byte[length];
+        int position = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                bytes[position++] = ',';
+            }
+            System.arraycopy(fields[i], 0, bytes, position, fields[i].length);
+            position += fields[i].length;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Читает только заданные колонки строки, остальные колонки не затрагиваются
+     * @param seek номер строки
+     * @param columns номера колонок с нуля
+     * @return значения колонок в порядке columns
+     * @throws IOException если номер строки за пределами хранилища
+     */
+    @Override
+    public String[] readColumns(long seek, int[] columns) throws IOException {
+        int row = rowOf(seek);
+        String[] result = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            int column = columns[i];
+            if (column >= 0 && column < this.columns.length) {
+                result[i] = this.columns[column].value(row);
+            }
+        }
+        return result;
+    }
+
+    private int rowOf(long seek) throws IOException {
+        if (seek < 0 || seek >= rowCount) {
+            throw new IOException("Номер строки за пределами хранилища: " + seek);
+        }
+        return (int) seek;
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Номер строки за пределами хранилища: " + row);
+        }
+        return row;
+    }
+
+    private static String columnFile(int column) {
+        return "column-" + column + ".bin";
+    }
+
+    /**
+     * Проверяет, что хранилище записано полностью и соответствует исходному файлу
+     */
+    private static boolean isCurrent(Path source, Path directory) throws IOException {
+        Path metaFile = directory.resolve(META_FILE);
+        if (!Files.isRegularFile(metaFile)) {
+            return false;
+        }
+        ByteBuffer meta = ByteBuffer.wrap(Files.readAllBytes(metaFile)).order(ByteOrder.LITTLE_ENDIAN);
+        if (meta.remaining() < 2 * Integer.BYTES + 3 * Long.BYTES
+            || meta.getInt() != MAGIC || meta.getInt() != VERSION) {
+            return false;
+        }
+        return meta.getLong() == Files.size(source)
+            && meta.getLong() == Files.getLastModifiedTime(source).toMillis()
+            && meta.getLong() == RTreeSnapshot.checksum(source);
+    }
+
+    private static ColumnarStore load(Path directory) throws IOException {
+        ByteBuffer meta = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(META_FILE)))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        meta.position(2 * Integer.BYTES + 3 * Long.BYTES);
+        int rows = meta.getInt();
+        Column[] columns = new Column[meta.getInt()];
+        for (int i = 0; i < columns.length; i++) {
+            Type type = Type.values()[meta.get()];
+            MappedByteBuffer buffer = map(directory.resolve(columnFile(i)));
+            columns[i] = switch (type) {
+                case LONG, DOUBLE -> new NumberColumn(buffer, type, rows);
+                case STRING -> buffer.getInt(0) == DICTIONARY
+                    ? new DictionaryColumn(buffer, rows)
+                    : new PlainColumn(buffer, rows);
+            };
+        }
+        return new ColumnarStore(rows, columns);
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Файл слишком большой для отображения в память: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private static void write(Path file, ByteBuffer... buffers) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Колонка, отображенная в память. Чтение потокобезопасно: используются только абсолютные операции.
+     */
+    private interface Column {
+        Type type();
+
+        // Исходные байты поля
+        byte[] raw(int row);
+
+        // Значение без кавычек, \N - null
+        String value(int row);
+    }
+
+    /**
+     * Числовая колонка: int количество исключений, int длина их кучи, long или double на строку,
+     * отсортированные номера строк-исключений, int[исключений + 1] смещений и куча их исходных байт.
+     */
+    private static class NumberColumn implements Column {
+        private final MappedByteBuffer buffer;
+        private final Type type;
+        private final int exceptionCount;
+        private final int exceptionRowsStart;
+        private final int offsetsStart;
+        private final int heapStart;
+
+        NumberColumn(MappedByteBuffer buffer, Type type, int rows) {
+            this.buffer = buffer;
+            this.type = type;
+            this.exceptionCount = buffer.getInt(0);
+            this.exceptionRowsStart = 2 * Integer.BYTES + rows * Long.BYTES;
+            this.offsetsStart = exceptionRowsStart + exceptionCount * Integer.BYTES;
+            this.heapStart = offsetsStart + (exceptionCount + 1) * Integer.BYTES;
+        }
+
+        long getLong(int row) {
+            int exception = exception(row);
+            if (exception < 0) {
+                return buffer.getLong(2 * Integer.BYTES + row * Long.BYTES);
+            }
+            String value = exceptionValue(exception);
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException("Значение в строке " + row + " не является целым числом: " + value);
+            }
+        }
+
+        double getDouble(int row) {
+            int exception = exception(row);
+            if (exception < 0) {
+                return buffer.getDouble(2 * Integer.BYTES + row * Double.BYTES);
+            }
+            String value = exceptionValue(exception);
+            if (value == null) {
+                return Double.NaN;
+            }
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException("Значение в строке " + row + " не является числом: " + value);
+            }
+        }
+
+        @Override
+        public Type type() {
+            return type;
+        }
+
+        @Override
+        public byte[] raw(int row) {
+            int exception = exception(row);
+            if (exception < 0) {
+                return format(row).getBytes(StandardCharsets.US_ASCII);
+            }
+            int start = offset(exception);
+            byte[] bytes = new byte[offset(exception + 1) - start];
+            buffer.get(heapStart + start, bytes);
+            return bytes;
+        }
+
+        @Override
+        public String value(int row) {
+            int exception = exception(row);
+            return exception < 0 ? format(row) : exceptionValue(exception);
+        }
+
+        private String format(int row) {
+            int position = 2 * Integer.BYTES + row * Long.BYTES;
+            return type == Type.LONG
+                ? Long.toString(buffer.getLong(position))
+                : Double.toString(buffer.getDouble(position));
+        }
+
+        private String exceptionValue(int exception) {
+            return CsvFields.decode(buffer, heapStart + offset(exception), heapStart + offset(exception + 1));
+        }
+
+        /**
+         * Двоичный поиск строки в таблице исключений
+         * @return позиция в таблице или -1, если значение строки хранится числом
+         */
+        private int exception(int row) {
+            int low = 0;
+            int high = exceptionCount - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int value = buffer.getInt(exceptionRowsStart + middle * Integer.BYTES);
+                if (value < row) {
+                    low = middle + 1;
+                } else if (value > row) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        private int offset(int exception) {
+            return buffer.getInt(offsetsStart + exception * Integer.BYTES);
+        }
+    }
+
+    /**
+     * Строковая колонка: int кодировка, int длина кучи, int[строк + 1] смещений, куча.
+     */
+    private static class PlainColumn implements Column {
+        private final MappedByteBuffer buffer;
+        private final int heapStart;
+
+        PlainColumn(MappedByteBuffer buffer, int rows) {
+            this.buffer = buffer;
+            this.heapStart = 2 * Integer.BYTES + (rows + 1) * Integer.BYTES;
+        }
+
+        @Override
+        public Type type() {
+            return Type.STRING;
+        }
+
+        @Override
+        public byte[] raw(int row) {
+            int start = offset(row);
+            byte[] bytes = new byte[offset(row + 1) - start];
+            buffer.get(heapStart + start, bytes);
+            return bytes;
+        }
+
+        @Override
+        public String value(int row) {
+            return CsvFields.decode(buffer, heapStart + offset(row), heapStart + offset(row + 1));
+        }
+
+        private int offset(int row) {
+            return buffer.getInt(2 * Integer.BYTES + row * Integer.BYTES);
+        }
+    }
+
+    /**
+     * Строковая колонка со словарем: int кодировка, int ширина кода, int размер словаря, int длина кучи,
+     * int[размер словаря + 1] смещений, куча значений словаря, коды строк.
+     * Декодированные значения словаря кэшируются.
+     */
+    private static class DictionaryColumn implements Column {
+        private final MappedByteBuffer buffer;
+        private final int codeWidth;
+        private final int offsetsStart;
+        private final int heapStart;
+        private final int codesStart;
+        private final String[] decoded;
+
+        DictionaryColumn(MappedByteBuffer buffer, int rows) {
+            this.buffer = buffer;
+            this.codeWidth = buffer.getInt(Integer.BYTES);
+            int size = buffer.getInt(2 * Integer.BYTES);
+            int heapLength = buffer.getInt(3 * Integer.BYTES);
+            this.offsetsStart = 4 * Integer.BYTES;
+            this.heapStart = offsetsStart + (size + 1) * Integer.BYTES;
+            this.codesStart = heapStart + heapLength;
+            this.decoded = new String[size];
+        }
+
+        @Override
+        public Type type() {
+            return Type.STRING;
+        }
+
+        @Override
+        public byte[] raw(int row) {
+            int code = code(row);
+            int start = offset(code);
+            byte[] bytes = new byte[offset(code + 1) - start];
+            buffer.get(heapStart + start, bytes);
+            return bytes;
+        }
+
+        @Override
+        public String value(int row) {
+            int code = code(row);
+            String value = decoded[code];
+            if (value == null) {
+                value = CsvFields.decode(buffer, heapStart + offset(code), heapStart + offset(code + 1));
+                // null для \N не кэшируется, это значение просто декодируется повторно
+                decoded[code] = value;
+            }
+            return value;
+        }
+
+        private int code(int row) {
+            return switch (codeWidth) {
+                case 1 -> buffer.get(codesStart + row) & 0xFF;
+                case 2 -> buffer.getShort(codesStart + row * 2) & 0xFFFF;
+                default -> buffer.getInt(codesStart + row * 4);
+            };
+        }
+
+        private int offset(int code) {
+            return buffer.getInt(offsetsStart + code * Integer.BYTES);
+        }
+    }
+
+    /**
+     * Накопление значений одной колонки при конвертации.
+     * Исходные байты полей копятся всегда; числовые представления - пока исключений не слишком много;
+     * словарь - пока он не превысил MAX_DICTIONARY_SIZE.
+     */
+    private static class ColumnBuilder {
+        private byte[] heap = new byte[1 << 12];
+        private int heapLength;
+        private int[] offsets = new int[1024];
+        private int rows;
+
+        private long[] longs = new long[1024];
+        private double[] doubles = new double[1024];
+        private int[] longExceptions = new int[16];
+        private int[] doubleExceptions = new int[16];
+        private int longExceptionCount;
+        private int doubleExceptionCount;
+
+        private Map<ByteBuffer, Integer> dictionary = new HashMap<>();
+        private List<byte[]> entries = new ArrayList<>();
+        private int entriesLength;
+        private int[] codes = new int[1024];
+
+        void add(ByteBuffer source, int from, int to) throws IOException {
+            int length = to - from;
+            byte[] field = new byte[length];
+            source.get(from, field);
+
+            if (rows + 1 >= offsets.length) {
+                int capacity = offsets.length * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                codes = codes == null ? null : Arrays.copyOf(codes, capacity);
+                longs = longs == null ? null : Arrays.copyOf(longs, capacity);
+                doubles = doubles == null ? null : Arrays.copyOf(doubles, capacity);
+            }
+            if ((long) heapLength + length > Integer.MAX_VALUE) {
+                throw new IOException("Колонка больше 2 ГБ не поддерживается");
+            }
+            if (heapLength + length > heap.length) {
+                heap = Arrays.copyOf(heap, Math.max(heap.length * 2, heapLength + length));
+            }
+            System.arraycopy(field, 0, heap, heapLength, length);
+            heapLength += length;
+            offsets[rows + 1] = heapLength;
+
+            if (longs != null || doubles != null) {
+                addNumber(field);
+            }
+            if (dictionary != null) {
+                addToDictionary(field);
+            }
+            rows++;
+        }
+
+        private void addNumber(byte[] field) {
+            boolean numeric = field.length > 0 && (field[0] == '-' || (field[0] >= '0' && field[0] <= '9'));
+            String text = numeric ? new String(field, StandardCharsets.US_ASCII) : null;
+            if (longs != null) {
+                Long value = null;
+                if (numeric) {
+                    try {
+                        value = Long.parseLong(text);
+                    } catch (NumberFormatException e) {
+                        // не целое число - исключение
+                    }
+                }
+                if (value != null && Long.toString(value).equals(text)) {
+                    longs[rows] = value;
+                } else {
+                    longExceptions = addException(longExceptions, longExceptionCount++);
+                    if (tooManyExceptions(longExceptionCount)) {
+                        longs = null;
+                        longExceptions = null;
+                    }
+                }
+            }
+            if (doubles != null) {
+                Double value = null;
+                if (numeric) {
+                    try {
+                        value = Double.parseDouble(text);
+                    } catch (NumberFormatException e) {
+                        // не число - исключение
+                    }
+                }
+                if (value != null && Double.toString(value).equals(text)) {
+                    doubles[rows] = value;
+                } else {
+                    doubleExceptions = addException(doubleExceptions, doubleExceptionCount++);
+                    if (tooManyExceptions(doubleExceptionCount)) {
+                        doubles = null;
+                        doubleExceptions = null;
+                    }
+                }
+            }
+        }
+
+        private int[] addException(int[] exceptions, int count) {
+            int[] result = count == exceptions.length ? Arrays.copyOf(exceptions, count * 2) : exceptions;
+            result[count] = rows;
+            return result;
+        }
+
+        private boolean tooManyExceptions(int count) {
+            return count > Math.max(1024, (rows + 1) / 8);
+        }
+
+        private void addToDictionary(byte[] field) {
+            Integer code = dictionary.get(ByteBuffer.wrap(field));
+            if (code == null) {
+                if (entries.size() == MAX_DICTIONARY_SIZE) {
+                    dictionary = null;
+                    entries = null;
+                    codes = null;
+                    return;
+                }
+                code = entries.size();
+                dictionary.put(ByteBuffer.wrap(field), code);
+                entries.add(field);
+                entriesLength += field.length;
+            }
+            codes[rows] = code;
+        }
+
+        /**
+         * Записывает колонку в самом компактном из допустимых представлений
+         * @return тип записанной колонки
+         */
+        Type write(Path file, int rowCount) throws IOException {
+            int maxExceptions = rowCount / 8;
+            boolean isLong = longs != null && longExceptionCount <= maxExceptions;
+            boolean isDouble = doubles != null && doubleExceptionCount <= maxExceptions;
+            if (rowCount > 0 && isLong && (!isDouble || longExceptionCount <= doubleExceptionCount)) {
+                ByteBuffer data = ByteBuffer.allocate(rowCount * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                data.asLongBuffer().put(longs, 0, rowCount);
+                writeNumbers(file, data, longExceptions, longExceptionCount);
+                return Type.LONG;
+            }
+            if (rowCount > 0 && isDouble) {
+                ByteBuffer data = ByteBuffer.allocate(rowCount * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                data.asDoubleBuffer().put(doubles, 0, rowCount);
+                writeNumbers(file, data, doubleExceptions, doubleExceptionCount);
+                return Type.DOUBLE;
+            }
+
+            long plainBytes = (long) (rowCount + 1) * Integer.BYTES + heapLength;
+            int codeWidth = dictionary == null ? 0 : entries.size() <= 1 << 8 ? 1 : entries.size() <= 1 << 16 ? 2 : 4;
+            long dictionaryBytes = dictionary == null
+                ? Long.MAX_VALUE
+                : (long) (entries.size() + 1) * Integer.BYTES + entriesLength + (long) rowCount * codeWidth;
+            if (dictionaryBytes < plainBytes) {
+                ByteBuffer header = ByteBuffer.allocate(4 * Integer.BYTES + (entries.size() + 1) * Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(DICTIONARY).putInt(codeWidth).putInt(entries.size()).putInt(entriesLength);
+                byte[] entryHeap = new byte[entriesLength];
+                int position = 0;
+                header.putInt(0);
+                for (byte[] entry : entries) {
+                    System.arraycopy(entry, 0, entryHeap, position, entry.length);
+                    position += entry.length;
+                    header.putInt(position);
+                }
+                ByteBuffer codeBuffer = ByteBuffer.allocate(rowCount * codeWidth).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < rowCount; i++) {
+                    switch (codeWidth) {
+                        case 1 -> codeBuffer.put((byte) codes[i]);
+                        case 2 -> codeBuffer.putShort((short) codes[i]);
+                        default -> codeBuffer.putInt(codes[i]);
+                    }
+                }
+                ColumnarStore.write(file, header.flip(), ByteBuffer.wrap(entryHeap), codeBuffer.flip());
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + (rowCount + 1) * Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(PLAIN).putInt(heapLength);
+                header.asIntBuffer().put(offsets, 0, rowCount + 1);
+                header.position(header.capacity());
+                ColumnarStore.write(file, header.flip(), ByteBuffer.wrap(heap, 0, heapLength));
+            }
+            return Type.STRING;
+        }
+
+        /**
+         * Записывает числовую колонку; исходные байты исключений берутся из общей кучи полей
+         */
+        private void writeNumbers(Path file, ByteBuffer data, int[] exceptions, int exceptionCount)
+            throws IOException {
+            ByteBuffer table = ByteBuffer.allocate((2 * exceptionCount + 1) * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            byte[] exceptionHeap = new byte[0];
+            int exceptionHeapLength = 0;
+            for (int i = 0; i < exceptionCount; i++) {
+                table.putInt(exceptions[i]);
+            }
+            table.putInt(0);
+            for (int i = 0; i < exceptionCount; i++) {
+                int row = exceptions[i];
+                int length = offsets[row + 1] - offsets[row];
+                if (exceptionHeapLength + length > exceptionHeap.length) {
+                    exceptionHeap = Arrays.copyOf(exceptionHeap,
+                        Math.max(exceptionHeap.length * 2, exceptionHeapLength + length));
+                }
+                System.arraycopy(heap, offsets[row], exceptionHeap, exceptionHeapLength, length);
+                exceptionHeapLength += length;
+                table.putInt(exceptionHeapLength);
+            }
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(exceptionCount).putInt(exceptionHeapLength);
+            ColumnarStore.write(file, header.flip(), data, table.flip(),
+                ByteBuffer.wrap(exceptionHeap, 0, exceptionHeapLength));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.blodich.reader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Разбор полей строки csv файла: границы полей с учетом кавычек и декодирование значений.
+ * Значение в кавычках возвращается без них, удвоенные кавычки заменяются одинарными,
+ * \N считается пустым значением (null).
+ */
+final class CsvFields {
+    private CsvFields() {
+    }
+
+    /**
+     * Находит границы полей строки
+     * @param row байты строки без символов конца строки, позиция буфера не изменяется
+     * @return массив длины 2 * количество полей: начало и конец каждого поля относительно позиции буфера
+     */
+    static int[] bounds(ByteBuffer row) {
+        int from = row.position();
+        int to = row.limit();
+        int[] result = new int[32];
+        int count = 0;
+        int fieldStart = from;
+        boolean inQuotes = false;
+        for (int i = from; i <= to; i++) {
+            byte b = i < to ? row.get(i) : (byte) ',';
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == ',' && (!inQuotes || i == to)) {
+                if (count + 2 > result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                result[count++] = fieldStart - from;
+                result[count++] = i - from;
+                fieldStart = i + 1;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Выбирает и декодирует заданные поля строки
+     * @param row байты строки без символов конца строки
+     * @param columns номера колонок с нуля
+     * @return значения колонок в порядке columns, null - пустое значение или отсутствующая колонка
+     */
+    static String[] select(ByteBuffer row, int[] columns) {
+        int[] bounds = bounds(row);
+        String[] result = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            int column = columns[i];
+            if (column >= 0 && 2 * column + 1 < bounds.length) {
+                result[i] = decode(row, row.position() + bounds[2 * column], row.position() + bounds[2 * column + 1]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Декодирует значение поля из байт [from; to) буфера
+     * @return значение или null для \N
+     */
+    static String decode(ByteBuffer buffer, int from, int to) {
+        if (to - from == 2 && buffer.get(from) == '\\' && buffer.get(from + 1) == 'N') {
+            return null;
+        }
+        boolean quoted = to - from >= 2 && buffer.get(from) == '"' && buffer.get(to - 1) == '"';
+        if (quoted) {
+            from++;
+            to--;
+        }
+        byte[] bytes = new byte[to - from];
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            bytes[length++] = b;
+            if (quoted && b == '"' && i + 1 < to && buffer.get(i + 1) == '"') {
+                i++;
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
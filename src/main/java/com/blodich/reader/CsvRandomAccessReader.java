@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedMap;
-import tree.RTree;
+import tree.SpatialIndex;
 import tree.geometry.Point;
 
 /**
@@ -19,5 +19,14 @@ public interface CsvRandomAccessReader {
      * @return List, содержащий найденные строки
      * @throws IOException
      */
-    List<String> read(RTree tree, Point target, double delta) throws IOException;
+    List<String> read(SpatialIndex tree, Point target, double delta) throws IOException;
+
+    /**
+     * Обновляет представление файла после того, как в его конец дописали строки
+     * @return смещение, до которого строки файла доступны для чтения
+     * @throws IOException если чтение дописанных строк не поддерживается
+     */
+    default long refresh() throws IOException {
+        return Long.MAX_VALUE;
+    }
 }
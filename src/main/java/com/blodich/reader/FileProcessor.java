@@ -2,19 +2,21 @@ package com.blodich.reader;
 
 import com.blodich.indexer.FileIndexer;
 import com.blodich.indexer.RTreeFileIndexer;
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedMap;
-import tree.RTree;
+import tree.ConcurrentRTree;
+import tree.SpatialIndex;
 import tree.geometry.Point;
 
 /**
  * Обработчик файла
  */
-public class FileProcessor {
+public class FileProcessor implements Closeable {
     private RTreeFileIndexer indexer;
-    private RTree indexes;
+    private SpatialIndex indexes;
     private CsvRandomAccessReader reader;
 
     /**
@@ -28,11 +30,31 @@ public class FileProcessor {
     }
 
     /**
-     * Препроцессинг файла, проводит индексацию файла
+     * Препроцессинг файла, проводит индексацию файла. Построенный индекс оборачивается
+     * в ConcurrentRTree, чтобы update мог дописывать в него строки во время поиска
      * @throws IOException
      */
     public void preprocess() throws IOException {
-        this.indexes =  indexer.index();
+        this.indexes = new ConcurrentRTree(indexer.index(), indexer.getIndexFactory());
+    }
+
+    /**
+     * Индексирует строки, дописанные в конец файла после препроцессинга. Сначала обновляется
+     * читатель, затем индексируются только строки, которые он уже может прочитать.
+     * Может выполняться одновременно с поиском, но не с другим вызовом update
+     * @return количество добавленных записей
+     * @throws IOException если читатель не поддерживает дописывание строк или файл не читается
+     */
+    public int update() throws IOException {
+        return indexer.update(indexes, reader.refresh());
+    }
+
+    /**
+     * Индексы, построенные при препроцессинге
+     * @return индекс или null, если препроцессинг еще не выполнялся
+     */
+    public SpatialIndex getIndexes() {
+        return indexes;
     }
 
     /**
@@ -45,4 +67,22 @@ public class FileProcessor {
     public List<String> process(Point target, double delta) throws IOException {
         return reader.read(indexes, target, delta);
     }
+
+    /**
+     * Освобождает ресурсы индекса, например файлы страниц OffHeapRTree.
+     * После закрытия поиск и обновление недоступны
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (indexes instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
 }
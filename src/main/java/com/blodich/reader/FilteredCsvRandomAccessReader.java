@@ -3,33 +3,57 @@ package com.blodich.reader;
 import com.blodich.indexer.RTreeFileIndexer;
 import com.blodich.search.IndexSearchEngine;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.SortedMap;
-import tree.RTree;
+import tree.SpatialIndex;
 import tree.geometry.Point;
+import tree.geometry.Rectangle;
+import tree.metrics.QueryMetrics;
+import tree.metrics.QueryMetrics.Counter;
+import tree.metrics.QueryMetrics.Stage;
 
 /**
  * Реализация интерфейса CsvRandomAccessReader
  */
 public class FilteredCsvRandomAccessReader implements CsvRandomAccessReader {
-    private String path;
+    private RowSource rowSource;
     private IndexSearchEngine searchEngine;
 
     /**
-     * Конструктор класса
-     * @param path путь к файлу
+     * Конструктор класса, строки читаются через RandomAccessFile
+     * @param path путь к файлу, пустая строка - airports.csv из ресурсов
      * @param searchEngine реализация интерфейса IndexSearchEngine для поиска по индексам
      */
     public FilteredCsvRandomAccessReader(String path, IndexSearchEngine searchEngine) {
-        this.path = path;
+        this(new RandomAccessRowSource(path.isEmpty() ? RTreeFileIndexer.defaultSource() : Paths.get(path)),
+            searchEngine);
+    }
+
+    /**
+     * Конструктор класса
+     * @param rowSource источник строк файла, например MappedRowSource
+     * @param searchEngine реализация интерфейса IndexSearchEngine для поиска по индексам
+     */
+    public FilteredCsvRandomAccessReader(RowSource rowSource, IndexSearchEngine searchEngine) {
+        this.rowSource = rowSource;
         this.searchEngine = searchEngine;
     }
 
+    /**
+     * Обновляет источник строк, см. {@link RowSource#refresh()}
+     * @return смещение, до которого строки файла доступны для чтения
+     * @throws IOException если источник не поддерживает дописывание строк
+     */
+    @Override
+    public long refresh() throws IOException {
+        return rowSource.refresh();
+    }
+
     /**
      * Реализация метода read для поиска по индексам с помощью IndexSearchEngine
      * @param tree Rtree с индексами
@@ -39,16 +63,243 @@ public class FilteredCsvRandomAccessReader implements CsvRandomAccessReader {
      * @throws IOException
      */
     @Override
-    public List<String> read(RTree tree, Point target, double delta) throws IOException {
-            ;
-        try (RandomAccessFile raf = new RandomAccessFile(new File(FilteredCsvRandomAccessReader.class.getClassLoader().getResource("airports.csv").getPath()), "r")) {
-            ArrayList<String> result = new ArrayList<>();
-            var points = searchEngine.search(tree, target, delta);
-            for (var point : points) {
-                raf.seek(point.getSeek());
-                result.add(raf.readLine());
+    public List<String> read(SpatialIndex tree, Point target, double delta) throws IOException {
+        long start = QueryMetrics.start();
+        var points = searchEngine.search(tree, target, delta);
+        long fetchStart = QueryMetrics.start();
+        List<String> rows = rowSource.readRows(points);
+        if (QueryMetrics.ENABLED) {
+            QueryMetrics.record(Stage.ROW_FETCH, fetchStart);
+            QueryMetrics.add(Counter.ROWS_READ, rows.size());
+            for (String row : rows) {
+                QueryMetrics.add(Counter.BYTES_READ, row == null ? 0 : row.getBytes(StandardCharsets.UTF_8).length);
             }
-            return result;
+            QueryMetrics.record(Stage.QUERY, start);
+        }
+        return rows;
+    }
+
+    /**
+     * Аналог read, возвращающий байты найденных записей в кодировке UTF-8.
+     * Для MappedRowSource буферы являются представлениями отображенного файла без копирования.
+     * @param tree Rtree с индексами
+     * @param target Целевая точка для поиска
+     * @param delta Величина изменения координат
+     * @return List, содержащий буферы найденных записей
+     * @throws IOException
+     */
+    public List<ByteBuffer> readBuffers(SpatialIndex tree, Point target, double delta) throws IOException {
+        return readBuffers(tree, target, delta, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Аналог readBuffers с ограничением по высоте. Точки вне диапазона отсекаются в индексе,
+     * их строки не читаются
+     * @param tree Rtree с индексами
+     * @param target Целевая точка для поиска
+     * @param delta Величина изменения координат
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @return List, содержащий буферы найденных записей
+     * @throws IOException
+     */
+    public List<ByteBuffer> readBuffers(SpatialIndex tree, Point target, double delta,
+                                        double minElevation, double maxElevation) throws IOException {
+        long start = QueryMetrics.start();
+        List<ByteBuffer> result = readBuffers(searchEngine.search(tree, target, delta, minElevation, maxElevation));
+        QueryMetrics.record(Stage.QUERY, start);
+        return result;
+    }
+
+    /**
+     * Возвращает байты всех записей в пределах радиуса в порядке возрастания расстояния
+     * @param tree Rtree с индексами
+     * @param target Целевая точка для поиска
+     * @param radius Радиус поиска в километрах
+     * @return List, содержащий буферы найденных записей
+     * @throws IOException
+     */
+    public List<ByteBuffer> readBuffersWithin(SpatialIndex tree, Point target, double radius) throws IOException {
+        return readBuffersWithin(tree, target, radius, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Аналог readBuffersWithin с ограничением по высоте
+     * @param tree Rtree с индексами
+     * @param target Целевая точка для поиска
+     * @param radius Радиус поиска в километрах
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @return List, содержащий буферы найденных записей
+     * @throws IOException
+     */
+    public List<ByteBuffer> readBuffersWithin(SpatialIndex tree, Point target, double radius,
+                                              double minElevation, double maxElevation) throws IOException {
+        long start = QueryMetrics.start();
+        List<ByteBuffer> result = readBuffers(
+            tree.nearest(target, Integer.MAX_VALUE, radius, minElevation, maxElevation));
+        QueryMetrics.record(Stage.QUERY, start);
+        return result;
+    }
+
+    /**
+     * Аналог read, возвращающий только заданные колонки найденных записей.
+     * С ColumnarStore остальные колонки не читаются, иначе строка читается и разбирается целиком
+     * @param tree индекс
+     * @param target Целевая точка для поиска
+     * @param delta Величина изменения координат
+     * @param columns номера колонок с нуля
+     * @return List, содержащий значения колонок найденных записей в порядке columns
+     * @throws IOException
+     */
+    public List<String[]> readColumns(SpatialIndex tree, Point target, double delta, int... columns)
+        throws IOException {
+        return readColumns(tree, target, delta, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, columns);
+    }
+
+    /**
+     * Аналог readColumns с ограничением по высоте
+     * @param tree индекс
+     * @param target Целевая точка для поиска
+     * @param delta Величина изменения координат
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @param columns номера колонок с нуля
+     * @return List, содержащий значения колонок найденных записей в порядке columns
+     * @throws IOException
+     */
+    public List<String[]> readColumns(SpatialIndex tree, Point target, double delta,
+                                      double minElevation, double maxElevation, int[] columns) throws IOException {
+        long start = QueryMetrics.start();
+        List<String[]> result = readColumns(
+            searchEngine.search(tree, target, delta, minElevation, maxElevation), columns);
+        QueryMetrics.record(Stage.QUERY, start);
+        return result;
+    }
+
+    /**
+     * Возвращает заданные колонки всех записей в пределах радиуса в порядке возрастания расстояния
+     * @param tree индекс
+     * @param target Целевая точка для поиска
+     * @param radius Радиус поиска в километрах
+     * @param columns номера колонок с нуля
+     * @return List, содержащий значения колонок найденных записей в порядке columns
+     * @throws IOException
+     */
+    public List<String[]> readColumnsWithin(SpatialIndex tree, Point target, double radius, int... columns)
+        throws IOException {
+        return readColumnsWithin(tree, target, radius, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, columns);
+    }
+
+    /**
+     * Аналог readColumnsWithin с ограничением по высоте
+     * @param tree индекс
+     * @param target Целевая точка для поиска
+     * @param radius Радиус поиска в километрах
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @param columns номера колонок с нуля
+     * @return List, содержащий значения колонок найденных записей в порядке columns
+     * @throws IOException
+     */
+    public List<String[]> readColumnsWithin(SpatialIndex tree, Point target, double radius,
+                                            double minElevation, double maxElevation, int[] columns)
+        throws IOException {
+        long start = QueryMetrics.start();
+        List<String[]> result = readColumns(
+            tree.nearest(target, Integer.MAX_VALUE, radius, minElevation, maxElevation), columns);
+        QueryMetrics.record(Stage.QUERY, start);
+        return result;
+    }
+
+    /**
+     * Передает обработчику байты записей внутри прямоугольника по мере обхода дерева,
+     * без промежуточного списка точек. Порядок записей не определен.
+     * @param tree Rtree с индексами
+     * @param target прямоугольник для поиска
+     * @param visitor обработчик записей, false останавливает обход
+     * @return true, если обход дошел до конца, false - если был прерван обработчиком
+     * @throws IOException
+     */
+    public boolean visitRange(SpatialIndex tree, Rectangle target, RowVisitor visitor) throws IOException {
+        long start = QueryMetrics.start();
+        try {
+            return tree.range(target, point -> visitRow(point, visitor));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            QueryMetrics.record(Stage.QUERY, start);
+        }
+    }
+
+    /**
+     * Передает обработчику байты записей в пределах радиуса по мере обхода дерева,
+     * без промежуточного списка точек и без упорядочивания по расстоянию
+     * @param tree Rtree с индексами
+     * @param target Целевая точка для поиска
+     * @param radius Радиус поиска в километрах
+     * @param visitor обработчик записей, false останавливает обход
+     * @return true, если обход дошел до конца, false - если был прерван обработчиком
+     * @throws IOException
+     */
+    public boolean visitWithin(SpatialIndex tree, Point target, double radius, RowVisitor visitor) throws IOException {
+        return visitWithin(tree, target, radius, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, visitor);
+    }
+
+    /**
+     * Аналог visitWithin с ограничением по высоте. Поддеревья без подходящих высот
+     * отбрасываются при обходе, их строки не читаются
+     * @param tree Rtree с индексами
+     * @param target Целевая точка для поиска
+     * @param radius Радиус поиска в километрах
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @param visitor обработчик записей, false останавливает обход
+     * @return true, если обход дошел до конца, false - если был прерван обработчиком
+     * @throws IOException
+     */
+    public boolean visitWithin(SpatialIndex tree, Point target, double radius, double minElevation,
+                               double maxElevation, RowVisitor visitor) throws IOException {
+        long start = QueryMetrics.start();
+        try {
+            return tree.within(target, radius, minElevation, maxElevation, point -> visitRow(point, visitor));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            QueryMetrics.record(Stage.QUERY, start);
+        }
+    }
+
+    private boolean visitRow(Point point, RowVisitor visitor) {
+        try {
+            ByteBuffer row = rowSource.readRowBuffer(point.getSeek());
+            QueryMetrics.increment(Counter.ROWS_READ);
+            QueryMetrics.add(Counter.BYTES_READ, row.remaining());
+            return visitor.visit(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<String[]> readColumns(List<Point> points, int[] columns) throws IOException {
+        long start = QueryMetrics.start();
+        List<String[]> result = new ArrayList<>(points.size());
+        for (var point : points) {
+            result.add(rowSource.readColumns(point.getSeek(), columns));
+        }
+        QueryMetrics.add(Counter.ROWS_READ, result.size());
+        QueryMetrics.record(Stage.ROW_FETCH, start);
+        return result;
+    }
+
+    private List<ByteBuffer> readBuffers(List<Point> points) throws IOException {
+        long start = QueryMetrics.start();
+        List<ByteBuffer> result = rowSource.readRowBuffers(points);
+        for (ByteBuffer row : result) {
+            QueryMetrics.add(Counter.BYTES_READ, row.remaining());
         }
+        QueryMetrics.add(Counter.ROWS_READ, result.size());
+        QueryMetrics.record(Stage.ROW_FETCH, start);
+        return result;
     }
 }
@@ -0,0 +1,88 @@
+package com.blodich.reader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Чтение строк из файла, один раз отображенного в память через FileChannel.map.
+ * Отображение разделяется между всеми запросами, конец строки ищется сканированием байт
+ * от сохраненного смещения. Чтение потокобезопасно: используются только абсолютные операции
+ * и независимые представления буфера. Строки, дописанные после отображения, становятся
+ * доступны после вызова refresh, который отображает файл заново.
+ */
+public class MappedRowSource implements RowSource {
+    private final Path path;
+    private volatile MappedByteBuffer buffer;
+
+    /**
+     * Конструктор класса, отображает файл в память
+     * @param path путь к файлу
+     * @throws IOException в случае ошибки открытия файла или если файл больше 2 ГБ
+     */
+    public MappedRowSource(Path path) throws IOException {
+        this.path = path;
+        this.buffer = map(path);
+    }
+
+    /**
+     * Отображает файл заново, если он вырос. Запросы, начатые раньше, дочитывают старое отображение
+     * @return размер отображенной части файла
+     * @throws IOException в случае ошибки открытия файла или если файл больше 2 ГБ
+     */
+    @Override
+    public synchronized long refresh() throws IOException {
+        if (Files.size(path) > buffer.limit()) {
+            buffer = map(path);
+        }
+        return buffer.limit();
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Файл слишком большой для отображения в память: " + path);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Override
+    public String readRow(long seek) throws IOException {
+        ByteBuffer row = readRowBuffer(seek);
+        byte[] bytes = new byte[row.remaining()];
+        row.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Возвращает представление строки в отображенном файле без копирования байт
+     * @param seek смещение начала строки в байтах
+     * @return буфер только для чтения с байтами строки
+     * @throws IOException если смещение лежит за пределами файла
+     */
+    @Override
+    public ByteBuffer readRowBuffer(long seek) throws IOException {
+        MappedByteBuffer buffer = this.buffer;
+        int limit = buffer.limit();
+        if (seek < 0 || seek >= limit) {
+            throw new IOException("Смещение за пределами файла: " + seek);
+        }
+        int start = (int) seek;
+        int end = start;
+        while (end < limit && buffer.get(end) != '\n') {
+            end++;
+        }
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        ByteBuffer row = buffer.duplicate();
+        row.position(start).limit(end);
+        return row.slice().asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,49 @@
+package com.blodich.reader;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import tree.geometry.Point;
+
+/**
+ * Чтение строк через RandomAccessFile, файл открывается на каждый запрос
+ */
+public class RandomAccessRowSource implements RowSource {
+    private final Path path;
+
+    /**
+     * Конструктор класса
+     * @param path путь к файлу
+     */
+    public RandomAccessRowSource(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public String readRow(long seek) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r")) {
+            return readRow(raf, seek);
+        }
+    }
+
+    @Override
+    public List<String> readRows(List<Point> points) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r")) {
+            ArrayList<String> result = new ArrayList<>(points.size());
+            for (var point : points) {
+                result.add(readRow(raf, point.getSeek()));
+            }
+            return result;
+        }
+    }
+
+    private static String readRow(RandomAccessFile raf, long seek) throws IOException {
+        raf.seek(seek);
+        String line = raf.readLine();
+        // readLine превращает каждый байт в символ, восстанавливаем исходные байты UTF-8
+        return line == null ? null : new String(line.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+}
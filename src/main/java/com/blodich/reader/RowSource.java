@@ -0,0 +1,83 @@
+package com.blodich.reader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import tree.geometry.Point;
+
+/**
+ * Источник строк csv файла по смещению в байтах
+ */
+public interface RowSource {
+    /**
+     * Читает строку, начинающуюся с заданного смещения, без символов конца строки
+     * @param seek смещение начала строки в байтах
+     * @return строка
+     * @throws IOException
+     */
+    String readRow(long seek) throws IOException;
+
+    /**
+     * Обновляет представление файла после того, как в его конец дописали строки.
+     * Источники, открывающие файл при каждом запросе, сразу видят весь файл
+     * @return смещение, до которого строки файла доступны для чтения
+     * @throws IOException если источник не поддерживает дописывание строк или файл не читается
+     */
+    default long refresh() throws IOException {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Возвращает байты строки, начинающейся с заданного смещения, без символов конца строки
+     * @param seek смещение начала строки в байтах
+     * @return буфер с байтами строки в кодировке UTF-8
+     * @throws IOException
+     */
+    default ByteBuffer readRowBuffer(long seek) throws IOException {
+        return ByteBuffer.wrap(readRow(seek).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Читает значения заданных колонок строки: без кавычек, \N - null.
+     * По умолчанию строка читается целиком и разбирается; колоночные источники читают только нужные колонки
+     * @param seek смещение начала строки в байтах
+     * @param columns номера колонок с нуля
+     * @return значения колонок в порядке columns, null - для отсутствующих колонок
+     * @throws IOException
+     */
+    default String[] readColumns(long seek, int[] columns) throws IOException {
+        return CsvFields.select(readRowBuffer(seek), columns);
+    }
+
+    /**
+     * Читает строки для найденных точек в порядке следования точек
+     * @param points точки, смещения которых нужно прочитать
+     * @return List, содержащий строки
+     * @throws IOException
+     */
+    default List<String> readRows(List<Point> points) throws IOException {
+        List<String> result = new ArrayList<>(points.size());
+        for (var point : points) {
+            result.add(readRow(point.getSeek()));
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает байты строк для найденных точек в порядке следования точек.
+     * По умолчанию строки читаются по одной; пакетные источники, например CoalescingRowSource,
+     * читают их меньшим числом запросов
+     * @param points точки, смещения которых нужно прочитать
+     * @return List, содержащий буферы строк
+     * @throws IOException
+     */
+    default List<ByteBuffer> readRowBuffers(List<Point> points) throws IOException {
+        List<ByteBuffer> result = new ArrayList<>(points.size());
+        for (var point : points) {
+            result.add(readRowBuffer(point.getSeek()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,18 @@
+package com.blodich.reader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Обработчик записей, которые читаются по мере обхода индекса
+ */
+@FunctionalInterface
+public interface RowVisitor {
+    /**
+     * Вызывается для каждой найденной записи
+     * @param row байты записи в кодировке UTF-8, без символов конца строки
+     * @return true - продолжить обход, false - остановить его
+     * @throws IOException
+     */
+    boolean visit(ByteBuffer row) throws IOException;
+}
@@ -0,0 +1,251 @@
+package com.blodich.reader;
+
+import com.blodich.indexer.ShardDirectory;
+import com.blodich.indexer.ShardDirectory.Shard;
+import com.blodich.search.IndexSearchEngine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import tree.geometry.Point;
+import tree.metrics.QueryMetrics;
+import tree.metrics.QueryMetrics.Counter;
+import tree.metrics.QueryMetrics.Stage;
+
+/**
+ * Поиск по набору шардов. Запрос отправляется только в шарды, прямоугольник которых
+ * пересекает окно поиска (см. {@link ShardDirectory#candidates}); шарды опрашиваются
+ * параллельно, их результаты, упорядоченные по расстоянию, сливаются в общий top-k.
+ * Строки читаются уже после слияния, из файла того шарда, которому принадлежит точка.
+ */
+public class ShardedCsvReader {
+    private final ShardDirectory directory;
+    private final Map<Path, RowSource> rowSources;
+    private final IndexSearchEngine searchEngine;
+    private final int limit;
+    private final ForkJoinPool pool;
+
+    /**
+     * Конструктор класса, файлы шардов отображаются в память через MappedRowSource
+     * @param directory каталог шардов
+     * @param searchEngine поиск в индексе отдельного шарда
+     * @param limit максимальное количество результатов, как у searchEngine
+     * @throws IOException в случае ошибки открытия файла шарда
+     */
+    public ShardedCsvReader(ShardDirectory directory, IndexSearchEngine searchEngine, int limit) throws IOException {
+        this(directory, openAll(directory), searchEngine, limit, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Конструктор класса
+     * @param directory каталог шардов
+     * @param rowSources источники строк по путям исходных файлов шардов
+     * @param searchEngine поиск в индексе отдельного шарда
+     * @param limit максимальное количество результатов, как у searchEngine
+     * @param pool пул для параллельного опроса шардов
+     */
+    public ShardedCsvReader(ShardDirectory directory, Map<Path, RowSource> rowSources,
+                            IndexSearchEngine searchEngine, int limit, ForkJoinPool pool) {
+        this.directory = directory;
+        this.rowSources = Map.copyOf(rowSources);
+        this.searchEngine = searchEngine;
+        this.limit = limit;
+        this.pool = pool;
+    }
+
+    /**
+     * Не более limit ближайших записей всех шардов в пределах delta километров
+     * @param target Целевая точка для поиска
+     * @param delta Величина изменения координат
+     * @return List, содержащий найденные записи в порядке возрастания расстояния
+     * @throws IOException
+     */
+    public List<String> read(Point target, double delta) throws IOException {
+        return read(target, delta, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Аналог read с ограничением по высоте
+     * @param target Целевая точка для поиска
+     * @param delta Величина изменения координат
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @return List, содержащий найденные записи в порядке возрастания расстояния
+     * @throws IOException
+     */
+    public List<String> read(Point target, double delta, double minElevation, double maxElevation)
+        throws IOException {
+        List<ByteBuffer> buffers = readBuffers(target, delta, minElevation, maxElevation);
+        List<String> result = new ArrayList<>(buffers.size());
+        for (ByteBuffer buffer : buffers) {
+            result.add(StandardCharsets.UTF_8.decode(buffer).toString());
+        }
+        return result;
+    }
+
+    /**
+     * Аналог read, возвращающий байты найденных записей в кодировке UTF-8
+     * @param target Целевая точка для поиска
+     * @param delta Величина изменения координат
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @return List, содержащий буферы найденных записей
+     * @throws IOException
+     */
+    public List<ByteBuffer> readBuffers(Point target, double delta, double minElevation, double maxElevation)
+        throws IOException {
+        long start = QueryMetrics.start();
+        List<ByteBuffer> result = readBuffers(fanOut(target, delta,
+            shard -> searchEngine.search(shard.index(), target, delta, minElevation, maxElevation), limit));
+        QueryMetrics.record(Stage.QUERY, start);
+        return result;
+    }
+
+    /**
+     * Байты всех записей шардов в пределах радиуса в порядке возрастания расстояния
+     * @param target Целевая точка для поиска
+     * @param radius Радиус поиска в километрах
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @return List, содержащий буферы найденных записей
+     * @throws IOException
+     */
+    public List<ByteBuffer> readBuffersWithin(Point target, double radius, double minElevation, double maxElevation)
+        throws IOException {
+        long start = QueryMetrics.start();
+        List<ByteBuffer> result = readBuffers(fanOut(target, radius,
+            shard -> shard.index().nearest(target, Integer.MAX_VALUE, radius, minElevation, maxElevation),
+            Integer.MAX_VALUE));
+        QueryMetrics.record(Stage.QUERY, start);
+        return result;
+    }
+
+    /**
+     * Каталог шардов
+     * @return ShardDirectory
+     */
+    public ShardDirectory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Поиск в отдельном шарде, возвращает точки в порядке возрастания расстояния
+     */
+    @FunctionalInterface
+    private interface ShardSearch {
+        List<Point> search(Shard shard) throws IOException;
+    }
+
+    /**
+     * Найденная точка вместе с шардом, которому она принадлежит
+     */
+    private record Hit(Shard shard, Point point) {
+    }
+
+    /**
+     * Курсор по упорядоченному результату одного шарда при слиянии
+     */
+    private record Cursor(Shard shard, List<Point> points, int position, double distance) {
+    }
+
+    /**
+     * Опрашивает подходящие шарды параллельно и сливает их результаты
+     * @param count максимальное количество точек в общем результате
+     */
+    private List<Hit> fanOut(Point target, double radius, ShardSearch search, int count) throws IOException {
+        List<Shard> shards = directory.candidates(target, radius);
+        List<List<Point>> results = new ArrayList<>(shards.size());
+        if (shards.size() == 1) {
+            results.add(search.search(shards.get(0)));
+        } else if (shards.size() > 1) {
+            List<Callable<List<Point>>> tasks = new ArrayList<>(shards.size());
+            for (Shard shard : shards) {
+                tasks.add(() -> search.search(shard));
+            }
+            try {
+                for (Future<List<Point>> future : pool.invokeAll(tasks)) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        return merge(target, shards, results, count);
+    }
+
+    /**
+     * Слияние упорядоченных по расстоянию результатов шардов в один упорядоченный список
+     */
+    private static List<Hit> merge(Point target, List<Shard> shards, List<List<Point>> results, int count) {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>((a, b) -> Double.compare(a.distance(), b.distance()));
+        for (int i = 0; i < results.size(); i++) {
+            List<Point> points = results.get(i);
+            if (!points.isEmpty()) {
+                queue.add(new Cursor(shards.get(i), points, 0, target.distance(points.get(0))));
+            }
+        }
+        List<Hit> result = new ArrayList<>();
+        while (!queue.isEmpty() && result.size() < count) {
+            Cursor cursor = queue.poll();
+            result.add(new Hit(cursor.shard(), cursor.points().get(cursor.position())));
+            int next = cursor.position() + 1;
+            if (next < cursor.points().size()) {
+                queue.add(new Cursor(cursor.shard(), cursor.points(), next,
+                    target.distance(cursor.points().get(next))));
+            }
+        }
+        return result;
+    }
+
+    private List<ByteBuffer> readBuffers(List<Hit> hits) throws IOException {
+        long start = QueryMetrics.start();
+        // Строки каждого шарда читаются одним пакетом, затем раскладываются в порядке слияния
+        Map<Path, List<Point>> points = new HashMap<>();
+        Map<Path, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < hits.size(); i++) {
+            Path source = hits.get(i).shard().source();
+            points.computeIfAbsent(source, key -> new ArrayList<>()).add(hits.get(i).point());
+            positions.computeIfAbsent(source, key -> new ArrayList<>()).add(i);
+        }
+        ByteBuffer[] rows = new ByteBuffer[hits.size()];
+        for (Map.Entry<Path, List<Point>> entry : points.entrySet()) {
+            List<ByteBuffer> shardRows = rowSources.get(entry.getKey()).readRowBuffers(entry.getValue());
+            List<Integer> shardPositions = positions.get(entry.getKey());
+            for (int i = 0; i < shardRows.size(); i++) {
+                rows[shardPositions.get(i)] = shardRows.get(i);
+            }
+        }
+        List<ByteBuffer> result = new ArrayList<>(hits.size());
+        for (ByteBuffer row : rows) {
+            QueryMetrics.add(Counter.BYTES_READ, row.remaining());
+            result.add(row);
+        }
+        QueryMetrics.add(Counter.ROWS_READ, result.size());
+        QueryMetrics.record(Stage.ROW_FETCH, start);
+        return result;
+    }
+
+    private static Map<Path, RowSource> openAll(ShardDirectory directory) throws IOException {
+        Map<Path, RowSource> result = new HashMap<>();
+        for (Shard shard : directory.getShards()) {
+            result.put(shard.source(), new MappedRowSource(shard.source()));
+        }
+        return result;
+    }
+}
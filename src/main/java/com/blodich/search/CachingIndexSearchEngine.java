@@ -0,0 +1,263 @@
+package com.blodich.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import tree.SpatialIndex;
+import tree.geometry.Point;
+
+/**
+ * Кэширующий поиск limit ближайших точек. Целевая точка квантуется в ячейку сетки
+ * широты и долготы, для пары (ячейка, радиус) один раз выбираются из дерева все точки, которые
+ * могут оказаться в ответе для любой целевой точки этой ячейки. Ответ для конкретной точки
+ * вычисляется по этому набору точно: расстояния считаются до самой целевой точки, поэтому
+ * результат совпадает с поиском ближайших соседей в дереве.
+ * Кэшируемые запросы не проходят через fallback: кандидаты выбираются прямо из дерева, и
+ * поведение fallback (например, другой порядок результатов) на них не распространяется.
+ * fallback обслуживает только запросы, которые не кэшируются: с нечисловыми координатами
+ * или радиусом и с ограничением по высоте.
+ * Записи вытесняются по количеству (LRU) и по времени жизни. Кэш сбрасывается,
+ * если дерево изменилось (см. {@link SpatialIndex#getVersion()}).
+ */
+public class CachingIndexSearchEngine implements IndexSearchEngine {
+    /**
+     * Статистика кэша.
+     * @param hits попадания
+     * @param misses промахи
+     * @param entries количество записей в кэше
+     */
+    public record Stats(long hits, long misses, int entries) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    /**
+     * Ключ кэша: номер ячейки по широте и долготе и радиус поиска
+     */
+    private record CellKey(long latitudeCell, long longitudeCell, double radius) {
+    }
+
+    /**
+     * Запись кэша: точки-кандидаты ячейки и время их получения
+     */
+    private record Entry(List<Point> candidates, long createdNanos) {
+    }
+
+    // Запас на погрешность вычисления расстояний в километрах
+    private static final double EPSILON_KM = 1e-6;
+
+    private final IndexSearchEngine fallback;
+    private final int limit;
+    private final double cellDegrees;
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<CellKey, Entry> entries;
+    private SpatialIndex cachedTree;
+    private long cachedVersion;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Конструктор класса
+     * @param fallback поиск для запросов, которые не кэшируются
+     * @param limit максимальное количество результатов, как у fallback
+     * @param cellDegrees размер ячейки квантования в градусах
+     * @param maxEntries максимальное количество записей в кэше
+     * @param ttlMillis время жизни записи в миллисекундах
+     */
+    public CachingIndexSearchEngine(IndexSearchEngine fallback, int limit, double cellDegrees,
+                                    int maxEntries, long ttlMillis) {
+        if (!(cellDegrees > 0) || cellDegrees > 180) {
+            throw new IllegalArgumentException("Размер ячейки должен лежать в пределах (0; 180]: " + cellDegrees);
+        }
+        this.fallback = fallback;
+        this.limit = limit;
+        this.cellDegrees = cellDegrees;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CellKey, Entry> eldest) {
+                return size() > CachingIndexSearchEngine.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Поиск не более limit ближайших точек в пределах delta километров от целевой точки
+     * @param indexes индексы
+     * @param target целевая точка
+     * @param delta максимальное расстояние до найденных точек в километрах
+     * @return List, содержащий найденные точки в порядке возрастания расстояния
+     */
+    @Override
+    public List<Point> search(SpatialIndex indexes, Point target, double delta) throws IOException {
+        if (!Double.isFinite(delta) || delta < 0 || Double.isNaN(target.getX()) || Double.isNaN(target.getY())) {
+            return fallback.search(indexes, target, delta);
+        }
+
+        long latitudeCell = (long) Math.floor(target.getX() / cellDegrees);
+        long longitudeCell = (long) Math.floor(normalizeLongitude(target.getY()) / cellDegrees);
+        CellKey key = new CellKey(latitudeCell, longitudeCell, delta);
+        List<Point> candidates = lookup(indexes, key);
+        if (candidates == null) {
+            misses.increment();
+            candidates = loadCandidates(indexes, key);
+            store(indexes, key, candidates);
+        } else {
+            hits.increment();
+        }
+        return select(candidates, target, delta);
+    }
+
+    /**
+     * Поиск с ограничением по высоте не кэшируется: кандидаты ячейки отбираются по limit ближайшим
+     * точкам без учета высоты, и после фильтрации их может не хватить. Запрос без ограничения
+     * (диапазон (-∞; +∞)) обслуживается кэшем как обычный поиск
+     * @param indexes индексы
+     * @param target целевая точка
+     * @param delta максимальное расстояние до найденных точек в километрах
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @return List, содержащий найденные точки в порядке возрастания расстояния
+     */
+    @Override
+    public List<Point> search(SpatialIndex indexes, Point target, double delta,
+                              double minElevation, double maxElevation) throws IOException {
+        if (SpatialIndex.isUnbounded(minElevation, maxElevation)) {
+            return search(indexes, target, delta);
+        }
+        return fallback.search(indexes, target, delta, minElevation, maxElevation);
+    }
+
+    /**
+     * Текущая статистика кэша
+     * @return Stats
+     */
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), entries.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Очищает кэш
+     */
+    public void invalidate() {
+        lock.lock();
+        try {
+            entries.clear();
+            cachedTree = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Point> lookup(SpatialIndex indexes, CellKey key) {
+        lock.lock();
+        try {
+            if (indexes != cachedTree || indexes.getVersion() != cachedVersion) {
+                entries.clear();
+                cachedTree = indexes;
+                cachedVersion = indexes.getVersion();
+                return null;
+            }
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.createdNanos() > ttlNanos) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.candidates();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(SpatialIndex indexes, CellKey key, List<Point> candidates) {
+        lock.lock();
+        try {
+            // Дерево могло измениться, пока кандидаты выбирались без блокировки
+            if (indexes == cachedTree && indexes.getVersion() == cachedVersion) {
+                entries.put(key, new Entry(candidates, System.nanoTime()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Выбирает из дерева все точки, которые могут попасть в ответ для любой точки ячейки.
+     * Для точки t ячейки с центром c и точки p: |d(t, p) - d(c, p)| <= h, где h - наибольшее
+     * расстояние от центра до ячейки. Поэтому ответ для t лежит в пределах delta + h от c,
+     * а если в этом круге не меньше limit точек и D - расстояние от c до limit-й из них,
+     * то и в пределах D + 2h.
+     */
+    private List<Point> loadCandidates(SpatialIndex indexes, CellKey key) {
+        double minLatitude = Math.max(-90, key.latitudeCell() * cellDegrees);
+        double maxLatitude = Math.min(90, (key.latitudeCell() + 1) * cellDegrees);
+        double minLongitude = key.longitudeCell() * cellDegrees;
+        double maxLongitude = Math.min(180, (key.longitudeCell() + 1) * cellDegrees);
+        Point center = new Point((minLatitude + maxLatitude) / 2, (minLongitude + maxLongitude) / 2);
+        double halfDiagonal = 0;
+        for (double latitude : new double[] {minLatitude, center.getX(), maxLatitude}) {
+            for (double longitude : new double[] {minLongitude, center.getY(), maxLongitude}) {
+                halfDiagonal = Math.max(halfDiagonal,
+                    Point.distance(center.getX(), center.getY(), latitude, longitude));
+            }
+        }
+
+        double bound = key.radius() + halfDiagonal + EPSILON_KM;
+        List<Point> nearest = indexes.nearest(center, limit, bound);
+        if (nearest.size() == limit) {
+            bound = Math.min(bound, center.distance(nearest.get(limit - 1)) + 2 * halfDiagonal + EPSILON_KM);
+        }
+        return List.copyOf(indexes.within(center, bound));
+    }
+
+    private List<Point> select(List<Point> candidates, Point target, double delta) {
+        List<Point> within = new ArrayList<>();
+        List<Double> distances = new ArrayList<>();
+        for (Point candidate : candidates) {
+            double distance = target.distance(candidate);
+            if (distance <= delta) {
+                within.add(candidate);
+                distances.add(distance);
+            }
+        }
+        Integer[] order = new Integer[within.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(distances::get));
+        List<Point> result = new ArrayList<>(Math.min(limit, order.length));
+        for (int i = 0; i < order.length && i < limit; i++) {
+            result.add(within.get(order[i]));
+        }
+        return result;
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        double result = (longitude + 180) % 360;
+        if (result < 0) {
+            result += 360;
+        }
+        return result - 180;
+    }
+}
@@ -1,56 +1,135 @@
 package com.blodich.search;
 
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.stream.Collectors;
-import tree.RTree;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import tree.SpatialIndex;
+import tree.geometry.HilbertCurve;
 import tree.geometry.Point;
-import tree.geometry.Rectangle;
+import tree.metrics.QueryMetrics;
+import tree.metrics.QueryMetrics.Stage;
 
 /**
  * Реализация IndexSearchEngine.
  */
 public class CsvIndexSearchEngine implements IndexSearchEngine {
+    // Максимальное количество результатов поиска
+    public static final int RESULT_LIMIT = 5;
+
+    // Количество целевых точек, которые пакетный поиск обрабатывает в одной задаче без деления
+    private static final int BATCH_THRESHOLD = 256;
+
+    private final ForkJoinPool pool;
+
+    public CsvIndexSearchEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Конструктор класса
+     * @param pool пул для параллельного пакетного поиска
+     */
+    public CsvIndexSearchEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Реалзиация метода search с помощью поиска ближайших соседей в дереве
+     * @param indexes индексы
+     * @param target целевая точка
+     * @param delta максимальное расстояние до найденных точек в километрах
+     * @return List, содержащий не более RESULT_LIMIT ближайших точек в порядке возрастания расстояния
+     */
+    public List<Point> search(SpatialIndex indexes, Point target, double delta) {
+        long start = QueryMetrics.start();
+        List<Point> result = indexes.nearest(target, RESULT_LIMIT, delta);
+        QueryMetrics.record(Stage.SEARCH, start);
+        return result;
+    }
 
     /**
-     * Реалзиация метода search с помощью префикса
+     * Поиск ближайших соседей в дереве с ограничением по высоте
      * @param indexes индексы
      * @param target целевая точка
-     * @param delta величина изменения координат
-     * @return SortedMap, содержащий найденные индексы
+     * @param delta максимальное расстояние до найденных точек в километрах
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @return List, содержащий не более RESULT_LIMIT ближайших точек в порядке возрастания расстояния
      */
-    public List<Point> search(RTree indexes, Point target, double delta) {
-        double[] mercator = mercator(target.getX(), target.getY(), delta);
-        double dLatitude = mercator[0];
-        double dLongitude = mercator[1];
-        Point leftTop = new Point(target.getX() - dLatitude / 2, target.getY() + dLongitude / 2);
-        Point rightBottom = new Point(target.getX() + dLatitude / 2, target.getY() - dLongitude / 2);
-        Rectangle targetRectangle = new Rectangle(leftTop, rightBottom);
-        var result =  indexes.range(targetRectangle);
-        return result
-            .stream()
-            .filter(r -> target.distance(r) <= delta)
-            .sorted(Comparator.comparingDouble(target::distance))
-            .limit(5)
-            .collect(Collectors.toList());
+    @Override
+    public List<Point> search(SpatialIndex indexes, Point target, double delta,
+                              double minElevation, double maxElevation) {
+        long start = QueryMetrics.start();
+        List<Point> result = indexes.nearest(target, RESULT_LIMIT, delta, minElevation, maxElevation);
+        QueryMetrics.record(Stage.SEARCH, start);
+        return result;
     }
 
     /**
-     * Проекция Меркатора сферы на цилиндр.
-     *
-     * @param latitude - широта в градусах.
-     * @param longitude - долгота в градусах.
-     * @param delta - величина изменения координат
-     * @return массив с широтой и долготой в прямоугольных координатах.
+     * Пакетный поиск. Целевые точки упорядочиваются по кривой Гильберта, чтобы соседние запросы
+     * обходили одни и те же узлы дерева, и делятся между задачами ForkJoinPool.
+     * Дерево не должно изменяться во время поиска.
+     * @param indexes индексы
+     * @param targets целевые точки
+     * @param delta максимальное расстояние до найденных точек в километрах
+     * @return List, i-й элемент которого содержит ближайшие точки для i-й целевой точки
      */
-    public static double[] mercator(double latitude, double longitude, double delta) {
-        // 6371 - средний радиус земли
-        double latitudeInKm = 6371 * Math.log(Math.tan(Math.toRadians(latitude)/2 + Math.PI/4)) + delta;
-        double dLatitude = Math.toDegrees(Math.atan(Math.sinh(latitudeInKm / 6371)));
-        double longitudeInKm = Math.toRadians(longitude) * 6371 + delta;
-        double dLongitude = Math.toDegrees(longitudeInKm / 6371);
-        return new double[] {latitude, longitude};
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<List<Point>> searchBatch(SpatialIndex indexes, List<Point> targets, double delta) {
+        int size = targets.size();
+        long[] keys = new long[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            Point target = targets.get(i);
+            keys[i] = HilbertCurve.index(target.getX(), target.getY());
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+
+        List<Point>[] result = new List[size];
+        pool.invoke(new BatchTask(indexes, targets, order, delta, result, 0, size));
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Задача пакетного поиска для отрезка [from; to) упорядоченных целевых точек.
+     */
+    private static class BatchTask extends RecursiveAction {
+        private final SpatialIndex indexes;
+        private final List<Point> targets;
+        private final Integer[] order;
+        private final double delta;
+        private final List<Point>[] result;
+        private final int from;
+        private final int to;
+
+        BatchTask(SpatialIndex indexes, List<Point> targets, Integer[] order, double delta,
+                  List<Point>[] result, int from, int to) {
+            this.indexes = indexes;
+            this.targets = targets;
+            this.order = order;
+            this.delta = delta;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BatchTask(indexes, targets, order, delta, result, from, middle),
+                    new BatchTask(indexes, targets, order, delta, result, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                int index = order[i];
+                result[index] = indexes.nearest(targets.get(index), RESULT_LIMIT, delta);
+            }
+        }
     }
 }
@@ -1,9 +1,9 @@
 package com.blodich.search;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.SortedMap;
-import tree.RTree;
+import tree.SpatialIndex;
 import tree.geometry.Point;
 
 /**
@@ -17,5 +17,33 @@ public interface IndexSearchEngine {
      * @param delta величина изменения координат
      * @return SortedMap, содержащий найденные индексы
      */
-    List<Point> search(RTree indexes, Point target, double delta) throws IOException;
+    List<Point> search(SpatialIndex indexes, Point target, double delta) throws IOException;
+
+    /**
+     * Осуществляет поиск в индексах с ограничением по высоте. Точки вне диапазона высот
+     * отсекаются при обходе индекса, поэтому их строки не читаются
+     * @param indexes индексы
+     * @param target целевая точка
+     * @param delta максимальное расстояние до найденных точек в километрах
+     * @param minElevation минимальная высота
+     * @param maxElevation максимальная высота
+     * @return List, содержащий найденные точки в порядке возрастания расстояния
+     */
+    List<Point> search(SpatialIndex indexes, Point target, double delta, double minElevation, double maxElevation)
+        throws IOException;
+
+    /**
+     * Осуществляет поиск для набора целевых точек
+     * @param indexes индексы
+     * @param targets целевые точки
+     * @param delta величина изменения координат
+     * @return List, i-й элемент которого содержит результат search для i-й целевой точки
+     */
+    default List<List<Point>> searchBatch(SpatialIndex indexes, List<Point> targets, double delta) throws IOException {
+        List<List<Point>> result = new ArrayList<>(targets.size());
+        for (var target : targets) {
+            result.add(search(indexes, target, delta));
+        }
+        return result;
+    }
 }
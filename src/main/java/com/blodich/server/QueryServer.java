@@ -0,0 +1,288 @@
+package com.blodich.server;
+
+import com.blodich.reader.FilteredCsvRandomAccessReader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import tree.SpatialIndex;
+import tree.geometry.Point;
+
+/**
+ * HTTP сервер поиска по общему индексу, который строится или загружается один раз.
+ *
+ * GET /nearest?lat=..&lon=..[&radius=..] - ближайшие записи в пределах радиуса (как в интерактивном режиме).
+ * GET /radius?lat=..&lon=..[&radius=..] - все записи в пределах радиуса в порядке возрастания расстояния.
+ * GET /within?lat=..&lon=..[&radius=..][&limit=..] - записи в пределах радиуса без упорядочивания;
+ * строки пишутся в ответ по ходу обхода дерева, обход останавливается после limit записей.
+ * Для /nearest и /radius параметр columns=2,3,7 (номера колонок с единицы) ограничивает ответ
+ * этими колонками: значения без кавычек через табуляцию, пустое значение - пустая строка.
+ * Все запросы принимают minElevation и maxElevation - диапазон высот найденных записей; фильтр
+ * применяется при обходе индекса и работает, только если индекс построен с высотой.
+ *
+ * Некорректные параметры (radius - не конечное неотрицательное число, limit - не положительное
+ * целое) дают ответ 400, ошибка чтения файла в /nearest и /radius - ответ 500. /within пишет
+ * строки после отправки заголовков, поэтому ошибка чтения в нем обрывает ответ.
+ *
+ * Каждый запрос обрабатывается в отдельном виртуальном потоке, найденные строки пишутся в ответ
+ * по мере чтения из общего FilteredCsvRandomAccessReader, по одной записи на строку.
+ */
+public class QueryServer {
+    private final SpatialIndex tree;
+    private final FilteredCsvRandomAccessReader reader;
+    private final double defaultRadius;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Конструктор класса
+     * @param tree общий индекс; изменяться во время работы сервера может только потокобезопасный
+     *             индекс, например ConcurrentRTree
+     * @param reader общий читатель строк csv файла
+     * @param defaultRadius радиус поиска в километрах, если он не указан в запросе
+     */
+    public QueryServer(SpatialIndex tree, FilteredCsvRandomAccessReader reader, double defaultRadius) {
+        this.tree = tree;
+        this.reader = reader;
+        this.defaultRadius = defaultRadius;
+    }
+
+    /**
+     * Запускает сервер на локальном интерфейсе
+     * @param port порт
+     * @throws IOException в случае ошибки открытия сокета
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/nearest", exchange -> handle(exchange, false));
+        server.createContext("/radius", exchange -> handle(exchange, true));
+        server.createContext("/within", this::handleWithin);
+        server.start();
+    }
+
+    /**
+     * Порт, на котором работает сервер
+     * @return порт
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Останавливает сервер, дожидаясь завершения текущих запросов не дольше заданного времени
+     * @param delaySeconds время ожидания в секундах
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange, boolean allInRadius) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Поддерживается только GET");
+                return;
+            }
+
+            Point target;
+            double radius;
+            int[] columns;
+            double[] elevation;
+            try {
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                target = new Point(Double.parseDouble(required(parameters, "lat")),
+                    Double.parseDouble(required(parameters, "lon")));
+                radius = parseRadius(parameters);
+                columns = parameters.containsKey("columns") ? parseColumns(parameters.get("columns")) : null;
+                elevation = parseElevation(parameters);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            List<ByteBuffer> rows;
+            try {
+                rows = readRows(target, radius, elevation, columns, allInRadius);
+            } catch (IOException e) {
+                sendError(exchange, 500, "Ошибка чтения файла: " + e.getMessage());
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream body = exchange.getResponseBody();
+            WritableByteChannel channel = Channels.newChannel(body);
+            ByteBuffer newLine = ByteBuffer.wrap(new byte[] {'\n'});
+            for (ByteBuffer row : rows) {
+                writeRow(channel, row, newLine);
+            }
+            body.flush();
+        }
+    }
+
+    /**
+     * Читает найденные строки целиком или только выбранные колонки до отправки заголовков ответа,
+     * чтобы ошибку чтения можно было вернуть клиенту кодом ответа
+     */
+    private List<ByteBuffer> readRows(Point target, double radius, double[] elevation, int[] columns,
+                                      boolean allInRadius) throws IOException {
+        List<ByteBuffer> rows;
+        if (columns != null) {
+            List<String[]> values = allInRadius
+                ? reader.readColumnsWithin(tree, target, radius, elevation[0], elevation[1], columns)
+                : reader.readColumns(tree, target, radius, elevation[0], elevation[1], columns);
+            rows = new ArrayList<>(values.size());
+            for (String[] row : values) {
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0) {
+                        line.append('\t');
+                    }
+                    if (row[i] != null) {
+                        line.append(row[i]);
+                    }
+                }
+                rows.add(ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8)));
+            }
+        } else {
+            rows = allInRadius
+                ? reader.readBuffersWithin(tree, target, radius, elevation[0], elevation[1])
+                : reader.readBuffers(tree, target, radius, elevation[0], elevation[1]);
+        }
+        return rows;
+    }
+
+    private void handleWithin(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Поддерживается только GET");
+                return;
+            }
+
+            Point target;
+            double radius;
+            long limit;
+            double[] elevation;
+            try {
+                Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                target = new Point(Double.parseDouble(required(parameters, "lat")),
+                    Double.parseDouble(required(parameters, "lon")));
+                radius = parseRadius(parameters);
+                limit = parameters.containsKey("limit")
+                    ? Long.parseLong(parameters.get("limit"))
+                    : Long.MAX_VALUE;
+                if (limit <= 0) {
+                    throw new IllegalArgumentException("Параметр limit должен быть положительным");
+                }
+                elevation = parseElevation(parameters);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream body = exchange.getResponseBody();
+            WritableByteChannel channel = Channels.newChannel(body);
+            ByteBuffer newLine = ByteBuffer.wrap(new byte[] {'\n'});
+            long[] written = {0};
+            reader.visitWithin(tree, target, radius, elevation[0], elevation[1], row -> {
+                writeRow(channel, row, newLine);
+                return ++written[0] < limit;
+            });
+            body.flush();
+        }
+    }
+
+    private static void writeRow(WritableByteChannel channel, ByteBuffer row, ByteBuffer newLine) throws IOException {
+        while (row.hasRemaining()) {
+            channel.write(row);
+        }
+        newLine.rewind();
+        channel.write(newLine);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Не указан параметр " + name);
+        }
+        return value;
+    }
+
+    private double parseRadius(Map<String, String> parameters) {
+        if (!parameters.containsKey("radius")) {
+            return defaultRadius;
+        }
+        double radius = Double.parseDouble(parameters.get("radius"));
+        if (!Double.isFinite(radius) || radius < 0) {
+            throw new IllegalArgumentException("Параметр radius должен быть неотрицательным числом");
+        }
+        return radius;
+    }
+
+    private static int[] parseColumns(String value) {
+        String[] parts = value.split(",");
+        int[] columns = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            columns[i] = Integer.parseInt(parts[i].trim()) - 1;
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("Номера колонок начинаются с 1: " + value);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Разбирает диапазон высот из параметров minElevation и maxElevation
+     * @return минимальная и максимальная высота, отсутствующая граница - бесконечность
+     */
+    private static double[] parseElevation(Map<String, String> parameters) {
+        double min = parameters.containsKey("minElevation")
+            ? Double.parseDouble(parameters.get("minElevation"))
+            : Double.NEGATIVE_INFINITY;
+        double max = parameters.containsKey("maxElevation")
+            ? Double.parseDouble(parameters.get("maxElevation"))
+            : Double.POSITIVE_INFINITY;
+        if (!(min <= max)) {
+            throw new IllegalArgumentException("Некорректный диапазон высот: " + min + " - " + max);
+        }
+        return new double[] {min, max};
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> result = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return result;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                result.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+}
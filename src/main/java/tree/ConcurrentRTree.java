@@ -0,0 +1,374 @@
+package tree;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+
+/**
+ * Потокобезопасный индекс с неблокирующим чтением поверх любого SpatialIndex.
+ *
+ * Состояние индекса - неизменяемая версия: основной индекс (base) и небольшой дополнительный
+ * индекс дописанных точек (delta), замороженный в {@link PackedRTree}. Писатель строит новую
+ * версию рядом со старой и атомарно публикует ее через volatile поле. Читатель один раз читает
+ * версию и дальше работает с ней, поэтому всегда видит согласованное состояние и никогда не ждет
+ * писателей; сами индексы после публикации не изменяются. Писатели упорядочиваются блокировкой.
+ *
+ * Каждая запись перестраивает delta целиком, поэтому точки выгоднее добавлять пакетами.
+ * Когда delta вырастает до 1/8 основного индекса (но не меньше 1024 точек), все точки
+ * загружаются в новый основной индекс из фабрики (RTree замораживается в PackedRTree),
+ * а delta очищается.
+ *
+ * Замененный основной индекс, который нужно закрывать (например, {@link OffHeapRTree}),
+ * закрывается, как только с ним закончит работу последний читатель: для такого индекса
+ * читатели ведут счетчик. Индексы, которые закрывать не нужно, освобождает сборщик мусора,
+ * и счетчик для них не ведется.
+ */
+public class ConcurrentRTree implements SpatialIndex, AutoCloseable {
+  // Минимальный размер delta, при котором выполняется слияние с основным индексом
+  private static final int MIN_COMPACTION_SIZE = 1024;
+
+  // Окно, покрывающее все точки индекса
+  private static final Rectangle EVERYWHERE = new Rectangle(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+      Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+  /**
+   * Опубликованная версия индекса.
+   *
+   * @param base - основной индекс, общий для всех версий до следующего слияния.
+   * @param delta - точки, добавленные после построения основного индекса.
+   * @param deltaPoints - те же точки списком, для перестроения delta.
+   * @param number - номер версии.
+   */
+  private record Version(Base base, PackedRTree delta, List<Point> deltaPoints, long number) {
+  }
+
+  /**
+   * Основной индекс и число читателей, которые работают с ним сейчас.
+   */
+  private static final class Base {
+    private final SpatialIndex index;
+    // null, если индекс не требует закрытия; тогда читатели не учитываются
+    private final AutoCloseable closeable;
+    private final AtomicInteger readers = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // Индекс заменен при слиянии, новые читатели его уже не получат
+    private volatile boolean retired;
+
+    private Base(SpatialIndex index) {
+      this.index = index;
+      this.closeable = index instanceof AutoCloseable c ? c : null;
+    }
+
+    /**
+     * Закрывает индекс один раз.
+     */
+    private void close() throws IOException {
+      if (closeable == null || !closed.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  private final Supplier<SpatialIndex> indexFactory;
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  // Основные индексы, замененные при слиянии и еще не закрытые: с ними работают читатели
+  private final List<Base> retired = new ArrayList<>();
+
+  // Первая ошибка закрытия замененного индекса в потоке читателя, выбрасывается из close()
+  private final AtomicReference<IOException> reclaimFailure = new AtomicReference<>();
+
+  // Текущая опубликованная версия
+  private volatile Version version;
+
+  /**
+   * @param base - основной индекс, дальше изменяется только через этот объект.
+   * @param indexFactory - создает пустой основной индекс при слиянии с delta.
+   */
+  public ConcurrentRTree(SpatialIndex base, Supplier<SpatialIndex> indexFactory) {
+    this.indexFactory = indexFactory;
+    this.version = new Version(new Base(base), freeze(List.of()), List.of(), 0);
+  }
+
+  /**
+   * Добавляет новую точку. Читатели, начавшие поиск раньше, продолжают работать со старой версией.
+   *
+   * @param point - новая точка.
+   */
+  @Override
+  public void add(Point point) {
+    bulkLoad(List.of(point));
+  }
+
+  /**
+   * Добавляет точки одной операцией записи. Читатели видят либо ни одной, либо все точки.
+   *
+   * @param points - новые точки.
+   */
+  @Override
+  public void bulkLoad(Collection<Point> points) {
+    if (points.isEmpty()) {
+      return;
+    }
+    writeLock.lock();
+    try {
+      Version current = version;
+      List<Point> deltaPoints = new ArrayList<>(current.deltaPoints().size() + points.size());
+      deltaPoints.addAll(current.deltaPoints());
+      deltaPoints.addAll(points);
+      if (deltaPoints.size() < compactionThreshold(current)) {
+        version = new Version(current.base(), freeze(deltaPoints), deltaPoints, current.number() + 1);
+        return;
+      }
+
+      List<Point> all = new ArrayList<>(current.base().index.size() + deltaPoints.size());
+      current.base().index.range(EVERYWHERE, point -> {
+        all.add(point);
+        return true;
+      });
+      all.addAll(deltaPoints);
+      SpatialIndex base = indexFactory.get();
+      base.bulkLoad(all);
+      if (base instanceof RTree tree) {
+        base = tree.freeze();
+      }
+      version = new Version(new Base(base), freeze(List.of()), List.of(), current.number() + 1);
+      retire(current.base());
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Помечает основной индекс замененным и закрывает его, если читателей у него нет.
+   * Иначе индекс закроет последний читатель в {@link #release(Version)}.
+   */
+  private void retire(Base base) {
+    if (base.closeable == null) {
+      return;
+    }
+    retired.removeIf(old -> old.closed.get());
+    retired.add(base);
+    base.retired = true;
+    if (base.readers.get() == 0) {
+      reclaim(base);
+    }
+  }
+
+  /**
+   * Текущая версия для чтения. Пока версия не передана в {@link #release(Version)},
+   * ее основной индекс не закрывается.
+   */
+  private Version acquire() {
+    while (true) {
+      Version current = version;
+      Base base = current.base();
+      if (base.closeable == null) {
+        return current;
+      }
+      base.readers.incrementAndGet();
+      // Если индекс заменили до увеличения счетчика, писатель мог его уже закрыть
+      if (!base.retired) {
+        return current;
+      }
+      release(current);
+    }
+  }
+
+  private void release(Version current) {
+    Base base = current.base();
+    if (base.closeable != null && base.readers.decrementAndGet() == 0 && base.retired) {
+      reclaim(base);
+    }
+  }
+
+  private void reclaim(Base base) {
+    try {
+      base.close();
+    } catch (IOException e) {
+      if (!reclaimFailure.compareAndSet(null, e)) {
+        reclaimFailure.get().addSuppressed(e);
+      }
+    }
+  }
+
+  /**
+   * Размер delta, при котором она сливается с основным индексом.
+   */
+  private static int compactionThreshold(Version version) {
+    return Math.max(MIN_COMPACTION_SIZE, version.base().index.size() / 8);
+  }
+
+  private static PackedRTree freeze(List<Point> points) {
+    RTree tree = new RTree(16);
+    tree.bulkLoad(points);
+    return tree.freeze();
+  }
+
+  /**
+   * Основной индекс, если он содержит все точки (delta пуста) и является PackedRTree.
+   * Используется для сохранения снимка индекса.
+   *
+   * @return основной индекс или null.
+   */
+  public PackedRTree getPacked() {
+    Version current = version;
+    return current.delta().size() == 0 && current.base().index instanceof PackedRTree packed ? packed : null;
+  }
+
+  @Override
+  public List<Point> range(Rectangle target) {
+    Version current = acquire();
+    try {
+      List<Point> result = new ArrayList<>(current.base().index.range(target));
+      result.addAll(current.delta().range(target));
+      return result;
+    } finally {
+      release(current);
+    }
+  }
+
+  @Override
+  public boolean range(Rectangle target, PointVisitor visitor) {
+    Version current = acquire();
+    try {
+      return current.base().index.range(target, visitor) && current.delta().range(target, visitor);
+    } finally {
+      release(current);
+    }
+  }
+
+  @Override
+  public List<Point> within(Point target, double radiusKm) {
+    Version current = acquire();
+    try {
+      List<Point> result = new ArrayList<>(current.base().index.within(target, radiusKm));
+      result.addAll(current.delta().within(target, radiusKm));
+      return result;
+    } finally {
+      release(current);
+    }
+  }
+
+  @Override
+  public boolean within(Point target, double radiusKm, PointVisitor visitor) {
+    Version current = acquire();
+    try {
+      return current.base().index.within(target, radiusKm, visitor)
+          && current.delta().within(target, radiusKm, visitor);
+    } finally {
+      release(current);
+    }
+  }
+
+  @Override
+  public boolean within(Point target, double radiusKm, double minElevation, double maxElevation,
+                        PointVisitor visitor) {
+    Version current = acquire();
+    try {
+      return current.base().index.within(target, radiusKm, minElevation, maxElevation, visitor)
+          && current.delta().within(target, radiusKm, minElevation, maxElevation, visitor);
+    } finally {
+      release(current);
+    }
+  }
+
+  @Override
+  public List<Point> nearest(Point target, int k, double maxDistanceKm) {
+    return nearest(target, k, maxDistanceKm, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Ближайшие соседи ищутся в основном индексе и в delta, результаты сливаются по расстоянию.
+   */
+  @Override
+  public List<Point> nearest(Point target, int k, double maxDistanceKm, double minElevation, double maxElevation) {
+    Version current = acquire();
+    try {
+      List<Point> result = new ArrayList<>(
+          current.base().index.nearest(target, k, maxDistanceKm, minElevation, maxElevation));
+      if (current.delta().size() == 0) {
+        return result;
+      }
+      result.addAll(current.delta().nearest(target, k, maxDistanceKm, minElevation, maxElevation));
+      result.sort(Comparator.comparingDouble(target::distance));
+      return result.size() > k ? new ArrayList<>(result.subList(0, k)) : result;
+    } finally {
+      release(current);
+    }
+  }
+
+  /**
+   * Количество точек в текущей версии индекса.
+   *
+   * @return количество точек.
+   */
+  @Override
+  public int size() {
+    Version current = acquire();
+    try {
+      return current.base().index.size() + current.delta().size();
+    } finally {
+      release(current);
+    }
+  }
+
+  /**
+   * Номер опубликованной версии, увеличивается при каждой записи.
+   *
+   * @return номер версии.
+   */
+  @Override
+  public long getVersion() {
+    return version.number();
+  }
+
+  /**
+   * Закрывает основной индекс и еще не закрытые индексы, замененные при слиянии, если они
+   * требуют закрытия (например, {@link OffHeapRTree}). Выбрасывает также ошибки закрытия
+   * замененных индексов в потоках читателей. После закрытия индекс использовать нельзя.
+   *
+   * @throws IOException - в случае ошибки закрытия.
+   */
+  @Override
+  public void close() throws IOException {
+    writeLock.lock();
+    try {
+      retired.add(version.base());
+      IOException failure = reclaimFailure.getAndSet(null);
+      for (Base base : retired) {
+        try {
+          base.close();
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+      retired.clear();
+      if (failure != null) {
+        throw failure;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+}
@@ -0,0 +1,443 @@
+package tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import tree.geometry.GeodesicWindow;
+import tree.geometry.Geometry;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+import tree.metrics.QueryMetrics;
+import tree.metrics.QueryMetrics.Counter;
+import tree.metrics.QueryMetrics.Stage;
+
+/**
+ * Индекс на равномерной сетке широты и долготы. Каждая ячейка хранит свои точки
+ * в массивах примитивов (широта, долгота, смещение, высота), поэтому поиск сводится к
+ * последовательному просмотру нескольких ячеек без обхода дерева и без ссылок на объекты.
+ * Подходит для точечных данных известной плотности; при сильно неравномерном распределении
+ * размер ячейки приходится подбирать под самые плотные области.
+ * Не потокобезопасен при изменении: изменения не должны выполняться одновременно с поиском.
+ */
+public class GridIndex implements SpatialIndex {
+  // Начальная вместимость ячейки при первом добавлении точки
+  private static final int INITIAL_CAPACITY = 4;
+
+  // Размер ячейки в градусах
+  private final double cellDegrees;
+
+  // Количество ячеек по широте и по долготе
+  private final int rows;
+  private final int columns;
+
+  // Координаты и смещения точек по ячейкам, ячейка с номером row * columns + column
+  private final double[][] latitudes;
+  private final double[][] longitudes;
+  private final long[][] seeks;
+  private final double[][] elevations;
+  private final int[] counts;
+
+  // Диапазон высот точек ячейки, точки без высоты в него не входят
+  private final double[] minElevations;
+  private final double[] maxElevations;
+
+  // Количество точек в индексе
+  private int count;
+
+  // Номер версии, изменяется при каждой модификации
+  private volatile long version;
+
+  /**
+   * @param cellDegrees - размер ячейки в градусах, в пределах (0; 180].
+   */
+  public GridIndex(double cellDegrees) {
+    if (!(cellDegrees > 0 && cellDegrees <= 180)) {
+      throw new IllegalArgumentException("Размер ячейки должен лежать в пределах (0; 180]: " + cellDegrees);
+    }
+    this.cellDegrees = cellDegrees;
+    this.rows = (int) Math.ceil(180 / cellDegrees);
+    this.columns = (int) Math.ceil(360 / cellDegrees);
+    int cells = Math.multiplyExact(rows, columns);
+    this.latitudes = new double[cells][];
+    this.longitudes = new double[cells][];
+    this.seeks = new long[cells][];
+    this.elevations = new double[cells][];
+    this.counts = new int[cells];
+    this.minElevations = new double[cells];
+    this.maxElevations = new double[cells];
+    Arrays.fill(minElevations, Double.POSITIVE_INFINITY);
+    Arrays.fill(maxElevations, Double.NEGATIVE_INFINITY);
+  }
+
+  @Override
+  public void add(Point point) {
+    int cell = cellOf(point.getX(), point.getY());
+    ensureCapacity(cell, counts[cell] + 1);
+    put(cell, point);
+    count++;
+    version++;
+  }
+
+  /**
+   * Добавляет набор точек. Сначала подсчитывается количество точек в каждой ячейке,
+   * чтобы массивы ячеек выделялись один раз нужного размера.
+   *
+   * @param points - точки.
+   */
+  @Override
+  public void bulkLoad(Collection<Point> points) {
+    int[] added = new int[counts.length];
+    for (Point point : points) {
+      added[cellOf(point.getX(), point.getY())]++;
+    }
+    for (int cell = 0; cell < added.length; cell++) {
+      if (added[cell] > 0) {
+        ensureCapacity(cell, counts[cell] + added[cell]);
+      }
+    }
+    for (Point point : points) {
+      put(cellOf(point.getX(), point.getY()), point);
+    }
+    count += points.size();
+    version++;
+  }
+
+  @Override
+  public List<Point> range(Rectangle target) {
+    List<Point> result = new ArrayList<>();
+    range(target, point -> {
+      result.add(point);
+      return true;
+    });
+    return result;
+  }
+
+  @Override
+  public boolean range(Rectangle target, PointVisitor visitor) {
+    long start = QueryMetrics.start();
+    double minX = target.getMinX();
+    double minY = target.getMinY();
+    double maxX = target.getMaxX();
+    double maxY = target.getMaxY();
+    int fromRow = rowOf(minX);
+    int toRow = rowOf(maxX);
+    int fromColumn = columnOf(minY);
+    int toColumn = columnOf(maxY);
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int column = fromColumn; column <= toColumn; column++) {
+        int cell = row * columns + column;
+        int size = counts[cell];
+        if (size == 0) {
+          continue;
+        }
+        QueryMetrics.increment(Counter.LEAF_NODES);
+        QueryMetrics.add(Counter.CANDIDATES, size);
+        double[] lat = latitudes[cell];
+        double[] lon = longitudes[cell];
+        for (int i = 0; i < size; i++) {
+          if (lat[i] >= minX && lat[i] <= maxX && lon[i] >= minY && lon[i] <= maxY
+              && !visitor.visit(point(cell, i))) {
+            QueryMetrics.record(Stage.TREE, start);
+            return false;
+          }
+        }
+      }
+    }
+    QueryMetrics.record(Stage.TREE, start);
+    return true;
+  }
+
+  @Override
+  public List<Point> within(Point target, double radiusKm) {
+    List<Point> result = new ArrayList<>();
+    within(target, radiusKm, point -> {
+      result.add(point);
+      return true;
+    });
+    return result;
+  }
+
+  @Override
+  public boolean within(Point target, double radiusKm, PointVisitor visitor) {
+    return within(target, radiusKm, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, visitor);
+  }
+
+  /**
+   * Обходит точки в пределах радиуса. Просматриваются только ячейки, пересекающие
+   * геодезическое окно круга ({@link GeodesicWindow}), удаленные от цели не дальше радиуса
+   * и содержащие точки с высотой в заданном диапазоне.
+   */
+  @Override
+  public boolean within(Point target, double radiusKm, double minElevation, double maxElevation,
+                        PointVisitor visitor) {
+    if (count == 0 || !(radiusKm >= 0)) {
+      return true;
+    }
+    long start = QueryMetrics.start();
+    boolean filterElevation = !SpatialIndex.isUnbounded(minElevation, maxElevation);
+    double latitude = target.getX();
+    double longitude = target.getY();
+    List<Rectangle> window = GeodesicWindow.around(latitude, longitude, radiusKm);
+    // Прямоугольники окна имеют общие границы по широте и не пересекаются по долготе,
+    // но при разрезе по меридиану ±180° могут попасть в один столбец сетки
+    boolean[] windowColumns = new boolean[columns];
+    for (Rectangle rectangle : window) {
+      Arrays.fill(windowColumns, columnOf(rectangle.getMinY()), columnOf(rectangle.getMaxY()) + 1, true);
+    }
+    int fromRow = rowOf(window.get(0).getMinX());
+    int toRow = rowOf(window.get(0).getMaxX());
+    for (int row = fromRow; row <= toRow; row++) {
+      for (int column = 0; column < columns; column++) {
+        int cell = row * columns + column;
+        int size = counts[cell];
+        if (!windowColumns[column] || size == 0
+            || filterElevation && !overlapsElevation(cell, minElevation, maxElevation)
+            || minDistance(latitude, longitude, row, column) > radiusKm) {
+          continue;
+        }
+        QueryMetrics.increment(Counter.LEAF_NODES);
+        QueryMetrics.add(Counter.CANDIDATES, size);
+        double[] lat = latitudes[cell];
+        double[] lon = longitudes[cell];
+        double[] elevation = elevations[cell];
+        for (int i = 0; i < size; i++) {
+          if ((!filterElevation || elevation[i] >= minElevation && elevation[i] <= maxElevation)
+              && Point.distance(latitude, longitude, lat[i], lon[i]) <= radiusKm
+              && !visitor.visit(point(cell, i))) {
+            QueryMetrics.record(Stage.TREE, start);
+            return false;
+          }
+        }
+      }
+    }
+    QueryMetrics.record(Stage.TREE, start);
+    return true;
+  }
+
+  /**
+   * Поиск k ближайших соседей методом best-first по ячейкам. Ячейки раскрываются от ячейки
+   * цели к соседним в порядке возрастания минимального расстояния по ортодромии; поиск
+   * останавливается, когда ближайшая нераскрытая ячейка дальше k-го найденного результата.
+   * Ячейки, пересекающие круг поиска, связны по соседству, поэтому ни одна из них не пропускается.
+   */
+  @Override
+  public List<Point> nearest(Point target, int k, double maxDistanceKm) {
+    return nearest(target, k, maxDistanceKm, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Поиск k ближайших соседей с высотой в заданном диапазоне. Ячейки без подходящих высот
+   * не просматриваются, но их соседи раскрываются, чтобы обход не терял связность.
+   */
+  @Override
+  public List<Point> nearest(Point target, int k, double maxDistanceKm, double minElevation, double maxElevation) {
+    if (count == 0 || k <= 0 || !(maxDistanceKm >= 0)) {
+      return new ArrayList<>();
+    }
+    long start = QueryMetrics.start();
+    boolean filterElevation = !SpatialIndex.isUnbounded(minElevation, maxElevation);
+    double latitude = target.getX();
+    double longitude = target.getY();
+    List<Rectangle> window = GeodesicWindow.around(latitude, longitude, maxDistanceKm);
+
+    // Найденные точки, на вершине - самая дальняя
+    PriorityQueue<Hit> hits = new PriorityQueue<>((a, b) -> Double.compare(b.distance, a.distance));
+    PriorityQueue<CellCandidate> queue = new PriorityQueue<>();
+    BitSet seen = new BitSet(counts.length);
+    int first = cellOf(latitude, longitude);
+    seen.set(first);
+    queue.add(new CellCandidate(first, 0));
+    while (!queue.isEmpty()) {
+      CellCandidate candidate = queue.poll();
+      double bound = hits.size() == k ? hits.peek().distance : maxDistanceKm;
+      if (candidate.distance > bound) {
+        break;
+      }
+
+      int cell = candidate.cell;
+      int size = counts[cell];
+      if (size > 0 && (!filterElevation || overlapsElevation(cell, minElevation, maxElevation))) {
+        QueryMetrics.increment(Counter.LEAF_NODES);
+        QueryMetrics.add(Counter.CANDIDATES, size);
+        double[] lat = latitudes[cell];
+        double[] lon = longitudes[cell];
+        double[] elevation = elevations[cell];
+        for (int i = 0; i < size; i++) {
+          if (filterElevation && !(elevation[i] >= minElevation && elevation[i] <= maxElevation)) {
+            continue;
+          }
+          double distance = Point.distance(latitude, longitude, lat[i], lon[i]);
+          if (distance <= maxDistanceKm && (hits.size() < k || distance < hits.peek().distance)) {
+            hits.add(new Hit(cell, i, distance));
+            if (hits.size() > k) {
+              hits.poll();
+            }
+          }
+        }
+      }
+
+      int row = cell / columns;
+      int column = cell % columns;
+      if (row > 0) {
+        enqueue(queue, seen, window, latitude, longitude, maxDistanceKm, row - 1, column);
+      }
+      if (row < rows - 1) {
+        enqueue(queue, seen, window, latitude, longitude, maxDistanceKm, row + 1, column);
+      }
+      enqueue(queue, seen, window, latitude, longitude, maxDistanceKm, row, column == 0 ? columns - 1 : column - 1);
+      enqueue(queue, seen, window, latitude, longitude, maxDistanceKm, row, column == columns - 1 ? 0 : column + 1);
+    }
+
+    Point[] result = new Point[hits.size()];
+    for (int i = result.length - 1; i >= 0; i--) {
+      Hit hit = hits.poll();
+      result[i] = point(hit.cell, hit.position);
+    }
+    QueryMetrics.record(Stage.TREE, start);
+    return new ArrayList<>(Arrays.asList(result));
+  }
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+  @Override
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Размер ячейки сетки.
+   *
+   * @return размер ячейки в градусах.
+   */
+  public double getCellDegrees() {
+    return cellDegrees;
+  }
+
+  private void enqueue(PriorityQueue<CellCandidate> queue, BitSet seen, List<Rectangle> window,
+                       double latitude, double longitude, double maxDistanceKm, int row, int column) {
+    int cell = row * columns + column;
+    if (seen.get(cell)) {
+      return;
+    }
+    seen.set(cell);
+    double minLatitude = cellMinLatitude(row);
+    double minLongitude = cellMinLongitude(column);
+    double maxLatitude = cellMaxLatitude(row);
+    double maxLongitude = cellMaxLongitude(column);
+    if (!GeodesicWindow.intersects(window, minLatitude, minLongitude, maxLatitude, maxLongitude)) {
+      return;
+    }
+    QueryMetrics.increment(Counter.MBR_TESTS);
+    double distance = Geometry.minDistance(latitude, longitude, minLatitude, minLongitude, maxLatitude, maxLongitude);
+    if (distance <= maxDistanceKm) {
+      queue.add(new CellCandidate(cell, distance));
+    }
+  }
+
+  private boolean overlapsElevation(int cell, double minElevation, double maxElevation) {
+    return minElevations[cell] <= maxElevation && maxElevations[cell] >= minElevation;
+  }
+
+  private Point point(int cell, int position) {
+    return new Point(latitudes[cell][position], longitudes[cell][position], seeks[cell][position],
+        elevations[cell][position]);
+  }
+
+  private double minDistance(double latitude, double longitude, int row, int column) {
+    QueryMetrics.increment(Counter.MBR_TESTS);
+    return Geometry.minDistance(latitude, longitude,
+        cellMinLatitude(row), cellMinLongitude(column), cellMaxLatitude(row), cellMaxLongitude(column));
+  }
+
+  private double cellMinLatitude(int row) {
+    return row * cellDegrees - 90;
+  }
+
+  private double cellMaxLatitude(int row) {
+    return Math.min(90, (row + 1) * cellDegrees - 90);
+  }
+
+  private double cellMinLongitude(int column) {
+    return column * cellDegrees - 180;
+  }
+
+  private double cellMaxLongitude(int column) {
+    return Math.min(180, (column + 1) * cellDegrees - 180);
+  }
+
+  private int rowOf(double latitude) {
+    return Math.max(0, Math.min(rows - 1, (int) Math.floor((latitude + 90) / cellDegrees)));
+  }
+
+  private int columnOf(double longitude) {
+    return Math.max(0, Math.min(columns - 1, (int) Math.floor((longitude + 180) / cellDegrees)));
+  }
+
+  private int cellOf(double latitude, double longitude) {
+    return rowOf(latitude) * columns + columnOf(longitude);
+  }
+
+  private void ensureCapacity(int cell, int capacity) {
+    double[] lat = latitudes[cell];
+    if (lat != null && lat.length >= capacity) {
+      return;
+    }
+    int length = lat == null ? Math.max(INITIAL_CAPACITY, capacity) : Math.max(lat.length * 2, capacity);
+    latitudes[cell] = lat == null ? new double[length] : Arrays.copyOf(lat, length);
+    longitudes[cell] = longitudes[cell] == null ? new double[length] : Arrays.copyOf(longitudes[cell], length);
+    seeks[cell] = seeks[cell] == null ? new long[length] : Arrays.copyOf(seeks[cell], length);
+    elevations[cell] = elevations[cell] == null ? new double[length] : Arrays.copyOf(elevations[cell], length);
+  }
+
+  private void put(int cell, Point point) {
+    int position = counts[cell]++;
+    latitudes[cell][position] = point.getX();
+    longitudes[cell][position] = point.getY();
+    seeks[cell][position] = point.getSeek();
+    double elevation = point.getElevation();
+    elevations[cell][position] = elevation;
+    if (!Double.isNaN(elevation)) {
+      minElevations[cell] = Math.min(minElevations[cell], elevation);
+      maxElevations[cell] = Math.max(maxElevations[cell], elevation);
+    }
+  }
+
+  /**
+   * Ячейка в очереди поиска ближайших соседей.
+   */
+  private static class CellCandidate implements Comparable<CellCandidate> {
+    private final int cell;
+    private final double distance;
+
+    CellCandidate(int cell, double distance) {
+      this.cell = cell;
+      this.distance = distance;
+    }
+
+    @Override
+    public int compareTo(CellCandidate other) {
+      return Double.compare(distance, other.distance);
+    }
+  }
+
+  /**
+   * Найденная точка: ячейка, позиция в ней и расстояние до цели.
+   */
+  private static class Hit {
+    private final int cell;
+    private final int position;
+    private final double distance;
+
+    Hit(int cell, int position, double distance) {
+      this.cell = cell;
+      this.position = position;
+      this.distance = distance;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package tree;
+
+import tree.geometry.Rectangle;
+
+/**
+ * Линейное разделение Гуттмана.
+ *
+ * Шаг 1:
+ * По каждой оси находятся элемент с наибольшей нижней границей и элемент с наименьшей верхней границей.
+ * Расстояние между ними нормируется на ширину всего набора по этой оси. Пара с наибольшим
+ * нормированным расстоянием становится основой двух групп.
+ *
+ * Шаг 2:
+ * Оставшиеся элементы распределяются за один проход в группу, которая потребует минимального
+ * увеличения площади.
+ */
+public class LinearSplitStrategy implements SplitStrategy {
+  @Override
+  public boolean[] split(Rectangle[] entries, int minKeysPerNode) {
+    boolean[] second = new boolean[entries.length];
+    boolean[] assigned = new boolean[entries.length];
+
+    // Шаг 1
+    int[] seeds = pickSeeds(entries);
+    assigned[seeds[0]] = true;
+    assigned[seeds[1]] = true;
+    second[seeds[1]] = true;
+
+    Rectangle e1 = copy(entries[seeds[0]]);
+    Rectangle e2 = copy(entries[seeds[1]]);
+    int e1Count = 1;
+    int e2Count = 1;
+
+    // Шаг 2
+    int remaining = entries.length - 2;
+    for (int i = 0; i < entries.length; i++) {
+      if (assigned[i]) {
+        continue;
+      }
+      Rectangle current = entries[i];
+
+      boolean toSecond;
+      if (e1Count + remaining == minKeysPerNode) {
+        toSecond = false;
+      } else if (e2Count + remaining == minKeysPerNode) {
+        toSecond = true;
+      } else {
+        double leftEnlargementArea = e1.unionArea(current);
+        double rightEnlargementArea = e2.unionArea(current);
+        if (leftEnlargementArea != rightEnlargementArea) {
+          toSecond = leftEnlargementArea > rightEnlargementArea;
+        } else if (e1.area() != e2.area()) {
+          toSecond = e1.area() > e2.area();
+        } else {
+          toSecond = e1Count > e2Count;
+        }
+      }
+
+      assigned[i] = true;
+      second[i] = toSecond;
+      if (toSecond) {
+        e2.unionRectangle(current);
+        e2Count++;
+      } else {
+        e1.unionRectangle(current);
+        e1Count++;
+      }
+      remaining--;
+    }
+    return second;
+  }
+
+  /**
+   * Выбирает два начальных элемента с наибольшим нормированным разделением по одной из осей.
+   *
+   * @param entries - прямоугольники элементов.
+   * @return индексы двух начальных элементов.
+   */
+  private static int[] pickSeeds(Rectangle[] entries) {
+    double bestSeparation = Double.NEGATIVE_INFINITY;
+    int[] result = new int[] {0, 1};
+
+    for (int axis = 0; axis < 2; axis++) {
+      int highestLow = 0;
+      int lowestHigh = 0;
+      double minValue = Double.POSITIVE_INFINITY;
+      double maxValue = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < entries.length; i++) {
+        double low = low(entries[i], axis);
+        double high = high(entries[i], axis);
+        if (low > low(entries[highestLow], axis)) {
+          highestLow = i;
+        }
+        if (high < high(entries[lowestHigh], axis)) {
+          lowestHigh = i;
+        }
+        minValue = Math.min(minValue, low);
+        maxValue = Math.max(maxValue, high);
+      }
+
+      if (highestLow == lowestHigh) {
+        // Один и тот же элемент не может быть основой обеих групп
+        lowestHigh = highestLow == 0 ? 1 : 0;
+      }
+
+      double width = maxValue - minValue;
+      double separation = low(entries[highestLow], axis) - high(entries[lowestHigh], axis);
+      if (width > 0) {
+        separation /= width;
+      }
+
+      if (separation > bestSeparation) {
+        bestSeparation = separation;
+        result[0] = lowestHigh;
+        result[1] = highestLow;
+      }
+    }
+    return result;
+  }
+
+  private static double low(Rectangle rectangle, int axis) {
+    return axis == 0 ? rectangle.getMinX() : rectangle.getMinY();
+  }
+
+  private static double high(Rectangle rectangle, int axis) {
+    return axis == 0 ? rectangle.getMaxX() : rectangle.getMaxY();
+  }
+
+  private static Rectangle copy(Rectangle rectangle) {
+    return new Rectangle(rectangle.getMinX(), rectangle.getMinY(), rectangle.getMaxX(), rectangle.getMaxY());
+  }
+}
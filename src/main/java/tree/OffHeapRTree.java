@@ -0,0 +1,730 @@
+package tree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import tree.geometry.GeodesicWindow;
+import tree.geometry.Geometry;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+import tree.metrics.QueryMetrics;
+import tree.metrics.QueryMetrics.Counter;
+import tree.metrics.QueryMetrics.Stage;
+
+/**
+ * R-дерево, узлы которого хранятся вне кучи записями фиксированного размера.
+ *
+ * Запись узла: уровень (0 - лист) и количество элементов (int), затем maxKeysPerNode элементов:
+ * MBR (minX, minY, maxX, maxY), диапазон высот (minElevation, maxElevation) и ссылка (long) -
+ * номер дочернего узла или смещение строки для элемента листа. Точка листа - вырожденный MBR,
+ * точка без высоты хранится с пустым диапазоном высот. Записи лежат в страницах размером
+ * {@link #PAGE_BYTES}, выровненных по границе страницы памяти, и не пересекают границы страниц.
+ *
+ * Страницы - это отображенные в память участки временного файла: они не считаются ни в -Xmx,
+ * ни в -XX:MaxDirectMemorySize, вытесняются операционной системой как обычный page cache,
+ * поэтому дерево может быть больше кучи. Без каталога для временного файла страницы
+ * выделяются через ByteBuffer.allocateDirect и ограничены MaxDirectMemorySize.
+ * Сборщик мусора видит только массив страниц, а не узлы, прямоугольники и точки.
+ *
+ * Переполненный узел делится стратегией {@link SplitStrategy}; повторная вставка R*-дерева
+ * не выполняется. Чтение потокобезопасно, изменения не должны выполняться одновременно с поиском.
+ */
+public class OffHeapRTree implements SpatialIndex, AutoCloseable {
+  // Размер страницы хранилища, кратен размеру страницы памяти
+  private static final int PAGE_BYTES = 1 << 24;
+
+  // Заголовок записи узла: уровень и количество элементов
+  private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+  // Элемент узла: шесть double и ссылка
+  private static final int ENTRY_BYTES = 6 * Double.BYTES + Long.BYTES;
+
+  // Смещения полей внутри элемента
+  private static final int MIN_X = 0;
+  private static final int MIN_Y = 8;
+  private static final int MAX_X = 16;
+  private static final int MAX_Y = 24;
+  private static final int MIN_ELEVATION = 32;
+  private static final int MAX_ELEVATION = 40;
+  private static final int REF = 48;
+
+  // Максимальное и минимальное количество элементов узла
+  private final int maxKeysPerNode;
+  private final int minKeysPerNode;
+
+  // Стратегия разделения переполненных узлов
+  private final SplitStrategy splitStrategy;
+
+  // Размер записи узла и количество записей в странице
+  private final int nodeBytes;
+  private final int nodesPerPage;
+
+  // Временный файл страниц, null - страницы в direct буферах
+  private final Path file;
+  private final FileChannel channel;
+
+  private ByteBuffer[] pages = new ByteBuffer[16];
+  private int pageCount;
+  private int nodeCount;
+
+  // Корень дерева (-1 - дерево пустое) и количество уровней
+  private int root = -1;
+  private int height;
+
+  // Количество точек
+  private int count;
+
+  // Номер версии, увеличивается при каждом изменении дерева
+  private volatile long version;
+
+  /**
+   * Дерево со страницами во временном файле в каталоге java.io.tmpdir.
+   *
+   * @param maxKeysPerNode - максимальное количество элементов узла.
+   */
+  public OffHeapRTree(int maxKeysPerNode) {
+    this(maxKeysPerNode, new QuadraticSplitStrategy(), Path.of(System.getProperty("java.io.tmpdir")));
+  }
+
+  /**
+   * @param maxKeysPerNode - максимальное количество элементов узла.
+   * @param splitStrategy - стратегия разделения переполненных узлов.
+   * @param directory - каталог для временного файла страниц, null - страницы в direct буферах.
+   * @throws UncheckedIOException - если временный файл не удалось создать.
+   */
+  public OffHeapRTree(int maxKeysPerNode, SplitStrategy splitStrategy, Path directory) {
+    if (maxKeysPerNode < 2 || HEADER_BYTES + (long) maxKeysPerNode * ENTRY_BYTES > PAGE_BYTES) {
+      throw new IllegalArgumentException("Недопустимое количество элементов узла: " + maxKeysPerNode);
+    }
+    this.maxKeysPerNode = maxKeysPerNode;
+    this.minKeysPerNode = maxKeysPerNode / 2;
+    this.splitStrategy = splitStrategy;
+    this.nodeBytes = HEADER_BYTES + maxKeysPerNode * ENTRY_BYTES;
+    this.nodesPerPage = PAGE_BYTES / nodeBytes;
+    if (directory == null) {
+      this.file = null;
+      this.channel = null;
+      return;
+    }
+    try {
+      this.file = Files.createTempFile(directory, "rtree", ".pages");
+      this.file.toFile().deleteOnExit();
+      this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Добавляет точку. Спуск идет по пути наименьшего расширения MBR, переполненный лист
+   * делится, разделение при необходимости поднимается до корня.
+   *
+   * @param point - новая точка.
+   */
+  @Override
+  public void add(Point point) {
+    if (root < 0) {
+      root = allocateNode(0);
+      height = 1;
+    }
+    double x = point.getX();
+    double y = point.getY();
+    double elevation = point.getElevation();
+    double minElevation = Double.isNaN(elevation) ? Double.POSITIVE_INFINITY : elevation;
+    double maxElevation = Double.isNaN(elevation) ? Double.NEGATIVE_INFINITY : elevation;
+
+    int[] path = new int[height];
+    int[] slots = new int[height];
+    int node = root;
+    for (int depth = 0; depth < height - 1; depth++) {
+      path[depth] = node;
+      slots[depth] = chooseSubtree(node, x, y);
+      node = (int) ref(node, slots[depth]);
+    }
+
+    int split = insertEntry(node, x, y, x, y, minElevation, maxElevation, point.getSeek());
+    double[] bounds = new double[6];
+    for (int depth = height - 2; depth >= 0; depth--) {
+      int parent = path[depth];
+      nodeBounds(node, bounds);
+      writeEntry(parent, slots[depth], bounds, node);
+      if (split >= 0) {
+        nodeBounds(split, bounds);
+        split = insertEntry(parent, bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5], split);
+      }
+      node = parent;
+    }
+
+    if (split >= 0) {
+      int newRoot = allocateNode(height);
+      nodeBounds(root, bounds);
+      writeEntry(newRoot, 0, bounds, root);
+      nodeBounds(split, bounds);
+      writeEntry(newRoot, 1, bounds, split);
+      setSize(newRoot, 2);
+      root = newRoot;
+      height++;
+    }
+    count++;
+    version++;
+  }
+
+  /**
+   * Массовая загрузка методом Sort-Tile-Recursive, как в {@link RTree#bulkLoad(Collection)}.
+   * Элементы уровня хранятся в массивах примитивов, а сортируются ключи long из центра
+   * (float) и номера элемента, поэтому загрузка не создает объектов на каждую точку.
+   * Если дерево уже не пустое, точки добавляются по одной.
+   *
+   * @param points - загружаемые точки.
+   */
+  @Override
+  public void bulkLoad(Collection<Point> points) {
+    if (points.isEmpty()) {
+      return;
+    }
+    if (root >= 0) {
+      points.forEach(this::add);
+      return;
+    }
+
+    int size = points.size();
+    double[][] bounds = new double[6][size];
+    long[] refs = new long[size];
+    int i = 0;
+    for (Point point : points) {
+      double elevation = point.getElevation();
+      bounds[0][i] = point.getX();
+      bounds[1][i] = point.getY();
+      bounds[2][i] = point.getX();
+      bounds[3][i] = point.getY();
+      bounds[4][i] = Double.isNaN(elevation) ? Double.POSITIVE_INFINITY : elevation;
+      bounds[5][i] = Double.isNaN(elevation) ? Double.NEGATIVE_INFINITY : elevation;
+      refs[i] = point.getSeek();
+      i++;
+    }
+
+    int level = 0;
+    while (true) {
+      int nodes = packLevel(bounds, refs, size, level);
+      level++;
+      if (nodes == 1) {
+        break;
+      }
+      size = nodes;
+    }
+    root = (int) refs[0];
+    height = level;
+    count += points.size();
+    version++;
+  }
+
+  /**
+   * Упаковывает элементы одного уровня в узлы (один шаг STR). Массивы bounds и refs
+   * перезаписываются элементами следующего уровня: MBR созданных узлов и их номерами.
+   *
+   * @return количество созданных узлов.
+   */
+  private int packLevel(double[][] bounds, long[] refs, int size, int level) {
+    int nodes = (size + maxKeysPerNode - 1) / maxKeysPerNode;
+    int sliceCount = (int) Math.ceil(Math.sqrt(nodes));
+
+    long[] keys = new long[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = sortKey((bounds[0][i] + bounds[2][i]) / 2, i);
+    }
+    Arrays.sort(keys);
+    for (int slice = 0; slice < sliceCount; slice++) {
+      int from = (int) ((long) size * slice / sliceCount);
+      int to = (int) ((long) size * (slice + 1) / sliceCount);
+      for (int i = from; i < to; i++) {
+        int index = (int) keys[i];
+        keys[i] = sortKey((bounds[1][index] + bounds[3][index]) / 2, index);
+      }
+      Arrays.sort(keys, from, to);
+    }
+
+    // Каждый срез округляется вверх до целого числа узлов, поэтому узлов может быть на sliceCount больше
+    double[][] next = new double[6][nodes + sliceCount];
+    long[] nextRefs = new long[nodes + sliceCount];
+    double[] nodeBounds = new double[6];
+    int created = 0;
+    for (int slice = 0; slice < sliceCount; slice++) {
+      int from = (int) ((long) size * slice / sliceCount);
+      int to = (int) ((long) size * (slice + 1) / sliceCount);
+      int groupCount = (to - from + maxKeysPerNode - 1) / maxKeysPerNode;
+      for (int group = 0; group < groupCount; group++) {
+        int groupFrom = from + (int) ((long) (to - from) * group / groupCount);
+        int groupTo = from + (int) ((long) (to - from) * (group + 1) / groupCount);
+        int node = allocateNode(level);
+        for (int i = groupFrom; i < groupTo; i++) {
+          int index = (int) keys[i];
+          writeEntry(node, i - groupFrom, bounds[0][index], bounds[1][index], bounds[2][index], bounds[3][index],
+              bounds[4][index], bounds[5][index], refs[index]);
+        }
+        setSize(node, groupTo - groupFrom);
+        nodeBounds(node, nodeBounds);
+        for (int j = 0; j < 6; j++) {
+          next[j][created] = nodeBounds[j];
+        }
+        nextRefs[created] = node;
+        created++;
+      }
+    }
+    for (int j = 0; j < 6; j++) {
+      System.arraycopy(next[j], 0, bounds[j], 0, created);
+    }
+    System.arraycopy(nextRefs, 0, refs, 0, created);
+    return created;
+  }
+
+  /**
+   * Ключ сортировки: старшие 32 бита - координата во float с порядком как у int, младшие - номер элемента.
+   */
+  private static long sortKey(double value, int index) {
+    int bits = Float.floatToIntBits((float) value);
+    bits ^= (bits >> 31) & 0x7fffffff;
+    return ((long) bits << 32) | (index & 0xffffffffL);
+  }
+
+  @Override
+  public List<Point> range(Rectangle target) {
+    List<Point> result = new ArrayList<>();
+    range(target, point -> {
+      result.add(point);
+      return true;
+    });
+    return result;
+  }
+
+  @Override
+  public boolean range(Rectangle target, PointVisitor visitor) {
+    if (root < 0) {
+      return true;
+    }
+    long start = QueryMetrics.start();
+    boolean completed = range(root, target.getMinX(), target.getMinY(), target.getMaxX(), target.getMaxY(), visitor);
+    QueryMetrics.record(Stage.TREE, start);
+    return completed;
+  }
+
+  private boolean range(int node, double minX, double minY, double maxX, double maxY, PointVisitor visitor) {
+    ByteBuffer page = page(node);
+    int base = base(node);
+    boolean leaf = page.getInt(base) == 0;
+    int size = page.getInt(base + Integer.BYTES);
+    countVisit(leaf, size);
+    for (int i = 0; i < size; i++) {
+      int entry = base + HEADER_BYTES + i * ENTRY_BYTES;
+      if (!Geometry.intersects(minX, minY, maxX, maxY, page.getDouble(entry + MIN_X), page.getDouble(entry + MIN_Y),
+          page.getDouble(entry + MAX_X), page.getDouble(entry + MAX_Y))) {
+        continue;
+      }
+      if (leaf ? !visitor.visit(point(page, entry))
+          : !range((int) page.getLong(entry + REF), minX, minY, maxX, maxY, visitor)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public List<Point> within(Point target, double radiusKm) {
+    List<Point> result = new ArrayList<>();
+    within(target, radiusKm, point -> {
+      result.add(point);
+      return true;
+    });
+    return result;
+  }
+
+  @Override
+  public boolean within(Point target, double radiusKm, PointVisitor visitor) {
+    return within(target, radiusKm, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, visitor);
+  }
+
+  /**
+   * Обходит точки в пределах радиуса с высотой в заданном диапазоне, без упорядочивания.
+   * Поддерево отбрасывается по геодезическому окну, расстоянию до MBR и диапазону высот.
+   */
+  @Override
+  public boolean within(Point target, double radiusKm, double minElevation, double maxElevation,
+      PointVisitor visitor) {
+    if (root < 0 || !(radiusKm >= 0)) {
+      return true;
+    }
+    long start = QueryMetrics.start();
+    boolean completed = within(root, target, radiusKm, GeodesicWindow.around(target.getX(), target.getY(), radiusKm),
+        !SpatialIndex.isUnbounded(minElevation, maxElevation), minElevation, maxElevation, visitor);
+    QueryMetrics.record(Stage.TREE, start);
+    return completed;
+  }
+
+  private boolean within(int node, Point target, double radiusKm, List<Rectangle> window,
+      boolean filterElevation, double minElevation, double maxElevation, PointVisitor visitor) {
+    ByteBuffer page = page(node);
+    int base = base(node);
+    boolean leaf = page.getInt(base) == 0;
+    int size = page.getInt(base + Integer.BYTES);
+    countVisit(leaf, size);
+    for (int i = 0; i < size; i++) {
+      int entry = base + HEADER_BYTES + i * ENTRY_BYTES;
+      if (filterElevation && !overlapsElevation(page, entry, minElevation, maxElevation)) {
+        continue;
+      }
+      if (leaf) {
+        if (Point.distance(target.getX(), target.getY(), page.getDouble(entry + MIN_X),
+            page.getDouble(entry + MIN_Y)) <= radiusKm && !visitor.visit(point(page, entry))) {
+          return false;
+        }
+        continue;
+      }
+      double minX = page.getDouble(entry + MIN_X);
+      double minY = page.getDouble(entry + MIN_Y);
+      double maxX = page.getDouble(entry + MAX_X);
+      double maxY = page.getDouble(entry + MAX_Y);
+      if (GeodesicWindow.intersects(window, minX, minY, maxX, maxY)
+          && Geometry.minDistance(target.getX(), target.getY(), minX, minY, maxX, maxY) <= radiusKm
+          && !within((int) page.getLong(entry + REF), target, radiusKm, window,
+              filterElevation, minElevation, maxElevation, visitor)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public List<Point> nearest(Point target, int k, double maxDistanceKm) {
+    return nearest(target, k, maxDistanceKm, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Поиск k ближайших соседей методом best-first, как в {@link RTree#nearest(Point, int, double)}.
+   */
+  @Override
+  public List<Point> nearest(Point target, int k, double maxDistanceKm, double minElevation, double maxElevation) {
+    List<Point> result = new ArrayList<>();
+    if (root < 0 || k <= 0) {
+      return result;
+    }
+
+    long start = QueryMetrics.start();
+    boolean filterElevation = !SpatialIndex.isUnbounded(minElevation, maxElevation);
+    double latitude = target.getX();
+    double longitude = target.getY();
+    List<Rectangle> window = GeodesicWindow.around(latitude, longitude, maxDistanceKm);
+    PriorityQueue<Candidate> queue = new PriorityQueue<>();
+    queue.add(new Candidate(root, null, 0));
+    while (!queue.isEmpty()) {
+      Candidate candidate = queue.poll();
+      if (candidate.point != null) {
+        result.add(candidate.point);
+        if (result.size() == k) {
+          break;
+        }
+        continue;
+      }
+
+      ByteBuffer page = page(candidate.node);
+      int base = base(candidate.node);
+      boolean leaf = page.getInt(base) == 0;
+      int size = page.getInt(base + Integer.BYTES);
+      countVisit(leaf, size);
+      for (int i = 0; i < size; i++) {
+        int entry = base + HEADER_BYTES + i * ENTRY_BYTES;
+        if (filterElevation && !overlapsElevation(page, entry, minElevation, maxElevation)) {
+          continue;
+        }
+        double minX = page.getDouble(entry + MIN_X);
+        double minY = page.getDouble(entry + MIN_Y);
+        if (leaf) {
+          double distance = Point.distance(latitude, longitude, minX, minY);
+          if (distance <= maxDistanceKm) {
+            queue.add(new Candidate(-1, point(page, entry), distance));
+          }
+          continue;
+        }
+        double maxX = page.getDouble(entry + MAX_X);
+        double maxY = page.getDouble(entry + MAX_Y);
+        if (!GeodesicWindow.intersects(window, minX, minY, maxX, maxY)) {
+          continue;
+        }
+        double distance = Geometry.minDistance(latitude, longitude, minX, minY, maxX, maxY);
+        if (distance <= maxDistanceKm) {
+          queue.add(new Candidate((int) page.getLong(entry + REF), null, distance));
+        }
+      }
+    }
+    QueryMetrics.record(Stage.TREE, start);
+    return result;
+  }
+
+  /**
+   * Элемент очереди поиска ближайших соседей: узел или найденная точка.
+   */
+  private static class Candidate implements Comparable<Candidate> {
+    private final int node;
+    private final Point point;
+    private final double distance;
+
+    Candidate(int node, Point point, double distance) {
+      this.node = node;
+      this.point = point;
+      this.distance = distance;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      return Double.compare(distance, other.distance);
+    }
+  }
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+  @Override
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Объем памяти вне кучи, занятый страницами.
+   *
+   * @return размер в байтах.
+   */
+  public long getAllocatedBytes() {
+    return (long) pageCount * PAGE_BYTES;
+  }
+
+  /**
+   * Освобождает хранилище: закрывает и удаляет временный файл. Отображенные страницы
+   * освобождаются операционной системой после сборки их буферов. После закрытия дерево
+   * использовать нельзя.
+   *
+   * @throws IOException - в случае ошибки закрытия или удаления файла.
+   */
+  @Override
+  public void close() throws IOException {
+    pages = new ByteBuffer[0];
+    pageCount = 0;
+    nodeCount = 0;
+    root = -1;
+    count = 0;
+    if (channel != null) {
+      channel.close();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Выбирает элемент, MBR которого меньше всего расширится при добавлении точки,
+   * при равенстве - с меньшей площадью.
+   */
+  private int chooseSubtree(int node, double x, double y) {
+    ByteBuffer page = page(node);
+    int base = base(node);
+    int size = page.getInt(base + Integer.BYTES);
+    int best = 0;
+    double bestEnlargement = Double.POSITIVE_INFINITY;
+    double bestArea = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < size; i++) {
+      int entry = base + HEADER_BYTES + i * ENTRY_BYTES;
+      double minX = page.getDouble(entry + MIN_X);
+      double minY = page.getDouble(entry + MIN_Y);
+      double maxX = page.getDouble(entry + MAX_X);
+      double maxY = page.getDouble(entry + MAX_Y);
+      double enlargement = Geometry.enlargement(minX, minY, maxX, maxY, x, y, x, y);
+      if (enlargement > bestEnlargement) {
+        continue;
+      }
+      double area = Geometry.area(minX, minY, maxX, maxY);
+      if (enlargement < bestEnlargement || area < bestArea) {
+        best = i;
+        bestEnlargement = enlargement;
+        bestArea = area;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Добавляет элемент в узел. Если узел заполнен, элементы узла вместе с новым
+   * делятся стратегией разделения между узлом и новым узлом того же уровня.
+   *
+   * @return номер нового узла или -1, если разделения не было.
+   */
+  private int insertEntry(int node, double minX, double minY, double maxX, double maxY,
+      double minElevation, double maxElevation, long ref) {
+    int size = size(node);
+    if (size < maxKeysPerNode) {
+      writeEntry(node, size, minX, minY, maxX, maxY, minElevation, maxElevation, ref);
+      setSize(node, size + 1);
+      return -1;
+    }
+
+    int total = size + 1;
+    double[][] entries = new double[6][total];
+    long[] refs = new long[total];
+    Rectangle[] rectangles = new Rectangle[total];
+    ByteBuffer page = page(node);
+    for (int i = 0; i < size; i++) {
+      int entry = entryOffset(node, i);
+      for (int j = 0; j < 6; j++) {
+        entries[j][i] = page.getDouble(entry + j * Double.BYTES);
+      }
+      refs[i] = page.getLong(entry + REF);
+    }
+    entries[0][size] = minX;
+    entries[1][size] = minY;
+    entries[2][size] = maxX;
+    entries[3][size] = maxY;
+    entries[4][size] = minElevation;
+    entries[5][size] = maxElevation;
+    refs[size] = ref;
+    for (int i = 0; i < total; i++) {
+      rectangles[i] = new Rectangle(entries[0][i], entries[1][i], entries[2][i], entries[3][i]);
+    }
+
+    boolean[] second = splitStrategy.split(rectangles, minKeysPerNode);
+    int sibling = allocateNode(level(node));
+    int first = 0;
+    int other = 0;
+    for (int i = 0; i < total; i++) {
+      int target = second[i] ? sibling : node;
+      int slot = second[i] ? other++ : first++;
+      writeEntry(target, slot, entries[0][i], entries[1][i], entries[2][i], entries[3][i],
+          entries[4][i], entries[5][i], refs[i]);
+    }
+    setSize(node, first);
+    setSize(sibling, other);
+    return sibling;
+  }
+
+  /**
+   * Считает MBR и диапазон высот всех элементов узла.
+   *
+   * @param bounds - массив из шести значений для результата.
+   */
+  private void nodeBounds(int node, double[] bounds) {
+    ByteBuffer page = page(node);
+    int size = size(node);
+    bounds[0] = Double.POSITIVE_INFINITY;
+    bounds[1] = Double.POSITIVE_INFINITY;
+    bounds[2] = Double.NEGATIVE_INFINITY;
+    bounds[3] = Double.NEGATIVE_INFINITY;
+    bounds[4] = Double.POSITIVE_INFINITY;
+    bounds[5] = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < size; i++) {
+      int entry = entryOffset(node, i);
+      bounds[0] = Math.min(bounds[0], page.getDouble(entry + MIN_X));
+      bounds[1] = Math.min(bounds[1], page.getDouble(entry + MIN_Y));
+      bounds[2] = Math.max(bounds[2], page.getDouble(entry + MAX_X));
+      bounds[3] = Math.max(bounds[3], page.getDouble(entry + MAX_Y));
+      bounds[4] = Math.min(bounds[4], page.getDouble(entry + MIN_ELEVATION));
+      bounds[5] = Math.max(bounds[5], page.getDouble(entry + MAX_ELEVATION));
+    }
+  }
+
+  private static boolean overlapsElevation(ByteBuffer page, int entry, double minElevation, double maxElevation) {
+    return page.getDouble(entry + MIN_ELEVATION) <= maxElevation && page.getDouble(entry + MAX_ELEVATION) >= minElevation;
+  }
+
+  private static Point point(ByteBuffer page, int entry) {
+    double minElevation = page.getDouble(entry + MIN_ELEVATION);
+    return new Point(page.getDouble(entry + MIN_X), page.getDouble(entry + MIN_Y), page.getLong(entry + REF),
+        minElevation <= page.getDouble(entry + MAX_ELEVATION) ? minElevation : Double.NaN);
+  }
+
+  private static void countVisit(boolean leaf, int size) {
+    if (leaf) {
+      QueryMetrics.increment(Counter.LEAF_NODES);
+      QueryMetrics.add(Counter.CANDIDATES, size);
+    } else {
+      QueryMetrics.increment(Counter.INTERNAL_NODES);
+      QueryMetrics.add(Counter.MBR_TESTS, size);
+    }
+  }
+
+  private int allocateNode(int level) {
+    if (nodeCount == pageCount * nodesPerPage) {
+      addPage();
+    }
+    int node = nodeCount++;
+    ByteBuffer page = page(node);
+    int base = base(node);
+    page.putInt(base, level);
+    page.putInt(base + Integer.BYTES, 0);
+    return node;
+  }
+
+  private void addPage() {
+    ByteBuffer page;
+    try {
+      page = channel == null
+          ? ByteBuffer.allocateDirect(PAGE_BYTES)
+          : channel.map(FileChannel.MapMode.READ_WRITE, (long) pageCount * PAGE_BYTES, PAGE_BYTES);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (pageCount == pages.length) {
+      pages = Arrays.copyOf(pages, pageCount * 2);
+    }
+    pages[pageCount++] = page.order(ByteOrder.nativeOrder());
+  }
+
+  private ByteBuffer page(int node) {
+    return pages[node / nodesPerPage];
+  }
+
+  private int base(int node) {
+    return (node % nodesPerPage) * nodeBytes;
+  }
+
+  private int entryOffset(int node, int index) {
+    return base(node) + HEADER_BYTES + index * ENTRY_BYTES;
+  }
+
+  private int level(int node) {
+    return page(node).getInt(base(node));
+  }
+
+  private int size(int node) {
+    return page(node).getInt(base(node) + Integer.BYTES);
+  }
+
+  private void setSize(int node, int size) {
+    page(node).putInt(base(node) + Integer.BYTES, size);
+  }
+
+  private long ref(int node, int index) {
+    return page(node).getLong(entryOffset(node, index) + REF);
+  }
+
+  private void writeEntry(int node, int index, double[] bounds, long ref) {
+    writeEntry(node, index, bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5], ref);
+  }
+
+  private void writeEntry(int node, int index, double minX, double minY, double maxX, double maxY,
+      double minElevation, double maxElevation, long ref) {
+    ByteBuffer page = page(node);
+    int entry = entryOffset(node, index);
+    page.putDouble(entry + MIN_X, minX);
+    page.putDouble(entry + MIN_Y, minY);
+    page.putDouble(entry + MAX_X, maxX);
+    page.putDouble(entry + MAX_Y, maxY);
+    page.putDouble(entry + MIN_ELEVATION, minElevation);
+    page.putDouble(entry + MAX_ELEVATION, maxElevation);
+    page.putLong(entry + REF, ref);
+  }
+}
@@ -0,0 +1,645 @@
+package tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.Getter;
+import tree.geometry.GeodesicWindow;
+import tree.geometry.Geometry;
+import tree.geometry.LeafKernel;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+import tree.geometry.TrigCoordinates;
+import tree.metrics.QueryMetrics;
+import tree.metrics.QueryMetrics.Counter;
+import tree.metrics.QueryMetrics.Stage;
+
+/**
+ * Неизменяемое компактное представление R-дерева.
+ * Узлы хранятся в порядке обхода в ширину в параллельных массивах примитивов,
+ * потомки любого узла лежат в массивах подряд. Все листья находятся на одном уровне,
+ * поэтому занимают последний непрерывный участок массивов узлов, начиная с leafStart.
+ * Точки листьев хранятся в массивах lat, lon и seek, высоты точек - в массиве elevation,
+ * диапазоны высот узлов - в массивах minElevation и maxElevation, если дерево индексировало
+ * высоту (иначе эти массивы пусты).
+ * Проверки окна и расстояний для всех потомков узла выполняются пакетно через {@link LeafKernel}.
+ * Создается методом {@link RTree#freeze()} (массивы в куче) или методом {@link #read(FileChannel, long)}
+ * (массивы - отображенные в память участки файла без копирования); используется как индекс
+ * для поиска, изменять его нельзя. Поиск потокобезопасен: буферы читаются только по абсолютному индексу.
+ */
+@Getter(AccessLevel.PACKAGE)
+public class PackedRTree implements SpatialIndex {
+  // Размер заголовка сериализованного дерева в байтах
+  private static final int HEADER_BYTES = 5 * Integer.BYTES;
+
+  // Размер блока, которым массивы записываются в файл
+  private static final int IO_CHUNK_BYTES = 1 << 24;
+
+  // MBR узлов (X - широта, Y - долгота)
+  private final DoubleBuffer minX;
+  private final DoubleBuffer minY;
+  private final DoubleBuffer maxX;
+  private final DoubleBuffer maxY;
+
+  // Индекс первого потомка: узла для внутренних узлов, точки для листьев
+  private final IntBuffer childOffset;
+
+  // Количество потомков
+  private final IntBuffer childCount;
+
+  // Индекс первого листа
+  private final int leafStart;
+
+  // Данные точек
+  private final DoubleBuffer lat;
+  private final DoubleBuffer lon;
+  private final LongBuffer seek;
+
+  // Высоты точек, пустой буфер - высота не индексировалась
+  private final DoubleBuffer elevation;
+
+  // Диапазоны высот узлов, пустые буферы - высота не индексировалась.
+  // У поддерева без точек с высотой minElevation > maxElevation
+  private final DoubleBuffer minElevation;
+  private final DoubleBuffer maxElevation;
+
+  // Максимальное количество потомков узла в исходном дереве
+  private final int maxKeysPerNode;
+
+  // Наибольшее фактическое количество потомков узла, размер буферов пакетных операций
+  @Getter(AccessLevel.NONE)
+  private final int maxChildCount;
+
+  // Синусы и косинусы координат точек, считаются при первом поиске ближайших соседей
+  @Getter(AccessLevel.NONE)
+  private volatile TrigCoordinates trig;
+
+  PackedRTree(int maxKeysPerNode, DoubleBuffer minX, DoubleBuffer minY, DoubleBuffer maxX, DoubleBuffer maxY,
+              IntBuffer childOffset, IntBuffer childCount, int leafStart,
+              DoubleBuffer lat, DoubleBuffer lon, LongBuffer seek, DoubleBuffer elevation,
+              DoubleBuffer minElevation, DoubleBuffer maxElevation) {
+    this.minX = minX;
+    this.minY = minY;
+    this.maxX = maxX;
+    this.maxY = maxY;
+    this.childOffset = childOffset;
+    this.childCount = childCount;
+    this.leafStart = leafStart;
+    this.lat = lat;
+    this.lon = lon;
+    this.seek = seek;
+    this.elevation = elevation;
+    this.minElevation = minElevation;
+    this.maxElevation = maxElevation;
+    this.maxKeysPerNode = maxKeysPerNode;
+    int max = 0;
+    for (int i = 0; i < childCount.limit(); i++) {
+      max = Math.max(max, childCount.get(i));
+    }
+    this.maxChildCount = max;
+  }
+
+  /**
+   * Дерево неизменяемо.
+   *
+   * @throws UnsupportedOperationException - всегда.
+   */
+  @Override
+  public void add(Point point) {
+    throw new UnsupportedOperationException("PackedRTree не поддерживает изменение");
+  }
+
+  /**
+   * Дерево неизменяемо.
+   *
+   * @throws UnsupportedOperationException - всегда.
+   */
+  @Override
+  public void bulkLoad(Collection<Point> points) {
+    throw new UnsupportedOperationException("PackedRTree не поддерживает изменение");
+  }
+
+  /**
+   * Количество точек в дереве.
+   *
+   * @return количество точек.
+   */
+  @Override
+  public int size() {
+    return lat.limit();
+  }
+
+  /**
+   * Дерево неизменяемо, поэтому версия всегда одна.
+   *
+   * @return 0.
+   */
+  @Override
+  public long getVersion() {
+    return 0;
+  }
+
+  /**
+   * Записывает дерево в канал начиная с текущей позиции.
+   * Формат: maxKeysPerNode, количество узлов, количество точек, leafStart, количество высот (int),
+   * затем массивы minX, minY, maxX, maxY, childOffset, childCount, lat, lon, seek, elevation
+   * и, если высота индексировалась, minElevation и maxElevation узлов.
+   * Все значения записываются в порядке байт little-endian.
+   *
+   * @param channel - канал для записи.
+   * @throws IOException - в случае ошибки записи.
+   */
+  public void write(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(maxKeysPerNode).putInt(minX.limit()).putInt(lat.limit()).putInt(leafStart)
+        .putInt(elevation.limit()).flip();
+    writeFully(channel, header);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(IO_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    for (DoubleBuffer array : new DoubleBuffer[] {minX, minY, maxX, maxY}) {
+      writeDoubles(channel, buffer, array);
+    }
+    for (IntBuffer array : new IntBuffer[] {childOffset, childCount}) {
+      for (int i = 0; i < array.limit(); ) {
+        int n = Math.min(array.limit() - i, IO_CHUNK_BYTES / Integer.BYTES);
+        buffer.clear();
+        buffer.asIntBuffer().put(array.slice(i, n));
+        buffer.limit(n * Integer.BYTES);
+        writeFully(channel, buffer);
+        i += n;
+      }
+    }
+    writeDoubles(channel, buffer, lat);
+    writeDoubles(channel, buffer, lon);
+    for (int i = 0; i < seek.limit(); ) {
+      int n = Math.min(seek.limit() - i, IO_CHUNK_BYTES / Long.BYTES);
+      buffer.clear();
+      buffer.asLongBuffer().put(seek.slice(i, n));
+      buffer.limit(n * Long.BYTES);
+      writeFully(channel, buffer);
+      i += n;
+    }
+    writeDoubles(channel, buffer, elevation);
+    writeDoubles(channel, buffer, minElevation);
+    writeDoubles(channel, buffer, maxElevation);
+  }
+
+  /**
+   * Читает дерево, записанное методом {@link #write(FileChannel)}. Массивы не копируются:
+   * каждый из них - отображенный в память участок файла только для чтения, страницы которого
+   * подгружаются при первом обращении. Отображение остается действительным после закрытия канала.
+   *
+   * @param channel - канал для чтения.
+   * @param position - позиция начала дерева в канале.
+   * @return прочитанное дерево.
+   * @throws IOException - в случае ошибки чтения, если данные обрезаны или массив больше 2 ГБ.
+   */
+  public static PackedRTree read(FileChannel channel, long position) throws IOException {
+    if (channel.size() - position < HEADER_BYTES) {
+      throw new IOException("Файл индекса обрезан");
+    }
+    ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, position, HEADER_BYTES)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    int maxKeysPerNode = header.getInt();
+    int nodeCount = header.getInt();
+    int pointCount = header.getInt();
+    int leafStart = header.getInt();
+    int elevationCount = header.getInt();
+
+    long expected = HEADER_BYTES + (long) nodeCount * (4 * Double.BYTES + 2 * Integer.BYTES)
+        + (long) pointCount * (2 * Double.BYTES + Long.BYTES) + (long) elevationCount * Double.BYTES
+        + (elevationCount > 0 ? (long) nodeCount * 2 * Double.BYTES : 0);
+    if (nodeCount < 0 || pointCount < 0 || (elevationCount != 0 && elevationCount != pointCount)
+        || channel.size() - position != expected) {
+      throw new IOException("Файл индекса поврежден");
+    }
+
+    long offset = position + HEADER_BYTES;
+    DoubleBuffer[] bounds = new DoubleBuffer[4];
+    for (int i = 0; i < bounds.length; i++) {
+      bounds[i] = map(channel, offset, nodeCount, Double.BYTES).asDoubleBuffer();
+      offset += (long) nodeCount * Double.BYTES;
+    }
+    IntBuffer childOffset = map(channel, offset, nodeCount, Integer.BYTES).asIntBuffer();
+    offset += (long) nodeCount * Integer.BYTES;
+    IntBuffer childCount = map(channel, offset, nodeCount, Integer.BYTES).asIntBuffer();
+    offset += (long) nodeCount * Integer.BYTES;
+    checkStructure(nodeCount, pointCount, leafStart, childOffset, childCount);
+    DoubleBuffer lat = map(channel, offset, pointCount, Double.BYTES).asDoubleBuffer();
+    offset += (long) pointCount * Double.BYTES;
+    DoubleBuffer lon = map(channel, offset, pointCount, Double.BYTES).asDoubleBuffer();
+    offset += (long) pointCount * Double.BYTES;
+    LongBuffer seek = map(channel, offset, pointCount, Long.BYTES).asLongBuffer();
+    offset += (long) pointCount * Long.BYTES;
+    DoubleBuffer elevation = map(channel, offset, elevationCount, Double.BYTES).asDoubleBuffer();
+    offset += (long) elevationCount * Double.BYTES;
+    int nodeElevationCount = elevationCount > 0 ? nodeCount : 0;
+    DoubleBuffer minElevation = map(channel, offset, nodeElevationCount, Double.BYTES).asDoubleBuffer();
+    offset += (long) nodeElevationCount * Double.BYTES;
+    DoubleBuffer maxElevation = map(channel, offset, nodeElevationCount, Double.BYTES).asDoubleBuffer();
+
+    return new PackedRTree(maxKeysPerNode, bounds[0], bounds[1], bounds[2], bounds[3],
+        childOffset, childCount, leafStart, lat, lon, seek, elevation, minElevation, maxElevation);
+  }
+
+  /**
+   * Проверяет ссылки узлов: потомки внутреннего узла - узлы, лежащие после него (обход в ширину),
+   * потомки листа - точки. Контрольная сумма снимка покрывает только исходный файл, поэтому
+   * без этой проверки поврежденный файл правильного размера загрузился бы и ломал поиск.
+   */
+  private static void checkStructure(int nodeCount, int pointCount, int leafStart,
+                                     IntBuffer childOffset, IntBuffer childCount) throws IOException {
+    if (leafStart < 0 || leafStart > nodeCount) {
+      throw new IOException("Файл индекса поврежден: leafStart " + leafStart);
+    }
+    for (int node = 0; node < nodeCount; node++) {
+      long from = childOffset.get(node);
+      long to = from + childCount.get(node);
+      boolean valid = node >= leafStart
+          ? from >= 0 && from <= to && to <= pointCount
+          : from > node && from <= to && to <= nodeCount;
+      if (!valid) {
+        throw new IOException("Файл индекса поврежден: узел " + node);
+      }
+    }
+  }
+
+  /**
+   * Отображает в память участок из count значений размером bytes байт.
+   */
+  private static ByteBuffer map(FileChannel channel, long offset, int count, int bytes) throws IOException {
+    long length = (long) count * bytes;
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Массив индекса больше 2 ГБ не отображается в память");
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private Point point(int index) {
+    return new Point(lat.get(index), lon.get(index), seek.get(index),
+        elevation.limit() > 0 ? elevation.get(index) : Double.NaN);
+  }
+
+  private static void writeDoubles(FileChannel channel, ByteBuffer buffer, DoubleBuffer array) throws IOException {
+    for (int i = 0; i < array.limit(); ) {
+      int n = Math.min(array.limit() - i, IO_CHUNK_BYTES / Double.BYTES);
+      buffer.clear();
+      buffer.asDoubleBuffer().put(array.slice(i, n));
+      buffer.limit(n * Double.BYTES);
+      writeFully(channel, buffer);
+      i += n;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  @Override
+  public List<Point> range(Rectangle target) {
+    List<Point> result = new ArrayList<>();
+    range(target, point -> {
+      result.add(point);
+      return true;
+    });
+    return result;
+  }
+
+  /**
+   * Обходит все точки в пределах заданного прямоугольника. MBR потомков узла и точки листа
+   * проверяются пакетно.
+   *
+   * @param target - прямоугольник, в пределах которого нужно осуществлять поиск.
+   * @param visitor - посетитель найденных точек.
+   * @return {@code true}, если обход дошел до конца, {@code false} - если был прерван.
+   */
+  @Override
+  public boolean range(Rectangle target, PointVisitor visitor) {
+    if (minX.limit() == 0) {
+      return true;
+    }
+
+    double targetMinX = target.getMinX();
+    double targetMinY = target.getMinY();
+    double targetMaxX = target.getMaxX();
+    double targetMaxY = target.getMaxY();
+
+    long start = QueryMetrics.start();
+    LeafKernel kernel = LeafKernel.instance();
+    int[] hits = new int[maxChildCount];
+    int[] stack = new int[16];
+    int top = 0;
+    stack[top++] = 0;
+    boolean completed = true;
+    traversal:
+    while (top > 0) {
+      int node = stack[--top];
+      int from = childOffset.get(node);
+      int to = from + childCount.get(node);
+      if (node >= leafStart) {
+        QueryMetrics.increment(Counter.LEAF_NODES);
+        QueryMetrics.add(Counter.CANDIDATES, to - from);
+        int found = kernel.contained(lat, lon, from, to, targetMinX, targetMinY, targetMaxX, targetMaxY, hits);
+        for (int j = 0; j < found; j++) {
+          if (!visitor.visit(point(hits[j]))) {
+            completed = false;
+            break traversal;
+          }
+        }
+        continue;
+      }
+
+      QueryMetrics.increment(Counter.INTERNAL_NODES);
+      QueryMetrics.add(Counter.MBR_TESTS, to - from);
+      int found = kernel.intersecting(minX, minY, maxX, maxY, from, to,
+          targetMinX, targetMinY, targetMaxX, targetMaxY, hits);
+      if (top + found > stack.length) {
+        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + found));
+      }
+      // В обратном порядке, чтобы потомки обходились в порядке хранения
+      for (int j = found - 1; j >= 0; j--) {
+        stack[top++] = hits[j];
+      }
+    }
+    QueryMetrics.record(Stage.TREE, start);
+    return completed;
+  }
+
+  @Override
+  public List<Point> within(Point target, double radiusKm) {
+    List<Point> result = new ArrayList<>();
+    within(target, radiusKm, point -> {
+      result.add(point);
+      return true;
+    });
+    return result;
+  }
+
+  @Override
+  public boolean within(Point target, double radiusKm, PointVisitor visitor) {
+    return within(target, radiusKm, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, visitor);
+  }
+
+  /**
+   * Обходит точки в пределах радиуса от целевой точки с высотой в заданном диапазоне,
+   * аналогично {@link RTree#within(Point, double, double, double, PointVisitor)}.
+   * Расстояния до точек листа считаются пакетно через LeafKernel.
+   *
+   * @param target - целевая точка (X - широта, Y - долгота).
+   * @param radiusKm - радиус в километрах.
+   * @param minElevation - минимальная высота.
+   * @param maxElevation - максимальная высота.
+   * @param visitor - посетитель найденных точек.
+   * @return {@code true}, если обход дошел до конца, {@code false} - если был прерван.
+   */
+  @Override
+  public boolean within(Point target, double radiusKm, double minElevation, double maxElevation,
+                        PointVisitor visitor) {
+    if (minX.limit() == 0 || !(radiusKm >= 0)) {
+      return true;
+    }
+
+    long start = QueryMetrics.start();
+    boolean filterElevation = !SpatialIndex.isUnbounded(minElevation, maxElevation);
+    List<Rectangle> window = GeodesicWindow.around(target.getX(), target.getY(), radiusKm);
+    LeafKernel kernel = LeafKernel.instance();
+    TrigCoordinates trig = trig();
+    double targetLatRad = Math.toRadians(target.getX());
+    double targetLonRad = Math.toRadians(target.getY());
+    double targetSinLat = Math.sin(targetLatRad);
+    double targetCosLat = Math.cos(targetLatRad);
+    double targetSinLon = Math.sin(targetLonRad);
+    double targetCosLon = Math.cos(targetLonRad);
+    double maxHaversine = LeafKernel.haversineOf(radiusKm);
+    double[] haversines = new double[maxChildCount];
+
+    int[] stack = new int[16];
+    int top = 0;
+    stack[top++] = 0;
+    boolean completed = true;
+    traversal:
+    while (top > 0) {
+      int node = stack[--top];
+      int from = childOffset.get(node);
+      int to = from + childCount.get(node);
+      if (node >= leafStart) {
+        QueryMetrics.increment(Counter.LEAF_NODES);
+        QueryMetrics.add(Counter.CANDIDATES, to - from);
+        QueryMetrics.add(Counter.DISTANCE_CALLS, to - from);
+        kernel.haversine(trig, from, to, targetSinLat, targetCosLat, targetSinLon, targetCosLon, haversines);
+        for (int i = from; i < to; i++) {
+          if (haversines[i - from] <= maxHaversine
+              && (!filterElevation || matchesElevation(i, minElevation, maxElevation))
+              && !visitor.visit(point(i))) {
+            completed = false;
+            break traversal;
+          }
+        }
+        continue;
+      }
+
+      QueryMetrics.increment(Counter.INTERNAL_NODES);
+      QueryMetrics.add(Counter.MBR_TESTS, to - from);
+      for (int child = to - 1; child >= from; child--) {
+        if ((!filterElevation || overlapsElevation(child, minElevation, maxElevation))
+            && GeodesicWindow.intersects(window, minX.get(child), minY.get(child), maxX.get(child), maxY.get(child))
+            && Geometry.minDistance(target.getX(), target.getY(),
+                minX.get(child), minY.get(child), maxX.get(child), maxY.get(child)) <= radiusKm) {
+          if (top == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+          }
+          stack[top++] = child;
+        }
+      }
+    }
+    QueryMetrics.record(Stage.TREE, start);
+    return completed;
+  }
+
+  @Override
+  public List<Point> nearest(Point target, int k, double maxDistanceKm) {
+    return nearest(target, k, maxDistanceKm, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Поиск k ближайших соседей с высотой в заданном диапазоне методом best-first,
+   * аналогичный {@link RTree#nearest(Point, int, double, double, double)}.
+   *
+   * @param target - целевая точка (X - широта, Y - долгота).
+   * @param k - максимальное количество результатов.
+   * @param maxDistanceKm - максимальное расстояние до результата в километрах.
+   * @param minElevation - минимальная высота.
+   * @param maxElevation - максимальная высота.
+   * @return найденные точки в порядке возрастания расстояния.
+   */
+  @Override
+  public List<Point> nearest(Point target, int k, double maxDistanceKm, double minElevation, double maxElevation) {
+    List<Point> result = new ArrayList<>();
+    if (minX.limit() == 0 || k <= 0) {
+      return result;
+    }
+
+    double targetLat = target.getX();
+    double targetLon = target.getY();
+    long start = QueryMetrics.start();
+    boolean filterElevation = !SpatialIndex.isUnbounded(minElevation, maxElevation);
+    LeafKernel kernel = LeafKernel.instance();
+    TrigCoordinates trig = trig();
+    double targetLatRad = Math.toRadians(targetLat);
+    double targetLonRad = Math.toRadians(targetLon);
+    double targetSinLat = Math.sin(targetLatRad);
+    double targetCosLat = Math.cos(targetLatRad);
+    double targetSinLon = Math.sin(targetLonRad);
+    double targetCosLon = Math.cos(targetLonRad);
+    // Сравнение с радиусом идет по гаверсинусу, расстояние считается только для прошедших точек
+    double maxHaversine = LeafKernel.haversineOf(maxDistanceKm);
+    double[] haversines = new double[maxChildCount];
+    List<Rectangle> window = GeodesicWindow.around(targetLat, targetLon, maxDistanceKm);
+    CandidateHeap heap = new CandidateHeap();
+    heap.push(0, 0);
+    while (!heap.isEmpty()) {
+      int entry = heap.peekEntry();
+      heap.pop();
+      if (entry < 0) {
+        int point = -entry - 1;
+        result.add(point(point));
+        if (result.size() == k) {
+          break;
+        }
+        continue;
+      }
+
+      int from = childOffset.get(entry);
+      int to = from + childCount.get(entry);
+      if (entry >= leafStart) {
+        QueryMetrics.increment(Counter.LEAF_NODES);
+        QueryMetrics.add(Counter.CANDIDATES, to - from);
+        QueryMetrics.add(Counter.DISTANCE_CALLS, to - from);
+        kernel.haversine(trig, from, to, targetSinLat, targetCosLat, targetSinLon, targetCosLon, haversines);
+        for (int i = from; i < to; i++) {
+          double haversine = haversines[i - from];
+          if (haversine <= maxHaversine && (!filterElevation || matchesElevation(i, minElevation, maxElevation))) {
+            heap.push(LeafKernel.distance(haversine), -i - 1);
+          }
+        }
+        continue;
+      }
+
+      QueryMetrics.increment(Counter.INTERNAL_NODES);
+      QueryMetrics.add(Counter.MBR_TESTS, to - from);
+      for (int child = from; child < to; child++) {
+        if (filterElevation && !overlapsElevation(child, minElevation, maxElevation)) {
+          continue;
+        }
+        if (!GeodesicWindow.intersects(window, minX.get(child), minY.get(child), maxX.get(child), maxY.get(child))) {
+          continue;
+        }
+        double distance = Geometry.minDistance(targetLat, targetLon,
+            minX.get(child), minY.get(child), maxX.get(child), maxY.get(child));
+        if (distance <= maxDistanceKm) {
+          heap.push(distance, child);
+        }
+      }
+    }
+    QueryMetrics.record(Stage.TREE, start);
+    return result;
+  }
+
+  /**
+   * Может ли поддерево узла содержать точки с высотой в диапазоне. Без индексированной
+   * высоты в ограниченный диапазон не попадает ни одна точка.
+   */
+  private boolean overlapsElevation(int node, double min, double max) {
+    return minElevation.limit() > 0 && minElevation.get(node) <= max && maxElevation.get(node) >= min;
+  }
+
+  private boolean matchesElevation(int point, double min, double max) {
+    return elevation.limit() > 0 && elevation.get(point) >= min && elevation.get(point) <= max;
+  }
+
+  private TrigCoordinates trig() {
+    TrigCoordinates result = trig;
+    if (result == null) {
+      synchronized (this) {
+        result = trig;
+        if (result == null) {
+          result = new TrigCoordinates(lat, lon);
+          trig = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Двоичная куча кандидатов на примитивах. Неотрицательный элемент - индекс узла,
+   * отрицательный элемент (-i - 1) - индекс точки.
+   */
+  private static class CandidateHeap {
+    private double[] keys = new double[64];
+    private int[] entries = new int[64];
+    private int size;
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    int peekEntry() {
+      return entries[0];
+    }
+
+    void push(double key, int entry) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        entries = Arrays.copyOf(entries, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (keys[parent] <= key) {
+          break;
+        }
+        keys[i] = keys[parent];
+        entries[i] = entries[parent];
+        i = parent;
+      }
+      keys[i] = key;
+      entries[i] = entry;
+    }
+
+    void pop() {
+      size--;
+      double key = keys[size];
+      int entry = entries[size];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && keys[child + 1] < keys[child]) {
+          child++;
+        }
+        if (keys[child] >= key) {
+          break;
+        }
+        keys[i] = keys[child];
+        entries[i] = entries[child];
+        i = child;
+      }
+      keys[i] = key;
+      entries[i] = entry;
+    }
+  }
+}
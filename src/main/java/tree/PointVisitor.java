@@ -0,0 +1,17 @@
+package tree;
+
+import tree.geometry.Point;
+
+/**
+ * Обработчик точек, найденных при обходе дерева.
+ */
+@FunctionalInterface
+public interface PointVisitor {
+  /**
+   * Вызывается для каждой найденной точки.
+   *
+   * @param point - найденная точка.
+   * @return true - продолжить обход, false - остановить его.
+   */
+  boolean visit(Point point);
+}
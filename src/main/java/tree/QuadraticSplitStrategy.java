@@ -0,0 +1,119 @@
+package tree;
+
+import tree.geometry.Rectangle;
+
+/**
+ * Квадратичное разделение Гуттмана.
+ *
+ * Шаг 1:
+ * Выбираются два элемента 'e1' и 'e2', объединение которых дает наибольшую площадь.
+ *
+ * Шаг 2:
+ * Оставшиеся элементы проверяются один за другим и кладутся в e1 или e2, в зависимости от того,
+ * какая из групп потребует минимального увеличения площади.
+ */
+public class QuadraticSplitStrategy implements SplitStrategy {
+  @Override
+  public boolean[] split(Rectangle[] entries, int minKeysPerNode) {
+    boolean[] second = new boolean[entries.length];
+    boolean[] assigned = new boolean[entries.length];
+
+    // Шаг 1
+    int[] distantPairs = getDistantPairs(entries);
+    assigned[distantPairs[0]] = true;
+    assigned[distantPairs[1]] = true;
+    second[distantPairs[1]] = true;
+
+    Rectangle e1 = copy(entries[distantPairs[0]]);
+    Rectangle e2 = copy(entries[distantPairs[1]]);
+    int e1Count = 1;
+    int e2Count = 1;
+
+    // Шаг 2
+    int remaining = entries.length - 2;
+    for (int i = entries.length - 1; i >= 0 && remaining > 0; i--) {
+      if (assigned[i]) {
+        continue;
+      }
+      Rectangle current = entries[i];
+
+      double leftEnlargementArea = e1.unionArea(current);
+      double rightEnlargementArea = e2.unionArea(current);
+
+      boolean toSecond;
+      if (leftEnlargementArea == rightEnlargementArea) {
+        double leftArea = e1.area();
+        double rightArea = e2.area();
+
+        if (leftArea == rightArea) {
+          toSecond = e1Count >= e2Count;
+        } else {
+          toSecond = leftArea > rightArea;
+        }
+      } else {
+        toSecond = leftEnlargementArea > rightEnlargementArea;
+      }
+
+      assigned[i] = true;
+      second[i] = toSecond;
+      if (toSecond) {
+        e2.unionRectangle(current);
+        e2Count++;
+      } else {
+        e1.unionRectangle(current);
+        e1Count++;
+      }
+
+      remaining--;
+
+      //Впихиваем неназначенные никуда записи в e1 или e2, чтобы заполнить там оставшееся место из минимума элементов
+      if (e1Count == minKeysPerNode - remaining) {
+        assignRest(assigned, second, false);
+        break;
+      } else if (e2Count == minKeysPerNode - remaining) {
+        assignRest(assigned, second, true);
+        break;
+      }
+    }
+    return second;
+  }
+
+  /**
+   * Отправляет все неназначенные элементы в одну группу.
+   */
+  private static void assignRest(boolean[] assigned, boolean[] second, boolean toSecond) {
+    for (int i = 0; i < assigned.length; i++) {
+      if (!assigned[i]) {
+        assigned[i] = true;
+        second[i] = toSecond;
+      }
+    }
+  }
+
+  /**
+   * Находит самые удаленные друг от друга элементы.
+   *
+   * @param entries - прямоугольники элементов.
+   * @return индексы 2 самых удаленных друг от друга элементов.
+   */
+  private static int[] getDistantPairs(Rectangle[] entries) {
+    int[] result = new int[] {0, 1};
+
+    double maxArea = -1;
+    for (int i = 0; i < entries.length; i++) {
+      for (int j = i + 1; j < entries.length; j++) {
+        double currentArea = entries[i].unionArea(entries[j]);
+        if (currentArea > maxArea) {
+          result[0] = i;
+          result[1] = j;
+          maxArea = currentArea;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static Rectangle copy(Rectangle rectangle) {
+    return new Rectangle(rectangle.getMinX(), rectangle.getMinY(), rectangle.getMaxX(), rectangle.getMaxY());
+  }
+}
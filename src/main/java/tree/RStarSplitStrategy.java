@@ -0,0 +1,176 @@
+package tree;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import tree.geometry.Geometry;
+import tree.geometry.Rectangle;
+
+/**
+ * Разделение R*-дерева (Beckmann et al.).
+ *
+ * Шаг 1:
+ * Для каждой оси элементы сортируются по нижней и по верхней границе. Для всех допустимых
+ * распределений на две группы суммируются периметры групп. Выбирается ось с минимальной суммой.
+ *
+ * Шаг 2:
+ * Вдоль выбранной оси выбирается распределение с минимальным перекрытием групп,
+ * при равенстве - с минимальной суммарной площадью.
+ *
+ * При первом переполнении уровня часть элементов вставляется заново вместо разделения.
+ */
+public class RStarSplitStrategy implements SplitStrategy {
+  // Доля элементов для повторной вставки, рекомендованная авторами R*-дерева
+  private static final double DEFAULT_REINSERT_FRACTION = 0.3;
+
+  private final double reinsertFraction;
+
+  public RStarSplitStrategy() {
+    this(DEFAULT_REINSERT_FRACTION);
+  }
+
+  public RStarSplitStrategy(double reinsertFraction) {
+    this.reinsertFraction = reinsertFraction;
+  }
+
+  @Override
+  public double reinsertFraction() {
+    return reinsertFraction;
+  }
+
+  @Override
+  public boolean[] split(Rectangle[] entries, int minKeysPerNode) {
+    int minGroup = Math.max(1, minKeysPerNode);
+
+    // Шаг 1
+    Integer[][] bestSorts = null;
+    double bestMarginSum = Double.POSITIVE_INFINITY;
+    for (int axis = 0; axis < 2; axis++) {
+      Integer[][] sorts = sortByAxis(entries, axis);
+      double marginSum = 0;
+      for (Integer[] order : sorts) {
+        Bounds bounds = new Bounds(entries, order);
+        for (int k = minGroup; k <= entries.length - minGroup; k++) {
+          marginSum += bounds.prefixMargin(k) + bounds.suffixMargin(k);
+        }
+      }
+      if (marginSum < bestMarginSum) {
+        bestMarginSum = marginSum;
+        bestSorts = sorts;
+      }
+    }
+
+    // Шаг 2
+    Integer[] bestOrder = bestSorts[0];
+    int bestK = minGroup;
+    double bestOverlap = Double.POSITIVE_INFINITY;
+    double bestArea = Double.POSITIVE_INFINITY;
+    for (Integer[] order : bestSorts) {
+      Bounds bounds = new Bounds(entries, order);
+      for (int k = minGroup; k <= entries.length - minGroup; k++) {
+        double overlap = bounds.overlap(k);
+        double area = bounds.prefixArea(k) + bounds.suffixArea(k);
+        if (overlap < bestOverlap || (overlap == bestOverlap && area < bestArea)) {
+          bestOverlap = overlap;
+          bestArea = area;
+          bestOrder = order;
+          bestK = k;
+        }
+      }
+    }
+
+    boolean[] second = new boolean[entries.length];
+    for (int i = bestK; i < bestOrder.length; i++) {
+      second[bestOrder[i]] = true;
+    }
+    return second;
+  }
+
+  /**
+   * Сортирует индексы элементов по нижней и по верхней границе вдоль оси.
+   */
+  private static Integer[][] sortByAxis(Rectangle[] entries, int axis) {
+    Integer[] byLow = new Integer[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      byLow[i] = i;
+    }
+    Integer[] byHigh = byLow.clone();
+    Arrays.sort(byLow, Comparator.comparingDouble((Integer i) -> low(entries[i], axis))
+        .thenComparingDouble(i -> high(entries[i], axis)));
+    Arrays.sort(byHigh, Comparator.comparingDouble((Integer i) -> high(entries[i], axis))
+        .thenComparingDouble(i -> low(entries[i], axis)));
+    return new Integer[][] {byLow, byHigh};
+  }
+
+  private static double low(Rectangle rectangle, int axis) {
+    return axis == 0 ? rectangle.getMinX() : rectangle.getMinY();
+  }
+
+  private static double high(Rectangle rectangle, int axis) {
+    return axis == 0 ? rectangle.getMaxX() : rectangle.getMaxY();
+  }
+
+  /**
+   * Ограничивающие прямоугольники префиксов и суффиксов отсортированного набора элементов.
+   * prefix[k] - MBR первых k элементов, suffix[k] - MBR элементов начиная с k-го.
+   */
+  private static class Bounds {
+    private final double[] prefixMinX;
+    private final double[] prefixMinY;
+    private final double[] prefixMaxX;
+    private final double[] prefixMaxY;
+    private final double[] suffixMinX;
+    private final double[] suffixMinY;
+    private final double[] suffixMaxX;
+    private final double[] suffixMaxY;
+
+    Bounds(Rectangle[] entries, Integer[] order) {
+      int n = order.length;
+      prefixMinX = new double[n + 1];
+      prefixMinY = new double[n + 1];
+      prefixMaxX = new double[n + 1];
+      prefixMaxY = new double[n + 1];
+      suffixMinX = new double[n + 1];
+      suffixMinY = new double[n + 1];
+      suffixMaxX = new double[n + 1];
+      suffixMaxY = new double[n + 1];
+
+      prefixMinX[0] = prefixMinY[0] = suffixMinX[n] = suffixMinY[n] = Double.POSITIVE_INFINITY;
+      prefixMaxX[0] = prefixMaxY[0] = suffixMaxX[n] = suffixMaxY[n] = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < n; i++) {
+        Rectangle r = entries[order[i]];
+        prefixMinX[i + 1] = Math.min(prefixMinX[i], low(r, 0));
+        prefixMinY[i + 1] = Math.min(prefixMinY[i], low(r, 1));
+        prefixMaxX[i + 1] = Math.max(prefixMaxX[i], high(r, 0));
+        prefixMaxY[i + 1] = Math.max(prefixMaxY[i], high(r, 1));
+      }
+      for (int i = n - 1; i >= 0; i--) {
+        Rectangle r = entries[order[i]];
+        suffixMinX[i] = Math.min(suffixMinX[i + 1], low(r, 0));
+        suffixMinY[i] = Math.min(suffixMinY[i + 1], low(r, 1));
+        suffixMaxX[i] = Math.max(suffixMaxX[i + 1], high(r, 0));
+        suffixMaxY[i] = Math.max(suffixMaxY[i + 1], high(r, 1));
+      }
+    }
+
+    double prefixMargin(int k) {
+      return Geometry.margin(prefixMinX[k], prefixMinY[k], prefixMaxX[k], prefixMaxY[k]);
+    }
+
+    double suffixMargin(int k) {
+      return Geometry.margin(suffixMinX[k], suffixMinY[k], suffixMaxX[k], suffixMaxY[k]);
+    }
+
+    double prefixArea(int k) {
+      return Geometry.area(prefixMinX[k], prefixMinY[k], prefixMaxX[k], prefixMaxY[k]);
+    }
+
+    double suffixArea(int k) {
+      return Geometry.area(suffixMinX[k], suffixMinY[k], suffixMaxX[k], suffixMaxY[k]);
+    }
+
+    double overlap(int k) {
+      return Geometry.overlap(prefixMinX[k], prefixMinY[k], prefixMaxX[k], prefixMaxY[k],
+          suffixMinX[k], suffixMinY[k], suffixMaxX[k], suffixMaxY[k]);
+    }
+  }
+}
@@ -1,20 +1,37 @@
 package tree;
 
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import lombok.Getter;
 import lombok.Setter;
+import tree.geometry.GeodesicWindow;
+import tree.geometry.Geometry;
 import tree.geometry.Point;
 import tree.geometry.Rectangle;
+import tree.metrics.QueryMetrics;
+import tree.metrics.QueryMetrics.Counter;
+import tree.metrics.QueryMetrics.Stage;
 
 /**
  * Реализация R-дерева для индексирования пространственных данных.
  */
-public class RTree {
+public class RTree implements SpatialIndex {
   /**
    * Узел, представляющий собой MBR в случае, если он не лист.
    * Если же это лист, то в нем хранятся исходные данные - точки.
@@ -28,6 +45,11 @@ public class RTree {
     // Ограничивающий прямоугольник
     private Rectangle mbr;
 
+    // Диапазон высот точек поддерева; точки без высоты в него не входят,
+    // поэтому у поддерева без высот minElevation > maxElevation
+    private double minElevation = Double.POSITIVE_INFINITY;
+    private double maxElevation = Double.NEGATIVE_INFINITY;
+
     // Ссылка на родительский элемент
     private Node parent;
 
@@ -67,14 +89,70 @@ public class RTree {
       child.index = index;
       children[index] = child;
       if (mbr == null) {
-        mbr = new Rectangle(child.mbr.getLeftTop(), child.mbr.getRightBottom());
+        mbr = new Rectangle(child.mbr.getMinX(), child.mbr.getMinY(), child.mbr.getMaxX(), child.mbr.getMaxY());
+        setElevation(child);
+      } else if (keyCount == 0) {
+        mbr.setBounds(child.mbr);
+        setElevation(child);
       } else {
         mbr.unionRectangle(child.mbr);
+        unionElevation(child);
       }
 
       height = child.height + 1;
     }
 
+    /**
+     * Удаляет потомка по индексу, следующие потомки сдвигаются влево. MBR не пересчитывается.
+     *
+     * @param index - индекс удаляемого потомка.
+     */
+    private void removeChild(int index) {
+      System.arraycopy(children, index + 1, children, index, keyCount - index - 1);
+      keyCount--;
+      children[keyCount] = null;
+      for (int i = index; i < keyCount; i++) {
+        children[i].index = i;
+      }
+    }
+
+    /**
+     * Удаляет всех потомков узла. MBR будет заново задан первым добавленным потомком.
+     */
+    private void clearChildren() {
+      Arrays.fill(children, 0, keyCount, null);
+      keyCount = 0;
+    }
+
+    /**
+     * Пересчитывает MBR по текущим потомкам.
+     */
+    private void recalculateMbr() {
+      mbr.setBounds(children[0].mbr);
+      setElevation(children[0]);
+      for (int i = 1; i < keyCount; i++) {
+        mbr.unionRectangle(children[i].mbr);
+        unionElevation(children[i]);
+      }
+    }
+
+    private void setElevation(Node child) {
+      minElevation = child.minElevation;
+      maxElevation = child.maxElevation;
+    }
+
+    private void unionElevation(Node child) {
+      minElevation = Math.min(minElevation, child.minElevation);
+      maxElevation = Math.max(maxElevation, child.maxElevation);
+    }
+
+    /**
+     * Проверяет, может ли поддерево содержать точки с высотой в заданном диапазоне.
+     */
+    private boolean overlapsElevation(double min, double max) {
+      return minElevation <= max && maxElevation >= min;
+    }
+
 
     /**
      * Выбирать подходящий лист для всавки прямоугольника.
@@ -84,11 +162,24 @@ public class RTree {
      * @return подходящий лист.
      */
     public Node chooseLeaf(Rectangle rectangle) {
-      return Arrays.stream(children)
-          .limit(keyCount)
-          .min(Comparator.comparingDouble((Node r) -> r.mbr.unionArea(rectangle))
-              .thenComparing((Node r) -> r.mbr.area()))
-          .orElse(null);
+      Node best = null;
+      double bestEnlargement = Double.POSITIVE_INFINITY;
+      double bestArea = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < keyCount; i++) {
+        Rectangle r = children[i].mbr;
+        double enlargement = Geometry.enlargement(r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY(),
+            rectangle.getMinX(), rectangle.getMinY(), rectangle.getMaxX(), rectangle.getMaxY());
+        if (enlargement > bestEnlargement) {
+          continue;
+        }
+        double area = Geometry.area(r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY());
+        if (enlargement < bestEnlargement || area < bestArea) {
+          best = children[i];
+          bestEnlargement = enlargement;
+          bestArea = area;
+        }
+      }
+      return best;
     }
 
     /**
@@ -114,9 +205,23 @@ public class RTree {
   // Количество элементов в дереве
   private int count;
 
+  // Номер версии, увеличивается при каждом изменении дерева
+  private volatile long version;
+
+  // Стратегия разделения переполненных узлов
+  private final SplitStrategy splitStrategy;
+
+  // Уровни, на которых уже выполнялась повторная вставка в рамках текущего добавления
+  private final Set<Integer> reinsertedHeights = new HashSet<>();
+
   public RTree(int maxKeysPerNode) {
+    this(maxKeysPerNode, new QuadraticSplitStrategy());
+  }
+
+  public RTree(int maxKeysPerNode, SplitStrategy splitStrategy) {
     this.maxKeysPerNode = maxKeysPerNode;
     this.minKeysPerNode = maxKeysPerNode / 2;
+    this.splitStrategy = splitStrategy;
   }
 
   /**
@@ -124,48 +229,272 @@ public class RTree {
    *
    * @param newPoint - новая точка.
    */
+  @Override
   public void add(Point newPoint) {
-    var newNode = new Node(maxKeysPerNode, null);
-    newNode.setMbr(new Rectangle(newPoint, newPoint));
-    newNode.mbr.setDataPoint(newPoint);
+    var newNode = newDataNode(newPoint);
 
-    insertToLeaf(newNode);
+    reinsertedHeights.clear();
+    insert(newNode);
     count++;
+    version++;
+  }
+
+  /**
+   * Удаляет точку из дерева. Точка ищется по координатам и смещению seek.
+   * После удаления недозаполненные узлы убираются из дерева, а их элементы
+   * вставляются заново на своем уровне (condense tree).
+   *
+   * @param point - удаляемая точка.
+   * @return true, если точка была найдена и удалена.
+   */
+  public boolean remove(Point point) {
+    if (root == null) {
+      return false;
+    }
+    Node leaf = findLeaf(root, point);
+    if (leaf == null) {
+      return false;
+    }
+
+    for (int i = 0; i < leaf.keyCount; i++) {
+      if (matches(leaf.children[i].mbr.getDataPoint(), point)) {
+        leaf.removeChild(i);
+        break;
+      }
+    }
+    condenseTree(leaf);
+    count--;
+    version++;
+    return true;
+  }
+
+  /**
+   * Заменяет точку новой, например при изменении координат строки.
+   *
+   * @param oldPoint - заменяемая точка.
+   * @param newPoint - новая точка.
+   * @return true, если старая точка была найдена и заменена, иначе дерево не изменяется.
+   */
+  public boolean update(Point oldPoint, Point newPoint) {
+    if (!remove(oldPoint)) {
+      return false;
+    }
+    add(newPoint);
+    return true;
+  }
+
+  /**
+   * Ищет лист, содержащий точку. Спуск идет только в поддеревья, MBR которых содержит точку.
+   *
+   * @param node - текущий узел.
+   * @param point - искомая точка.
+   * @return лист или null, если точка не найдена.
+   */
+  private Node findLeaf(Node node, Point point) {
+    boolean leaf = node.height == 1;
+    for (int i = 0; i < node.keyCount; i++) {
+      Node child = node.children[i];
+      if (leaf) {
+        if (matches(child.mbr.getDataPoint(), point)) {
+          return node;
+        }
+        continue;
+      }
+      Rectangle mbr = child.mbr;
+      if (point.getX() >= mbr.getMinX() && point.getX() <= mbr.getMaxX()
+          && point.getY() >= mbr.getMinY() && point.getY() <= mbr.getMaxY()) {
+        Node found = findLeaf(child, point);
+        if (found != null) {
+          return found;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean matches(Point dataPoint, Point point) {
+    return dataPoint.getX() == point.getX() && dataPoint.getY() == point.getY()
+        && dataPoint.getSeek() == point.getSeek();
+  }
+
+  /**
+   * Поднимается от листа к корню. Узлы, в которых осталось меньше minKeysPerNode элементов,
+   * удаляются у родителя, их элементы запоминаются; у остальных узлов пересчитывается MBR.
+   * Затем запомненные элементы вставляются заново на своем уровне, а корень с единственным
+   * потомком заменяется этим потомком.
+   *
+   * @param leaf - лист, из которого удалена точка.
+   */
+  private void condenseTree(Node leaf) {
+    List<Node> orphans = new ArrayList<>();
+    Node node = leaf;
+    while (node != root) {
+      Node parent = node.parent;
+      if (node.keyCount < minKeysPerNode) {
+        parent.removeChild(node.index);
+        orphans.addAll(Arrays.asList(node.children).subList(0, node.keyCount));
+      } else {
+        node.recalculateMbr();
+      }
+      node = parent;
+    }
+
+    if (root.keyCount == 0) {
+      root = null;
+    } else {
+      root.recalculateMbr();
+    }
+
+    // Сначала вставляются элементы верхних уровней, чтобы высота дерева успела их вместить
+    orphans.sort(Comparator.comparingInt((Node orphan) -> orphan.height).reversed());
+    reinsertedHeights.clear();
+    for (Node orphan : orphans) {
+      orphan.parent = null;
+      insert(orphan);
+    }
+
+    while (root != null && root.height > 1 && root.keyCount == 1) {
+      root = root.children[0];
+      root.parent = null;
+    }
+  }
+
+  /**
+   * Создает узел с данными - точкой.
+   *
+   * @param point - точка.
+   * @return узел, MBR которого вырожден в точку.
+   */
+  private Node newDataNode(Point point) {
+    var dataNode = new Node(maxKeysPerNode, null);
+    dataNode.setMbr(new Rectangle(point, point));
+    dataNode.mbr.setDataPoint(point);
+    if (!Double.isNaN(point.getElevation())) {
+      dataNode.minElevation = point.getElevation();
+      dataNode.maxElevation = point.getElevation();
+    }
+    return dataNode;
+  }
+
+  /**
+   * Массовая загрузка точек методом Sort-Tile-Recursive.
+   * Точки сортируются по X, делятся на вертикальные полосы, внутри полосы сортируются по Y
+   * и упаковываются в заполненные листья. Верхние уровни строятся тем же способом снизу вверх.
+   * Если дерево уже не пустое, точки добавляются по одной через {@link #add(Point)}.
+   *
+   * @param points - загружаемые точки.
+   */
+  @Override
+  public void bulkLoad(Collection<Point> points) {
+    if (points.isEmpty()) {
+      return;
+    }
+    if (root != null) {
+      points.forEach(this::add);
+      return;
+    }
+
+    List<Node> level = new ArrayList<>(points.size());
+    for (Point point : points) {
+      level.add(newDataNode(point));
+    }
+
+    do {
+      level = packLevel(level);
+    } while (level.size() > 1);
+
+    root = level.get(0);
+    count += points.size();
+    version++;
+  }
+
+  /**
+   * Упаковывает узлы одного уровня в родительские узлы (один шаг STR).
+   *
+   * @param entries - узлы текущего уровня.
+   * @return родительские узлы следующего уровня.
+   */
+  private List<Node> packLevel(List<Node> entries) {
+    int nodeCount = (entries.size() + maxKeysPerNode - 1) / maxKeysPerNode;
+    int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+
+    entries.sort(Comparator.comparingDouble(RTree::centerX));
+    List<Node> parents = new ArrayList<>(nodeCount);
+    for (List<Node> slice : partition(entries, sliceCount)) {
+      slice.sort(Comparator.comparingDouble(RTree::centerY));
+      int groupCount = (slice.size() + maxKeysPerNode - 1) / maxKeysPerNode;
+      for (List<Node> group : partition(slice, groupCount)) {
+        Node parent = new Node(maxKeysPerNode, null);
+        for (Node child : group) {
+          parent.addChild(child);
+        }
+        parents.add(parent);
+      }
+    }
+    return parents;
+  }
+
+  /**
+   * Делит список на части почти одинакового размера, чтобы ни один узел не оказался недозаполненным.
+   *
+   * @param list - исходный список.
+   * @param parts - количество частей.
+   * @return представления частей исходного списка.
+   */
+  private static List<List<Node>> partition(List<Node> list, int parts) {
+    List<List<Node>> result = new ArrayList<>(parts);
+    int size = list.size();
+    for (int i = 0; i < parts; i++) {
+      int from = (int) ((long) size * i / parts);
+      int to = (int) ((long) size * (i + 1) / parts);
+      if (from < to) {
+        result.add(list.subList(from, to));
+      }
+    }
+    return result;
+  }
+
+  private static double centerX(Node node) {
+    return (node.mbr.getMinX() + node.mbr.getMaxX()) / 2;
+  }
+
+  private static double centerY(Node node) {
+    return (node.mbr.getMinY() + node.mbr.getMaxY()) / 2;
   }
 
   /**
    * Промежуточный метод добавления. Проверяет корень дерева, если он пуст,
-   * то элемент добавляется в него. Иначе выбирается нужный лист,
+   * то элемент добавляется в него. Иначе выбирается узел на нужном уровне,
    * куда можно ставить новый элемент.
-   * После того, как лист был выбран, происходит разделение дерева для его балансировки.
+   * После того, как узел был выбран, происходит разделение дерева для его балансировки.
    *
-   * @param newNode
+   * @param newNode - вставляемый элемент (точка или поддерево).
    */
-  private void insertToLeaf(Node newNode) {
+  private void insert(Node newNode) {
     if (root == null) {
       root = new Node(maxKeysPerNode, null);
       root.addChild(newNode);
       return;
     }
 
-    var leafToAdd = chooseLeaf(root, newNode);
-    addAndSplit(leafToAdd, newNode);
+    var nodeToAdd = chooseNode(root, newNode);
+    addAndSplit(nodeToAdd, newNode);
   }
 
   /**
    * Добавляет элемент и распределеяет дерево рекурсивно.
    *
    * Шаг 1:
-   * Для начала идет проверка, есть ли место среди потомков листа для нового элемента.
+   * Для начала идет проверка, есть ли место среди потомков узла для нового элемента.
    * Если это так, то элемент добавляется и происходит перераспределение MBR. Выход из метода.
    *
    * Шаг 2:
-   * Если предыдущее условие не выполнилось, то создается список 'e' из всех потомков + новый потомок листа.
-   * И выбираются две точки 'e1' и 'e2', растояние между которыми максимальное среди всех потомков.
+   * Если стратегия разделения использует повторную вставку и на этом уровне она еще не выполнялась,
+   * часть элементов удаляется из узла и вставляется в дерево заново. Выход из метода.
    *
    * Шаг 3:
-   * Проверяем оставшиеся элементы в списке потомков один за другим и кладем их в e1 или e2, в зависимости от того,
-   * какой из элементов этих узлов потребует минимального увелечения области.
+   * Иначе все потомки вместе с новым элементом распределяются стратегией разделения на две группы 'e1' и 'e2'.
+   * Узел заменяется на 'e1', а 'e2' добавляется к родителю, что может вызвать разделение и родителя.
    *
    * @param node - узел, куда нужно внести улемент.
    * @param newNode - вносимый элемент.
@@ -179,65 +508,29 @@ public class RTree {
     }
 
     // Шаг 2
-    List<Node> e = new LinkedList<>();
-    e.add(newNode);
-    e.addAll(Arrays.asList(node.children));
+    if (splitStrategy.reinsertFraction() > 0 && node != root && reinsertedHeights.add(node.height)) {
+      reinsert(node, newNode);
+      return;
+    }
 
-    Node[] distantPairs = getDistantPairs(e);
+    // Шаг 3
+    Node[] e = new Node[maxKeysPerNode + 1];
+    Rectangle[] rectangles = new Rectangle[e.length];
+    e[0] = newNode;
+    System.arraycopy(node.children, 0, e, 1, maxKeysPerNode);
+    for (int i = 0; i < e.length; i++) {
+      rectangles[i] = e[i].mbr;
+    }
+
+    boolean[] second = splitStrategy.split(rectangles, minKeysPerNode);
 
     Node e1 = new Node(maxKeysPerNode, null);
     Node e2 = new Node(maxKeysPerNode, null);
-
-    e1.addChild(distantPairs[0]);
-    e2.addChild(distantPairs[1]);
-
-    e = e.stream().filter(el -> el != distantPairs[0] && el != distantPairs[1]).collect(Collectors.toList());
-    int remaining = e.size();
-    var iterator = e.listIterator(e.size());
-    while (iterator.hasPrevious() && e.size() > 0) {
-      Node current = iterator.previous();
-
-      double leftEnlargementArea = e1.mbr.unionArea(current.mbr);
-      double rightEnlargementArea = e2.mbr.unionArea(current.mbr);
-
-      if (leftEnlargementArea == rightEnlargementArea) {
-        double leftArea = e1.mbr.area();
-        double rightArea = e2.mbr.area();
-
-        if (leftArea == rightArea) {
-          if (e1.keyCount < e2.keyCount) {
-            e1.addChild(current);
-          } else {
-            e2.addChild(current);
-          }
-        } else if (leftArea < rightArea) {
-          e1.addChild(current);
-        } else {
-          e2.addChild(current);
-        }
-      } else if (leftEnlargementArea < rightEnlargementArea) {
-        e1.addChild(current);
+    for (int i = 0; i < e.length; i++) {
+      if (second[i]) {
+        e2.addChild(e[i]);
       } else {
-        e2.addChild(current);
-      }
-
-      iterator.remove();
-
-      remaining--;
-
-      //Впихиваем неназначенные никуда записи в e1 или e2, чтобы заполнить там оставшееся место из минимума элементов
-      if (e1.keyCount == minKeysPerNode - remaining) {
-        for (var entry :
-            e) {
-          e1.addChild(entry);
-        }
-        e.clear();
-      } else if (e2.keyCount == minKeysPerNode - remaining) {
-        for (var entry :
-            e) {
-          e2.addChild(entry);
-        }
-        e.clear();
+        e1.addChild(e[i]);
       }
     }
 
@@ -255,6 +548,44 @@ public class RTree {
     }
   }
 
+  /**
+   * Повторная вставка (forced reinsertion) R*-дерева. Из переполненного узла удаляются элементы,
+   * центры которых дальше всего от центра узла, MBR узла и его предков сжимаются,
+   * после чего удаленные элементы вставляются в дерево заново, начиная с ближайших.
+   *
+   * @param node - переполненный узел.
+   * @param newNode - элемент, вызвавший переполнение.
+   */
+  private void reinsert(Node node, Node newNode) {
+    List<Node> entries = new ArrayList<>(maxKeysPerNode + 1);
+    entries.addAll(Arrays.asList(node.children).subList(0, node.keyCount));
+    entries.add(newNode);
+
+    double centerX = (Math.min(node.mbr.getMinX(), newNode.mbr.getMinX())
+        + Math.max(node.mbr.getMaxX(), newNode.mbr.getMaxX())) / 2;
+    double centerY = (Math.min(node.mbr.getMinY(), newNode.mbr.getMinY())
+        + Math.max(node.mbr.getMaxY(), newNode.mbr.getMaxY())) / 2;
+    entries.sort(Comparator.comparingDouble((Node n) -> {
+      double dx = centerX(n) - centerX;
+      double dy = centerY(n) - centerY;
+      return -(dx * dx + dy * dy);
+    }));
+
+    int reinsertCount = Math.max(1, (int) Math.round(entries.size() * splitStrategy.reinsertFraction()));
+    reinsertCount = Math.min(reinsertCount, entries.size() - minKeysPerNode);
+    List<Node> removed = new ArrayList<>(entries.subList(0, reinsertCount));
+
+    node.clearChildren();
+    for (Node entry : entries.subList(reinsertCount, entries.size())) {
+      node.addChild(entry);
+    }
+    tightenAncestorMBRs(node);
+
+    for (int i = removed.size() - 1; i >= 0; i--) {
+      insert(removed.get(i));
+    }
+  }
+
   /**
    * Растягиваем MBR у предков узла
    * @param node - узел, у предков, которого нужно изменить MBR.
@@ -262,51 +593,58 @@ public class RTree {
   private void expandAncestorMBRs(Node node) {
     while (node.parent != null) {
       node.parent.mbr.unionRectangle(node.mbr);
+      node.parent.unionElevation(node);
       node.parent.height = node.height + 1;
       node = node.parent;
     }
   }
 
   /**
-   * Находит самые удаленные друг от друга узлы.
-   *
-   * @param nodes - список узлов
-   * @return 2 самых удаленных друг от друга узла.
+   * Пересчитываем MBR у предков узла после удаления из него элементов.
+   * @param node - узел, у предков, которого нужно пересчитать MBR.
    */
-  private Node[] getDistantPairs(List<Node> nodes) {
-    Node[] result = new Node[2];
-
-    double maxArea = -1;
-    var iterator = nodes.iterator();
-    for (int i = 0; i < nodes.size(); i++) {
-      Node first = iterator.next();
-      var iterator2 = nodes.listIterator(i + 1);
-      for (int j = i + 1; j < nodes.size(); j++) {
-        Node second = iterator2.next();
-        double currentArea = first.mbr.unionArea(second.mbr);
-        if (currentArea > maxArea) {
-          result[0] = first;
-          result[1] = second;
-          maxArea = currentArea;
-        }
-      }
+  private void tightenAncestorMBRs(Node node) {
+    while (node.parent != null) {
+      node.parent.recalculateMbr();
+      node = node.parent;
     }
-    return result;
   }
 
   /**
-   * Выбирает лист для вставки нового элемента.
+   * Выбирает узел для вставки нового элемента. Спуск идет до уровня,
+   * находящегося непосредственно над уровнем вставляемого элемента.
    *
    * @param node - предполагаемый узел, в который можно вставить новый элемент.
    * @param newNode - нвоый элемент.
    * @return - найденный узел, в который можно вставить элемент.
    */
-  private Node chooseLeaf(Node node, Node newNode) {
-    if (node.isLeaf()) {
+  private Node chooseNode(Node node, Node newNode) {
+    if (node.height <= newNode.height + 1) {
       return node;
     }
 
-    return chooseLeaf(node.chooseLeaf(newNode.mbr), newNode);
+    return chooseNode(node.chooseLeaf(newNode.mbr), newNode);
+  }
+
+  /**
+   * Номер версии дерева. Изменяется при каждой модификации, поэтому по нему можно
+   * определить, что закэшированные результаты поиска устарели.
+   *
+   * @return номер версии.
+   */
+  @Override
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Количество точек в дереве.
+   *
+   * @return количество точек.
+   */
+  @Override
+  public int size() {
+    return count;
   }
 
   /**
@@ -315,37 +653,460 @@ public class RTree {
    * @param target - прямоугольник, в пределах которого нужно осуществлять поиск.
    * @return найденные точки
    */
+  @Override
   public List<Point> range(Rectangle target) {
-    return range(root, target, new ArrayList<Point>());
+    List<Point> result = new ArrayList<>();
+    range(target, point -> {
+      result.add(point);
+      return true;
+    });
+    return result;
+  }
+
+  /**
+   * Обходит все точки в пределах заданного прямоугольника, не накапливая их в списке.
+   * Обход прекращается, как только посетитель вернет {@code false}.
+   *
+   * @param target - прямоугольник, в пределах которого нужно осуществлять поиск.
+   * @param visitor - посетитель найденных точек.
+   * @return {@code true}, если обход дошел до конца, {@code false} - если был прерван.
+   */
+  @Override
+  public boolean range(Rectangle target, PointVisitor visitor) {
+    if (root == null) {
+      return true;
+    }
+    long start = QueryMetrics.start();
+    boolean completed = range(root, target, visitor);
+    QueryMetrics.record(Stage.TREE, start);
+    return completed;
   }
 
   /**
    * Рекурсивный поиск всех точек в пределах заданного прямоугольника.
    * @param current - текущий узел для поиска.
    * @param target - прямоугольник, в пределах которого нужно осуществлять поиск.
-   * @param result - список со всем точками.
-   * @return найденные точки.
+   * @param visitor - посетитель найденных точек.
+   * @return {@code false}, если посетитель прервал обход.
    */
-  private List<Point> range(Node current, Rectangle target, List<Point> result) {
-    if (current.isLeaf()) {
+  private boolean range(Node current, Rectangle target, PointVisitor visitor) {
+    if (current.height == 1) {
+      QueryMetrics.increment(Counter.LEAF_NODES);
+      QueryMetrics.add(Counter.CANDIDATES, current.keyCount);
       for (int i = 0; i < current.keyCount; i++) {
         Node node = current.children[i];
-        if (target.overlaps(node.mbr)) {
-          result.add(node.mbr.getDataPoint());
+        if (target.overlaps(node.mbr) && !visitor.visit(node.mbr.getDataPoint())) {
+          return false;
         }
       }
+      return true;
     }
 
+    QueryMetrics.increment(Counter.INTERNAL_NODES);
+    QueryMetrics.add(Counter.MBR_TESTS, current.keyCount);
     for (int i = 0; i < current.keyCount; i++) {
       Node node = current.children[i];
-      if (node.mbr.overlaps(target)) {
-        range(node, target, result);
+      if (node.mbr.overlaps(target) && !range(node, target, visitor)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Ленивый итератор по точкам в пределах прямоугольника. Узлы дерева раскрываются
+   * только по мере продвижения итератора, поэтому первые точки доступны сразу,
+   * а прерванный обход не тратит время на оставшиеся поддеревья.
+   * Дерево не должно изменяться, пока итератор используется.
+   *
+   * @param target - прямоугольник, в пределах которого нужно осуществлять поиск.
+   * @return итератор по найденным точкам.
+   */
+  public Iterator<Point> rangeIterator(Rectangle target) {
+    return Spliterators.iterator(rangeSpliterator(target));
+  }
+
+  /**
+   * Сплитератор по точкам в пределах прямоугольника. Делится по границам поддеревьев,
+   * поэтому подходит для параллельных потоков.
+   *
+   * @param target - прямоугольник, в пределах которого нужно осуществлять поиск.
+   * @return сплитератор по найденным точкам.
+   */
+  public Spliterator<Point> rangeSpliterator(Rectangle target) {
+    return new RangeSpliterator(root, target);
+  }
+
+  /**
+   * Поток точек в пределах прямоугольника.
+   *
+   * @param target - прямоугольник, в пределах которого нужно осуществлять поиск.
+   * @param parallel - использовать ли параллельный поток.
+   * @return поток найденных точек.
+   */
+  public Stream<Point> rangeStream(Rectangle target, boolean parallel) {
+    return StreamSupport.stream(rangeSpliterator(target), parallel);
+  }
+
+  /**
+   * Сплитератор с явным стеком непросмотренных поддеревьев. Текущий лист
+   * просматривается по одной точке за вызов {@link #tryAdvance}.
+   */
+  private static class RangeSpliterator implements Spliterator<Point> {
+    private final Rectangle target;
+
+    // Поддеревья, MBR которых пересекает прямоугольник, но которые еще не раскрыты
+    private final ArrayDeque<Node> pending = new ArrayDeque<>();
+
+    // Просматриваемый лист и позиция в нем
+    private Node leaf;
+    private int position;
+
+    RangeSpliterator(Node root, Rectangle target) {
+      this.target = target;
+      if (root != null && root.keyCount > 0) {
+        pending.push(root);
+      }
+    }
+
+    private RangeSpliterator(Rectangle target) {
+      this.target = target;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Point> action) {
+      while (true) {
+        if (leaf != null) {
+          while (position < leaf.keyCount) {
+            Node node = leaf.children[position++];
+            if (target.overlaps(node.mbr)) {
+              action.accept(node.mbr.getDataPoint());
+              return true;
+            }
+          }
+          leaf = null;
+        }
+        Node next = pending.poll();
+        if (next == null) {
+          return false;
+        }
+        expand(next);
+      }
+    }
+
+    /**
+     * Раскрывает узел: лист становится текущим, потомки внутреннего узла,
+     * пересекающие прямоугольник, добавляются в стек в исходном порядке.
+     */
+    private void expand(Node node) {
+      if (node.height == 1) {
+        QueryMetrics.increment(Counter.LEAF_NODES);
+        QueryMetrics.add(Counter.CANDIDATES, node.keyCount);
+        leaf = node;
+        position = 0;
+        return;
+      }
+      QueryMetrics.increment(Counter.INTERNAL_NODES);
+      QueryMetrics.add(Counter.MBR_TESTS, node.keyCount);
+      for (int i = node.keyCount - 1; i >= 0; i--) {
+        Node child = node.children[i];
+        if (child.mbr.overlaps(target)) {
+          pending.push(child);
+        }
+      }
+    }
+
+    @Override
+    public Spliterator<Point> trySplit() {
+      // Если ожидает единственное поддерево, раскрываем его, чтобы было что делить
+      while (pending.size() == 1 && pending.peek().height > 1) {
+        expand(pending.pop());
+      }
+      int half = pending.size() / 2;
+      if (half == 0) {
+        return null;
+      }
+      // Отдаем нижнюю половину стека: это поддеревья, до которых обход дойдет последним
+      RangeSpliterator split = new RangeSpliterator(target);
+      for (int i = 0; i < half; i++) {
+        split.pending.push(pending.pollLast());
+      }
+      return split;
+    }
+
+    @Override
+    public long estimateSize() {
+      return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+      return NONNULL;
+    }
+  }
+
+  /**
+   * Ищет все точки в пределах радиуса от целевой точки, без упорядочивания.
+   * Поддерево отбрасывается, если его MBR не пересекает геодезическое окно круга
+   * ({@link GeodesicWindow}) или если минимальное расстояние до MBR больше радиуса.
+   *
+   * @param target - целевая точка (X - широта, Y - долгота).
+   * @param radiusKm - радиус в километрах.
+   * @return найденные точки.
+   */
+  @Override
+  public List<Point> within(Point target, double radiusKm) {
+    List<Point> result = new ArrayList<>();
+    within(target, radiusKm, point -> {
+      result.add(point);
+      return true;
+    });
+    return result;
+  }
+
+  /**
+   * Обходит точки в пределах радиуса от целевой точки, без упорядочивания.
+   * Обход прекращается, как только посетитель вернет {@code false}.
+   *
+   * @param target - целевая точка (X - широта, Y - долгота).
+   * @param radiusKm - радиус в километрах.
+   * @param visitor - посетитель найденных точек.
+   * @return {@code true}, если обход дошел до конца, {@code false} - если был прерван.
+   */
+  @Override
+  public boolean within(Point target, double radiusKm, PointVisitor visitor) {
+    return within(target, radiusKm, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, visitor);
+  }
+
+  /**
+   * Обходит точки в пределах радиуса с высотой в заданном диапазоне, без упорядочивания.
+   * Кроме геодезического окна и расстояния до MBR поддерево отбрасывается, если диапазон
+   * высот его точек не пересекается с искомым, поэтому строки таких точек не читаются вовсе.
+   *
+   * @param target - целевая точка (X - широта, Y - долгота).
+   * @param radiusKm - радиус в километрах.
+   * @param minElevation - минимальная высота.
+   * @param maxElevation - максимальная высота.
+   * @param visitor - посетитель найденных точек.
+   * @return {@code true}, если обход дошел до конца, {@code false} - если был прерван.
+   */
+  @Override
+  public boolean within(Point target, double radiusKm, double minElevation, double maxElevation,
+      PointVisitor visitor) {
+    if (root == null || !(radiusKm >= 0)) {
+      return true;
+    }
+    long start = QueryMetrics.start();
+    boolean completed = within(root, target, radiusKm,
+        GeodesicWindow.around(target.getX(), target.getY(), radiusKm),
+        !SpatialIndex.isUnbounded(minElevation, maxElevation), minElevation, maxElevation, visitor);
+    QueryMetrics.record(Stage.TREE, start);
+    return completed;
+  }
+
+  private boolean within(Node current, Point target, double radiusKm, List<Rectangle> window,
+      boolean filterElevation, double minElevation, double maxElevation, PointVisitor visitor) {
+    if (current.height == 1) {
+      QueryMetrics.increment(Counter.LEAF_NODES);
+      QueryMetrics.add(Counter.CANDIDATES, current.keyCount);
+      for (int i = 0; i < current.keyCount; i++) {
+        Node child = current.children[i];
+        if (filterElevation && !child.overlapsElevation(minElevation, maxElevation)) {
+          continue;
+        }
+        Point dataPoint = child.mbr.getDataPoint();
+        if (target.distance(dataPoint) <= radiusKm && !visitor.visit(dataPoint)) {
+          return false;
+        }
       }
+      return true;
+    }
+
+    QueryMetrics.increment(Counter.INTERNAL_NODES);
+    QueryMetrics.add(Counter.MBR_TESTS, current.keyCount);
+    for (int i = 0; i < current.keyCount; i++) {
+      Node child = current.children[i];
+      Rectangle mbr = child.mbr;
+      if ((!filterElevation || child.overlapsElevation(minElevation, maxElevation))
+          && GeodesicWindow.intersects(window, mbr.getMinX(), mbr.getMinY(), mbr.getMaxX(), mbr.getMaxY())
+          && mbr.minDistance(target) <= radiusKm
+          && !within(child, target, radiusKm, window, filterElevation, minElevation, maxElevation, visitor)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Поиск k ближайших соседей методом best-first. Узлы обходятся в порядке возрастания
+   * минимального расстояния по ортодромии от целевой точки до их MBR, поэтому посещаются
+   * только те поддеревья, которые еще могут дать результат.
+   *
+   * @param target - целевая точка (X - широта, Y - долгота).
+   * @param k - максимальное количество результатов.
+   * @param maxDistanceKm - максимальное расстояние до результата в километрах.
+   * @return найденные точки в порядке возрастания расстояния.
+   */
+  @Override
+  public List<Point> nearest(Point target, int k, double maxDistanceKm) {
+    return nearest(target, k, maxDistanceKm, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Поиск k ближайших соседей с высотой в заданном диапазоне. Поддеревья, диапазон высот
+   * которых не пересекается с искомым, в очередь не попадают.
+   *
+   * @param target - целевая точка (X - широта, Y - долгота).
+   * @param k - максимальное количество результатов.
+   * @param maxDistanceKm - максимальное расстояние до результата в километрах.
+   * @param minElevation - минимальная высота.
+   * @param maxElevation - максимальная высота.
+   * @return найденные точки в порядке возрастания расстояния.
+   */
+  @Override
+  public List<Point> nearest(Point target, int k, double maxDistanceKm, double minElevation, double maxElevation) {
+    List<Point> result = new ArrayList<>();
+    if (root == null || k <= 0) {
+      return result;
     }
 
+    long start = QueryMetrics.start();
+    boolean filterElevation = !SpatialIndex.isUnbounded(minElevation, maxElevation);
+    // Дешевая проверка по окну отсекает поддеревья до расчета расстояния до MBR
+    List<Rectangle> window = GeodesicWindow.around(target.getX(), target.getY(), maxDistanceKm);
+    PriorityQueue<Candidate> queue = new PriorityQueue<>();
+    queue.add(new Candidate(root, 0));
+    while (!queue.isEmpty()) {
+      Candidate candidate = queue.poll();
+      Node node = candidate.node;
+      if (node.mbr.getDataPoint() != null) {
+        result.add(node.mbr.getDataPoint());
+        if (result.size() == k) {
+          break;
+        }
+        continue;
+      }
+
+      if (node.isLeaf()) {
+        QueryMetrics.increment(Counter.LEAF_NODES);
+        QueryMetrics.add(Counter.CANDIDATES, node.keyCount);
+      } else {
+        QueryMetrics.increment(Counter.INTERNAL_NODES);
+        QueryMetrics.add(Counter.MBR_TESTS, node.keyCount);
+      }
+      for (int i = 0; i < node.keyCount; i++) {
+        Node child = node.children[i];
+        if (filterElevation && !child.overlapsElevation(minElevation, maxElevation)) {
+          continue;
+        }
+        Rectangle mbr = child.mbr;
+        Point dataPoint = mbr.getDataPoint();
+        if (dataPoint == null
+            && !GeodesicWindow.intersects(window, mbr.getMinX(), mbr.getMinY(), mbr.getMaxX(), mbr.getMaxY())) {
+          continue;
+        }
+        double distance = dataPoint != null ? target.distance(dataPoint) : mbr.minDistance(target);
+        if (distance <= maxDistanceKm) {
+          queue.add(new Candidate(child, distance));
+        }
+      }
+    }
+    QueryMetrics.record(Stage.TREE, start);
     return result;
   }
 
+  /**
+   * Элемент очереди поиска ближайших соседей.
+   */
+  private static class Candidate implements Comparable<Candidate> {
+    private final Node node;
+    private final double distance;
+
+    Candidate(Node node, double distance) {
+      this.node = node;
+      this.distance = distance;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      return Double.compare(distance, other.distance);
+    }
+  }
+
+  /**
+   * Превращает дерево в неизменяемое компактное представление.
+   * Узлы раскладываются в ширину по массивам примитивов, последующие изменения дерева
+   * на полученное представление не влияют.
+   *
+   * @return компактное представление дерева.
+   */
+  public PackedRTree freeze() {
+    List<Node> nodes = new ArrayList<>();
+    if (root != null) {
+      nodes.add(root);
+    }
+    for (int i = 0; i < nodes.size(); i++) {
+      Node node = nodes.get(i);
+      if (node.height > 1) {
+        nodes.addAll(Arrays.asList(node.children).subList(0, node.keyCount));
+      }
+    }
+
+    int nodeCount = nodes.size();
+    double[] minX = new double[nodeCount];
+    double[] minY = new double[nodeCount];
+    double[] maxX = new double[nodeCount];
+    double[] maxY = new double[nodeCount];
+    int[] childOffset = new int[nodeCount];
+    int[] childCount = new int[nodeCount];
+    double[] lat = new double[count];
+    double[] lon = new double[count];
+    long[] seek = new long[count];
+    // Высоты сохраняются, только если в дереве есть хотя бы одна точка с высотой
+    double[] elevation = root != null && root.minElevation <= root.maxElevation ? new double[count] : new double[0];
+    double[] minElevation = new double[elevation.length > 0 ? nodeCount : 0];
+    double[] maxElevation = new double[minElevation.length];
+
+    int leafStart = nodeCount;
+    int nextNode = 1;
+    int nextPoint = 0;
+    for (int i = 0; i < nodeCount; i++) {
+      Node node = nodes.get(i);
+      minX[i] = node.mbr.getMinX();
+      minY[i] = node.mbr.getMinY();
+      maxX[i] = node.mbr.getMaxX();
+      maxY[i] = node.mbr.getMaxY();
+      childCount[i] = node.keyCount;
+      if (minElevation.length > 0) {
+        minElevation[i] = node.minElevation;
+        maxElevation[i] = node.maxElevation;
+      }
+      if (node.height > 1) {
+        childOffset[i] = nextNode;
+        nextNode += node.keyCount;
+        continue;
+      }
+
+      leafStart = Math.min(leafStart, i);
+      childOffset[i] = nextPoint;
+      for (int j = 0; j < node.keyCount; j++) {
+        Point point = node.children[j].mbr.getDataPoint();
+        lat[nextPoint] = point.getX();
+        lon[nextPoint] = point.getY();
+        seek[nextPoint] = point.getSeek();
+        if (elevation.length > 0) {
+          elevation[nextPoint] = point.getElevation();
+        }
+        nextPoint++;
+      }
+    }
+
+    return new PackedRTree(maxKeysPerNode, DoubleBuffer.wrap(minX), DoubleBuffer.wrap(minY),
+        DoubleBuffer.wrap(maxX), DoubleBuffer.wrap(maxY), IntBuffer.wrap(childOffset), IntBuffer.wrap(childCount),
+        leafStart, DoubleBuffer.wrap(lat), DoubleBuffer.wrap(lon), LongBuffer.wrap(seek), DoubleBuffer.wrap(elevation),
+        DoubleBuffer.wrap(minElevation), DoubleBuffer.wrap(maxElevation));
+  }
+
   /**
    * Печатает дерево (для дебага)
    */
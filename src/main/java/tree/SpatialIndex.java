@@ -0,0 +1,129 @@
+package tree;
+
+import java.util.Collection;
+import java.util.List;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+
+/**
+ * Пространственный индекс точек (X - широта, Y - долгота, seek - смещение строки в файле).
+ * Реализации: {@link RTree} и {@link GridIndex}.
+ *
+ * Запросы с диапазоном высоты отбирают только точки, высота которых лежит в пределах
+ * [minElevation; maxElevation]; точки без высоты (NaN) в такой диапазон не попадают.
+ * Диапазон (-∞; +∞) означает отсутствие фильтра, такой запрос совпадает с запросом без высоты.
+ */
+public interface SpatialIndex {
+  /**
+   * Добавляет точку в индекс.
+   *
+   * @param point - точка.
+   */
+  void add(Point point);
+
+  /**
+   * Добавляет набор точек в индекс. Реализации могут строить индекс эффективнее,
+   * чем при последовательном добавлении.
+   *
+   * @param points - точки.
+   */
+  void bulkLoad(Collection<Point> points);
+
+  /**
+   * Ищет все точки в пределах заданного прямоугольника.
+   *
+   * @param target - прямоугольник, в пределах которого нужно осуществлять поиск.
+   * @return найденные точки.
+   */
+  List<Point> range(Rectangle target);
+
+  /**
+   * Обходит все точки в пределах заданного прямоугольника.
+   * Обход прекращается, как только посетитель вернет {@code false}.
+   *
+   * @param target - прямоугольник, в пределах которого нужно осуществлять поиск.
+   * @param visitor - посетитель найденных точек.
+   * @return {@code true}, если обход дошел до конца, {@code false} - если был прерван.
+   */
+  boolean range(Rectangle target, PointVisitor visitor);
+
+  /**
+   * Ищет все точки в пределах радиуса от целевой точки, без упорядочивания.
+   *
+   * @param target - целевая точка.
+   * @param radiusKm - радиус в километрах.
+   * @return найденные точки.
+   */
+  List<Point> within(Point target, double radiusKm);
+
+  /**
+   * Обходит точки в пределах радиуса от целевой точки, без упорядочивания.
+   * Обход прекращается, как только посетитель вернет {@code false}.
+   *
+   * @param target - целевая точка.
+   * @param radiusKm - радиус в километрах.
+   * @param visitor - посетитель найденных точек.
+   * @return {@code true}, если обход дошел до конца, {@code false} - если был прерван.
+   */
+  boolean within(Point target, double radiusKm, PointVisitor visitor);
+
+  /**
+   * Обходит точки в пределах радиуса от целевой точки с высотой в заданном диапазоне, без упорядочивания.
+   * Обход прекращается, как только посетитель вернет {@code false}.
+   *
+   * @param target - целевая точка.
+   * @param radiusKm - радиус в километрах.
+   * @param minElevation - минимальная высота.
+   * @param maxElevation - максимальная высота.
+   * @param visitor - посетитель найденных точек.
+   * @return {@code true}, если обход дошел до конца, {@code false} - если был прерван.
+   */
+  boolean within(Point target, double radiusKm, double minElevation, double maxElevation, PointVisitor visitor);
+
+  /**
+   * Поиск k ближайших соседей.
+   *
+   * @param target - целевая точка.
+   * @param k - максимальное количество результатов.
+   * @param maxDistanceKm - максимальное расстояние до результата в километрах.
+   * @return найденные точки в порядке возрастания расстояния.
+   */
+  List<Point> nearest(Point target, int k, double maxDistanceKm);
+
+  /**
+   * Поиск k ближайших соседей с высотой в заданном диапазоне.
+   *
+   * @param target - целевая точка.
+   * @param k - максимальное количество результатов.
+   * @param maxDistanceKm - максимальное расстояние до результата в километрах.
+   * @param minElevation - минимальная высота.
+   * @param maxElevation - максимальная высота.
+   * @return найденные точки в порядке возрастания расстояния.
+   */
+  List<Point> nearest(Point target, int k, double maxDistanceKm, double minElevation, double maxElevation);
+
+  /**
+   * Количество точек в индексе.
+   *
+   * @return количество точек.
+   */
+  int size();
+
+  /**
+   * Номер версии индекса. Изменяется при каждой модификации.
+   *
+   * @return номер версии.
+   */
+  long getVersion();
+
+  /**
+   * Проверяет, задает ли диапазон высоты какое-либо ограничение.
+   *
+   * @param minElevation - минимальная высота.
+   * @param maxElevation - максимальная высота.
+   * @return {@code true}, если диапазон - (-∞; +∞).
+   */
+  static boolean isUnbounded(double minElevation, double maxElevation) {
+    return minElevation == Double.NEGATIVE_INFINITY && maxElevation == Double.POSITIVE_INFINITY;
+  }
+}
@@ -0,0 +1,28 @@
+package tree;
+
+import tree.geometry.Rectangle;
+
+/**
+ * Стратегия разделения переполненного узла R-дерева.
+ */
+public interface SplitStrategy {
+  /**
+   * Распределяет ограничивающие прямоугольники переполненного узла на две группы.
+   * Каждая группа должна содержать не меньше minKeysPerNode элементов.
+   *
+   * @param entries - прямоугольники всех потомков узла вместе с новым элементом.
+   * @param minKeysPerNode - минимальное количество элементов в группе.
+   * @return массив признаков: true - элемент уходит во вторую группу, false - в первую.
+   */
+  boolean[] split(Rectangle[] entries, int minKeysPerNode);
+
+  /**
+   * Доля элементов, которые при первом переполнении уровня удаляются из узла и вставляются заново
+   * (forced reinsertion из R*-дерева). 0 - повторная вставка не используется.
+   *
+   * @return доля элементов для повторной вставки.
+   */
+  default double reinsertFraction() {
+    return 0;
+  }
+}
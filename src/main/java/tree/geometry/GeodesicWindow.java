@@ -0,0 +1,71 @@
+package tree.geometry;
+
+import java.util.List;
+
+/**
+ * Прямоугольники широты и долготы, покрывающие круг заданного радиуса на сфере.
+ * Границы по широте - широта центра плюс/минус угловой радиус. Полуширина по долготе
+ * asin(sin(r) / cos(lat)) растет с широтой; если окно пересекает меридиан ±180°,
+ * оно делится на два прямоугольника. Если круг содержит полюс, окно становится
+ * полосой во всю долготу.
+ */
+public final class GeodesicWindow {
+  private GeodesicWindow() {
+  }
+
+  /**
+   * Строит окно вокруг точки.
+   *
+   * @param latitude - широта центра в градусах.
+   * @param longitude - долгота центра в градусах, в пределах [-180; 180].
+   * @param radiusKm - радиус в километрах.
+   * @return один или два непересекающихся прямоугольника (X - широта, Y - долгота).
+   */
+  public static List<Rectangle> around(double latitude, double longitude, double radiusKm) {
+    double angle = radiusKm / Point.EARTH_RADIUS;
+    if (angle >= Math.PI) {
+      return List.of(new Rectangle(-90, -180, 90, 180));
+    }
+
+    double latitudeRad = Math.toRadians(latitude);
+    double minLatitude = latitudeRad - angle;
+    double maxLatitude = latitudeRad + angle;
+    if (minLatitude <= -Math.PI / 2 || maxLatitude >= Math.PI / 2) {
+      // Круг содержит полюс: подходит любая долгота
+      return List.of(new Rectangle(
+          Math.toDegrees(Math.max(minLatitude, -Math.PI / 2)), -180,
+          Math.toDegrees(Math.min(maxLatitude, Math.PI / 2)), 180));
+    }
+
+    double deltaLongitude = Math.toDegrees(Math.asin(Math.min(1, Math.sin(angle) / Math.cos(latitudeRad))));
+    double minLongitude = longitude - deltaLongitude;
+    double maxLongitude = longitude + deltaLongitude;
+    double minX = Math.toDegrees(minLatitude);
+    double maxX = Math.toDegrees(maxLatitude);
+    // Долготы -180 и 180 - один меридиан, поэтому окно, касающееся его, тоже делится
+    if (minLongitude <= -180) {
+      return List.of(
+          new Rectangle(minX, minLongitude + 360, maxX, 180),
+          new Rectangle(minX, -180, maxX, maxLongitude));
+    }
+    if (maxLongitude >= 180) {
+      return List.of(
+          new Rectangle(minX, minLongitude, maxX, 180),
+          new Rectangle(minX, -180, maxX, maxLongitude - 360));
+    }
+    return List.of(new Rectangle(minX, minLongitude, maxX, maxLongitude));
+  }
+
+  /**
+   * Проверяет, пересекает ли прямоугольник хотя бы один прямоугольник окна.
+   */
+  public static boolean intersects(List<Rectangle> window, double minX, double minY, double maxX, double maxY) {
+    for (Rectangle rectangle : window) {
+      if (Geometry.intersects(minX, minY, maxX, maxY,
+          rectangle.getMinX(), rectangle.getMinY(), rectangle.getMaxX(), rectangle.getMaxY())) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
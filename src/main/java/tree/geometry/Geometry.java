@@ -0,0 +1,114 @@
+package tree.geometry;
+
+/**
+ * Геометрические операции над прямоугольниками, заданными границами minX/minY/maxX/maxY.
+ * Методы работают только с примитивами и не создают временных объектов,
+ * поэтому используются на горячих путях вставки, разделения и поиска в дереве.
+ */
+public final class Geometry {
+  private Geometry() {
+  }
+
+  /**
+   * Расчет площади прямоугольника.
+   */
+  public static double area(double minX, double minY, double maxX, double maxY) {
+    return (maxX - minX) * (maxY - minY);
+  }
+
+  /**
+   * Расчет периметра прямоугольника.
+   */
+  public static double margin(double minX, double minY, double maxX, double maxY) {
+    return 2 * ((maxX - minX) + (maxY - minY));
+  }
+
+  /**
+   * Расчет площади MBR двух прямоугольников.
+   */
+  public static double unionArea(double minX, double minY, double maxX, double maxY,
+                                 double otherMinX, double otherMinY, double otherMaxX, double otherMaxY) {
+    return area(Math.min(minX, otherMinX), Math.min(minY, otherMinY),
+        Math.max(maxX, otherMaxX), Math.max(maxY, otherMaxY));
+  }
+
+  /**
+   * Расчет увеличения площади первого прямоугольника при объединении со вторым.
+   */
+  public static double enlargement(double minX, double minY, double maxX, double maxY,
+                                   double otherMinX, double otherMinY, double otherMaxX, double otherMaxY) {
+    return unionArea(minX, minY, maxX, maxY, otherMinX, otherMinY, otherMaxX, otherMaxY)
+        - area(minX, minY, maxX, maxY);
+  }
+
+  /**
+   * Расчет площади пересечения двух прямоугольников.
+   */
+  public static double overlap(double minX, double minY, double maxX, double maxY,
+                               double otherMinX, double otherMinY, double otherMaxX, double otherMaxY) {
+    double width = Math.min(maxX, otherMaxX) - Math.max(minX, otherMinX);
+    double height = Math.min(maxY, otherMaxY) - Math.max(minY, otherMinY);
+    if (width < 0 || height < 0) {
+      return 0;
+    }
+    return width * height;
+  }
+
+  /**
+   * Проверка пересечения двух прямоугольников (включая касание границ).
+   */
+  public static boolean intersects(double minX, double minY, double maxX, double maxY,
+                                   double otherMinX, double otherMinY, double otherMaxX, double otherMaxY) {
+    return maxX >= otherMinX && minX <= otherMaxX && maxY >= otherMinY && minY <= otherMaxY;
+  }
+
+  /**
+   * Расчет MINDIST по ортодромии от точки до прямоугольника.
+   * Координата X трактуется как широта, Y - как долгота, в градусах.
+   * Значение никогда не превышает расстояния до любой точки внутри прямоугольника,
+   * поэтому его можно использовать для отсечения поддеревьев при поиске ближайших соседей.
+   *
+   * @param latitude - широта точки.
+   * @param longitude - долгота точки.
+   * @param minLatitude - нижняя граница широты прямоугольника.
+   * @param minLongitude - нижняя граница долготы прямоугольника.
+   * @param maxLatitude - верхняя граница широты прямоугольника.
+   * @param maxLongitude - верхняя граница долготы прямоугольника.
+   * @return расстояние в километрах, 0 - если точка внутри прямоугольника.
+   */
+  public static double minDistance(double latitude, double longitude, double minLatitude, double minLongitude,
+                                   double maxLatitude, double maxLongitude) {
+    if (longitude >= minLongitude && longitude <= maxLongitude) {
+      // ближайшая точка лежит на том же меридиане
+      if (latitude < minLatitude) {
+        return Point.EARTH_RADIUS * Math.toRadians(minLatitude - latitude);
+      }
+      if (latitude > maxLatitude) {
+        return Point.EARTH_RADIUS * Math.toRadians(latitude - maxLatitude);
+      }
+      return 0;
+    }
+
+    return Math.min(
+        meridianDistance(latitude, longitude, minLongitude, minLatitude, maxLatitude),
+        meridianDistance(latitude, longitude, maxLongitude, minLatitude, maxLatitude));
+  }
+
+  /**
+   * Расстояние от точки до отрезка меридиана.
+   * Вдоль меридиана косинус расстояния - синусоида от широты, поэтому ближайшая точка отрезка -
+   * это либо вершина синусоиды, если она попадает в отрезок, либо один из его концов.
+   */
+  private static double meridianDistance(double latitude, double longitude, double meridian,
+                                         double minLatitude, double maxLatitude) {
+    double latitudeRad = Math.toRadians(latitude);
+    double deltaRad = Math.toRadians(longitude - meridian);
+    double closest = Math.toDegrees(Math.atan2(Math.sin(latitudeRad), Math.cos(latitudeRad) * Math.cos(deltaRad)));
+    if (closest >= minLatitude && closest <= maxLatitude) {
+      return Point.distance(latitude, longitude, closest, meridian);
+    }
+    return Math.min(
+        Point.distance(latitude, longitude, minLatitude, meridian),
+        Point.distance(latitude, longitude, maxLatitude, meridian));
+  }
+}
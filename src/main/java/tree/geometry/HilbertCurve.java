@@ -0,0 +1,49 @@
+package tree.geometry;
+
+/**
+ * Кривая Гильберта на сетке 2^16 x 2^16, покрывающей все значения широты и долготы.
+ * Близкие по номеру на кривой точки близки и на плоскости, поэтому упорядочивание запросов
+ * по номеру позволяет последовательным запросам обходить одни и те же узлы дерева.
+ */
+public final class HilbertCurve {
+  // Количество бит на координату
+  private static final int ORDER = 16;
+  private static final int SIDE = 1 << ORDER;
+
+  private HilbertCurve() {
+  }
+
+  /**
+   * Расчет номера точки на кривой.
+   *
+   * @param latitude - широта в градусах.
+   * @param longitude - долгота в градусах.
+   * @return номер ячейки на кривой Гильберта.
+   */
+  public static long index(double latitude, double longitude) {
+    int x = cell(longitude, -180, 180);
+    int y = cell(latitude, -90, 90);
+    long d = 0;
+    for (int s = SIDE / 2; s > 0; s /= 2) {
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      d += (long) s * s * ((3 * rx) ^ ry);
+      // поворот квадранта
+      if (ry == 0) {
+        if (rx == 1) {
+          x = SIDE - 1 - x;
+          y = SIDE - 1 - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+
+  private static int cell(double value, double min, double max) {
+    int cell = (int) ((value - min) / (max - min) * SIDE);
+    return Math.max(0, Math.min(SIDE - 1, cell));
+  }
+}
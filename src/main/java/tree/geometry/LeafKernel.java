@@ -0,0 +1,73 @@
+package tree.geometry;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Пакетные операции над узлом дерева, координаты которого лежат подряд в буферах примитивов:
+ * в куче или в отображенном в память файле. Буферы читаются только по абсолютному индексу.
+ * Реализация на Vector API ({@link VectorLeafKernel}) используется, если JVM запущена с
+ * --add-modules jdk.incubator.vector и свойство rtree.simd не равно false; иначе - скалярная
+ * реализация {@link ScalarLeafKernel} с тем же результатом.
+ *
+ * Во всех методах обрабатывается диапазон индексов [from; to), индексы найденных элементов
+ * записываются в out по возрастанию, out должен вмещать to - from элементов.
+ */
+public interface LeafKernel {
+  /**
+   * Находит прямоугольники, пересекающиеся с окном (границы включаются).
+   *
+   * @return количество найденных прямоугольников.
+   */
+  int intersecting(DoubleBuffer minX, DoubleBuffer minY, DoubleBuffer maxX, DoubleBuffer maxY, int from, int to,
+                   double windowMinX, double windowMinY, double windowMaxX, double windowMaxY, int[] out);
+
+  /**
+   * Находит точки, лежащие в окне (границы включаются).
+   *
+   * @return количество найденных точек.
+   */
+  int contained(DoubleBuffer x, DoubleBuffer y, int from, int to,
+                double windowMinX, double windowMinY, double windowMaxX, double windowMaxY, int[] out);
+
+  /**
+   * Считает гаверсинус центрального угла между целевой точкой и каждой точкой диапазона:
+   * hav(d) = hav(dLat) + cos(lat1) * cos(lat2) * hav(dLon), где hav(dA) = (1 - cos(dA)) / 2,
+   * а cos(dA) раскладывается по заранее посчитанным синусам и косинусам координат.
+   * Тригонометрия на каждую точку не вызывается, остаются только умножения и сложения.
+   * Результат для i-й точки записывается в out[i - from].
+   */
+  void haversine(TrigCoordinates points, int from, int to,
+                 double targetSinLat, double targetCosLat, double targetSinLon, double targetCosLon, double[] out);
+
+  /**
+   * Реализация, выбранная для текущей JVM.
+   */
+  static LeafKernel instance() {
+    return LeafKernels.INSTANCE;
+  }
+
+  /**
+   * Перевод гаверсинуса центрального угла в расстояние по ортодромии.
+   *
+   * @param haversine - гаверсинус центрального угла.
+   * @return расстояние в километрах.
+   */
+  static double distance(double haversine) {
+    return 2 * Point.EARTH_RADIUS * Math.asin(Math.sqrt(Math.max(0, Math.min(1, haversine))));
+  }
+
+  /**
+   * Гаверсинус центрального угла, соответствующего расстоянию.
+   *
+   * @param distanceKm - расстояние в километрах.
+   * @return гаверсинус, больше 1 для расстояний не меньше половины окружности Земли.
+   */
+  static double haversineOf(double distanceKm) {
+    double angle = distanceKm / Point.EARTH_RADIUS;
+    if (angle >= Math.PI) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double sin = Math.sin(angle / 2);
+    return sin * sin;
+  }
+}
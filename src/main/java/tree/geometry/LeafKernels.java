@@ -0,0 +1,25 @@
+package tree.geometry;
+
+/**
+ * Выбор реализации LeafKernel при загрузке класса.
+ */
+final class LeafKernels {
+  static final LeafKernel INSTANCE = create();
+
+  private LeafKernels() {
+  }
+
+  private static LeafKernel create() {
+    boolean vectorAvailable = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    if (vectorAvailable && !"false".equals(System.getProperty("rtree.simd"))) {
+      try {
+        // Загрузка через отражение: без модуля jdk.incubator.vector класс не может быть загружен
+        return (LeafKernel) Class.forName("tree.geometry.VectorLeafKernel")
+            .getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) {
+        return new ScalarLeafKernel();
+      }
+    }
+    return new ScalarLeafKernel();
+  }
+}
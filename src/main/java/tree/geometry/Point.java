@@ -2,6 +2,8 @@ package tree.geometry;
 
 import lombok.Getter;
 import lombok.ToString;
+import tree.metrics.QueryMetrics;
+import tree.metrics.QueryMetrics.Counter;
 
 /**
  * Класс точки.
@@ -9,14 +11,19 @@ import lombok.ToString;
 @Getter
 @ToString
 public class Point implements Cloneable {
+  // средний радиус земли в километрах
+  public static final double EARTH_RADIUS = 6371;
+
   private double x;
   private double y;
   private long seek;   //Для индексирования
+  private double elevation;   //Высота, NaN - не задана или не индексируется
 
   public Point(double x, double y) {
     this.x = x;
     this.y = y;
     this.seek = -1;
+    this.elevation = Double.NaN;
   }
 
   public Point(double x, double y, long seek) {
@@ -24,17 +31,36 @@ public class Point implements Cloneable {
     this.seek = seek;
   }
 
+  public Point(double x, double y, long seek, double elevation) {
+    this(x, y, seek);
+    this.elevation = elevation;
+  }
+
   // расчет дистанции между двумя точками по ортодромии
   public double distance(Point target) {
-    // 6371 - средний радиус земли
-    double xRad = Math.toRadians(x);
-    double yRad = Math.toRadians(y);
-    double targetXRad = Math.toRadians(target.getX());
-    double targetYRad = Math.toRadians(target.getY());
+    return distance(x, y, target.getX(), target.getY());
+  }
+
+  /**
+   * Расчет дистанции по ортодромии между двумя точками, заданными координатами в градусах.
+   *
+   * @param latitude - широта первой точки.
+   * @param longitude - долгота первой точки.
+   * @param targetLatitude - широта второй точки.
+   * @param targetLongitude - долгота второй точки.
+   * @return расстояние в километрах.
+   */
+  public static double distance(double latitude, double longitude, double targetLatitude, double targetLongitude) {
+    QueryMetrics.increment(Counter.DISTANCE_CALLS);
+    double xRad = Math.toRadians(latitude);
+    double yRad = Math.toRadians(longitude);
+    double targetXRad = Math.toRadians(targetLatitude);
+    double targetYRad = Math.toRadians(targetLongitude);
     double a = Math.sin(xRad) * Math.sin(targetXRad);
     double b = Math.cos(xRad) * Math.cos(targetXRad) * Math.cos(Math.max(targetYRad, yRad) - Math.min(targetYRad, yRad));
-    double sigma = Math.acos(a + b);
-    return 6371 * sigma;
+    // из-за погрешности округления сумма может незначительно выйти за пределы [-1; 1]
+    double sigma = Math.acos(Math.max(-1, Math.min(1, a + b)));
+    return EARTH_RADIUS * sigma;
   }
 
   @Override
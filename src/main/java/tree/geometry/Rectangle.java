@@ -6,27 +6,21 @@ import lombok.ToString;
 
 /**
  * Класс прямоугольника.
+ * Границы хранятся примитивами, MBR изменяется на месте без создания новых объектов.
  */
 @Getter
-@Setter
 @ToString
 public class Rectangle implements Cloneable {
-  private Point leftTop;
-  private Point rightBottom;
+  private double minX;
+  private double minY;
+  private double maxX;
+  private double maxY;
 
+  @Setter
   private Point dataPoint;
 
   public Rectangle(Point leftTop, Point rightBottom) {
-    double lefTopX = leftTop.getX();
-    double rightBottomX = rightBottom.getX();
-    double leftTopY = leftTop.getY();
-    double rightBottomY = rightBottom.getY();
-    double xMin = Math.min(lefTopX, rightBottomX);
-    double xMax = Math.max(lefTopX, rightBottomX);
-    double yMin = Math.min(leftTopY, rightBottomY);
-    double yMax = Math.max(leftTopY, rightBottomY);
-    this.leftTop = new Point(xMin, yMax);
-    this.rightBottom = new Point(xMax, yMin);
+    this(leftTop.getX(), leftTop.getY(), rightBottom.getX(), rightBottom.getY());
   }
 
   public Rectangle(Point leftTop, Point rightBottom, Point dataPoint) {
@@ -34,13 +28,57 @@ public class Rectangle implements Cloneable {
     this.dataPoint = dataPoint;
   }
 
+  /**
+   * Создает прямоугольник по двум противоположным углам, заданным координатами.
+   */
+  public Rectangle(double x1, double y1, double x2, double y2) {
+    setBounds(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+  }
+
+  /**
+   * Левый верхний угол прямоугольника (minX, maxY).
+   *
+   * @return новая точка угла.
+   */
+  public Point getLeftTop() {
+    return new Point(minX, maxY);
+  }
+
+  /**
+   * Правый нижний угол прямоугольника (maxX, minY).
+   *
+   * @return новая точка угла.
+   */
+  public Point getRightBottom() {
+    return new Point(maxX, minY);
+  }
+
+  /**
+   * Устанавливает границы прямоугольника.
+   */
+  public void setBounds(double minX, double minY, double maxX, double maxY) {
+    this.minX = minX;
+    this.minY = minY;
+    this.maxX = maxX;
+    this.maxY = maxY;
+  }
+
+  /**
+   * Копирует границы другого прямоугольника.
+   *
+   * @param rectangle - прямоугольник, границы которого нужно скопировать.
+   */
+  public void setBounds(Rectangle rectangle) {
+    setBounds(rectangle.minX, rectangle.minY, rectangle.maxX, rectangle.maxY);
+  }
+
   /**
    * Расчет длины прямоугольника.
    *
    * @return длину прямоугольника.
    */
   public double length() {
-    return Math.abs(rightBottom.getX() - leftTop.getX());
+    return maxX - minX;
   }
 
   /**
@@ -49,7 +87,7 @@ public class Rectangle implements Cloneable {
    * @return ширину прямоугольника.
    */
   public double width() {
-    return Math.abs(leftTop.getY() - rightBottom.getY());
+    return maxY - minY;
   }
 
   /**
@@ -58,27 +96,48 @@ public class Rectangle implements Cloneable {
    * @return площадь прямоугольника.
    */
   public double area() {
-    return length() * width();
+    return Geometry.area(minX, minY, maxX, maxY);
+  }
+
+  /**
+   * Расчет периметра прямоугольника.
+   *
+   * @return периметр прямоугольника.
+   */
+  public double margin() {
+    return Geometry.margin(minX, minY, maxX, maxY);
   }
 
   /**
-   * Расчет площади объединенных прямоугольников.
+   * Расчет увеличения площади при объединении с другим прямоугольником.
    * @param rectangle - прямоугольник с которым нужно объединить текущий прямоугольник.
-   * @return объединенную площадь.
+   * @return прирост площади.
    */
   public double unionArea(Rectangle rectangle) {
-    return Math.abs(getUnionRectangle(rectangle).area() - area());
+    return Geometry.enlargement(minX, minY, maxX, maxY,
+        rectangle.minX, rectangle.minY, rectangle.maxX, rectangle.maxY);
+  }
+
+  /**
+   * Расчет площади пересечения с другим прямоугольником.
+   * @param rectangle - прямоугольник, с которым нужно посчитать пересечение.
+   * @return площадь пересечения, 0 - если прямоугольники не пересекаются.
+   */
+  public double overlapArea(Rectangle rectangle) {
+    return Geometry.overlap(minX, minY, maxX, maxY,
+        rectangle.minX, rectangle.minY, rectangle.maxX, rectangle.maxY);
   }
 
   /**
-   * Объединяет текущий прямоугольник с другим.
+   * Объединяет текущий прямоугольник с другим на месте.
    *
    * @param rectangle - прямоугольник, с которым необходимо объединить текущий прямоугольник.
    */
   public void unionRectangle(Rectangle rectangle) {
-    var union = getUnionRectangle(rectangle);
-    leftTop = union.leftTop;
-    rightBottom = union.rightBottom;
+    minX = Math.min(minX, rectangle.minX);
+    minY = Math.min(minY, rectangle.minY);
+    maxX = Math.max(maxX, rectangle.maxX);
+    maxY = Math.max(maxY, rectangle.maxY);
   }
 
   /**
@@ -87,35 +146,30 @@ public class Rectangle implements Cloneable {
    * @return MBR - минимальный ограничивающий прямоугольник двух прямоугольников.
    */
   public Rectangle getUnionRectangle(Rectangle rectangle) {
-    double leftTopX = Math.min(this.leftTop.getX(), rectangle.leftTop.getX());
-    double leftTopY = Math.max(this.leftTop.getY(), rectangle.leftTop.getY());
-
-    double rightBottomX = Math.max(this.rightBottom.getX(), rectangle.rightBottom.getX());
-    double rightBottomY = Math.min(rightBottom.getY(), rectangle.rightBottom.getY());
-    return new Rectangle(new Point(leftTopX, leftTopY), new Point(rightBottomX, rightBottomY));
+    return new Rectangle(Math.min(minX, rectangle.minX), Math.min(minY, rectangle.minY),
+        Math.max(maxX, rectangle.maxX), Math.max(maxY, rectangle.maxY));
   }
 
   /**
-   * Проверяет на нахождение текущего прямоугольника внутри другого.
+   * Проверяет пересечение текущего прямоугольника с другим.
    *
-   * @param rectangle - прямоугольник, в котором нужно проверить нахождение.
-   * @return истина, если текущий прямоугольник находится внутри другого, иначе - ложь.
+   * @param rectangle - прямоугольник, с которым нужно проверить пересечение.
+   * @return истина, если прямоугольники пересекаются, иначе - ложь.
    */
   public boolean overlaps(Rectangle rectangle) {
-    if (rightBottom.getX() < rectangle.leftTop.getX()) {
-      return false;
-    }
-    if (leftTop.getX() > rectangle.rightBottom.getX()) {
-      return false;
-    }
-    if (leftTop.getY() < rectangle.rightBottom.getY()) {
-      return false;
-    }
-    if (rightBottom.getY() > rectangle.leftTop.getY()) {
-      return false;
-    }
+    return Geometry.intersects(minX, minY, maxX, maxY,
+        rectangle.minX, rectangle.minY, rectangle.maxX, rectangle.maxY);
+  }
 
-    return true;
+  /**
+   * Расчет минимального расстояния по ортодромии от точки до прямоугольника (MINDIST).
+   *
+   * @param target - точка, от которой считается расстояние.
+   * @return расстояние в километрах, 0 - если точка внутри прямоугольника.
+   * @see Geometry#minDistance(double, double, double, double, double, double)
+   */
+  public double minDistance(Point target) {
+    return Geometry.minDistance(target.getX(), target.getY(), minX, minY, maxX, maxY);
   }
 
   @Override
@@ -0,0 +1,60 @@
+package tree.geometry;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Скалярная реализация LeafKernel.
+ */
+public final class ScalarLeafKernel implements LeafKernel {
+  @Override
+  public int intersecting(DoubleBuffer minX, DoubleBuffer minY, DoubleBuffer maxX, DoubleBuffer maxY, int from, int to,
+                          double windowMinX, double windowMinY, double windowMaxX, double windowMaxY, int[] out) {
+    int n = 0;
+    for (int i = from; i < to; i++) {
+      if (Geometry.intersects(minX.get(i), minY.get(i), maxX.get(i), maxY.get(i),
+          windowMinX, windowMinY, windowMaxX, windowMaxY)) {
+        out[n++] = i;
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public int contained(DoubleBuffer x, DoubleBuffer y, int from, int to,
+                       double windowMinX, double windowMinY, double windowMaxX, double windowMaxY, int[] out) {
+    int n = 0;
+    for (int i = from; i < to; i++) {
+      double pointX = x.get(i);
+      double pointY = y.get(i);
+      if (pointX >= windowMinX && pointX <= windowMaxX && pointY >= windowMinY && pointY <= windowMaxY) {
+        out[n++] = i;
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public void haversine(TrigCoordinates points, int from, int to,
+                        double targetSinLat, double targetCosLat, double targetSinLon, double targetCosLon,
+                        double[] out) {
+    double[] sinLat = points.sinLat;
+    double[] cosLat = points.cosLat;
+    double[] sinLon = points.sinLon;
+    double[] cosLon = points.cosLon;
+    for (int i = from; i < to; i++) {
+      out[i - from] = haversine(sinLat[i], cosLat[i], sinLon[i], cosLon[i],
+          targetSinLat, targetCosLat, targetSinLon, targetCosLon);
+    }
+  }
+
+  /**
+   * Гаверсинус центрального угла для одной точки. Порядок операций совпадает с
+   * векторной реализацией, поэтому результаты совпадают побитово.
+   */
+  static double haversine(double sinLat, double cosLat, double sinLon, double cosLon,
+                          double targetSinLat, double targetCosLat, double targetSinLon, double targetCosLon) {
+    double cosDeltaLat = cosLat * targetCosLat + sinLat * targetSinLat;
+    double cosDeltaLon = cosLon * targetCosLon + sinLon * targetSinLon;
+    return (1 - cosDeltaLat) * 0.5 + cosLat * (targetCosLat * 0.5) * (1 - cosDeltaLon);
+  }
+}
@@ -0,0 +1,35 @@
+package tree.geometry;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Синусы и косинусы широт и долгот набора точек, посчитанные один раз для пакетного
+ * расчета расстояний в {@link LeafKernel#haversine}. Хранятся в куче, поэтому векторная
+ * реализация используется и для дерева, отображенного в память.
+ */
+public final class TrigCoordinates {
+  final double[] sinLat;
+  final double[] cosLat;
+  final double[] sinLon;
+  final double[] cosLon;
+
+  /**
+   * @param lat - широты в градусах.
+   * @param lon - долготы в градусах.
+   */
+  public TrigCoordinates(DoubleBuffer lat, DoubleBuffer lon) {
+    int n = lat.limit();
+    sinLat = new double[n];
+    cosLat = new double[n];
+    sinLon = new double[n];
+    cosLon = new double[n];
+    for (int i = 0; i < n; i++) {
+      double latRad = Math.toRadians(lat.get(i));
+      double lonRad = Math.toRadians(lon.get(i));
+      sinLat[i] = Math.sin(latRad);
+      cosLat[i] = Math.cos(latRad);
+      sinLon[i] = Math.sin(lonRad);
+      cosLon[i] = Math.cos(lonRad);
+    }
+  }
+}
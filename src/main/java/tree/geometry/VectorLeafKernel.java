@@ -0,0 +1,120 @@
+package tree.geometry;
+
+import java.nio.DoubleBuffer;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Реализация LeafKernel на Vector API. Основная часть диапазона обрабатывается векторами
+ * предпочтительной для процессора ширины, остаток - скалярно.
+ * Vector API в Java 21 загружает векторы только из массивов, поэтому буферы вне кучи
+ * (дерево, отображенное в память) проверяются скалярной реализацией.
+ * Загружается только через {@link LeafKernel#instance()}.
+ */
+final class VectorLeafKernel implements LeafKernel {
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  private static final ScalarLeafKernel SCALAR = new ScalarLeafKernel();
+
+  @Override
+  public int intersecting(DoubleBuffer minXBuffer, DoubleBuffer minYBuffer,
+                          DoubleBuffer maxXBuffer, DoubleBuffer maxYBuffer, int from, int to,
+                          double windowMinX, double windowMinY, double windowMaxX, double windowMaxY, int[] out) {
+    if (!onHeap(minXBuffer) || !onHeap(minYBuffer) || !onHeap(maxXBuffer) || !onHeap(maxYBuffer)) {
+      return SCALAR.intersecting(minXBuffer, minYBuffer, maxXBuffer, maxYBuffer, from, to,
+          windowMinX, windowMinY, windowMaxX, windowMaxY, out);
+    }
+    double[] minX = minXBuffer.array();
+    double[] minY = minYBuffer.array();
+    double[] maxX = maxXBuffer.array();
+    double[] maxY = maxYBuffer.array();
+    int n = 0;
+    int i = from;
+    int bound = from + SPECIES.loopBound(to - from);
+    for (; i < bound; i += SPECIES.length()) {
+      VectorMask<Double> mask = DoubleVector.fromArray(SPECIES, maxX, i).compare(VectorOperators.GE, windowMinX)
+          .and(DoubleVector.fromArray(SPECIES, minX, i).compare(VectorOperators.LE, windowMaxX))
+          .and(DoubleVector.fromArray(SPECIES, maxY, i).compare(VectorOperators.GE, windowMinY))
+          .and(DoubleVector.fromArray(SPECIES, minY, i).compare(VectorOperators.LE, windowMaxY));
+      n = collect(mask.toLong(), i, out, n);
+    }
+    for (; i < to; i++) {
+      if (Geometry.intersects(minX[i], minY[i], maxX[i], maxY[i], windowMinX, windowMinY, windowMaxX, windowMaxY)) {
+        out[n++] = i;
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public int contained(DoubleBuffer xBuffer, DoubleBuffer yBuffer, int from, int to,
+                       double windowMinX, double windowMinY, double windowMaxX, double windowMaxY, int[] out) {
+    if (!onHeap(xBuffer) || !onHeap(yBuffer)) {
+      return SCALAR.contained(xBuffer, yBuffer, from, to, windowMinX, windowMinY, windowMaxX, windowMaxY, out);
+    }
+    double[] x = xBuffer.array();
+    double[] y = yBuffer.array();
+    int n = 0;
+    int i = from;
+    int bound = from + SPECIES.loopBound(to - from);
+    for (; i < bound; i += SPECIES.length()) {
+      DoubleVector vx = DoubleVector.fromArray(SPECIES, x, i);
+      DoubleVector vy = DoubleVector.fromArray(SPECIES, y, i);
+      VectorMask<Double> mask = vx.compare(VectorOperators.GE, windowMinX)
+          .and(vx.compare(VectorOperators.LE, windowMaxX))
+          .and(vy.compare(VectorOperators.GE, windowMinY))
+          .and(vy.compare(VectorOperators.LE, windowMaxY));
+      n = collect(mask.toLong(), i, out, n);
+    }
+    for (; i < to; i++) {
+      if (x[i] >= windowMinX && x[i] <= windowMaxX && y[i] >= windowMinY && y[i] <= windowMaxY) {
+        out[n++] = i;
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public void haversine(TrigCoordinates points, int from, int to,
+                        double targetSinLat, double targetCosLat, double targetSinLon, double targetCosLon,
+                        double[] out) {
+    double[] sinLat = points.sinLat;
+    double[] cosLat = points.cosLat;
+    double[] sinLon = points.sinLon;
+    double[] cosLon = points.cosLon;
+    int i = from;
+    int bound = from + SPECIES.loopBound(to - from);
+    for (; i < bound; i += SPECIES.length()) {
+      DoubleVector vCosLat = DoubleVector.fromArray(SPECIES, cosLat, i);
+      DoubleVector cosDeltaLat = vCosLat.mul(targetCosLat)
+          .add(DoubleVector.fromArray(SPECIES, sinLat, i).mul(targetSinLat));
+      DoubleVector cosDeltaLon = DoubleVector.fromArray(SPECIES, cosLon, i).mul(targetCosLon)
+          .add(DoubleVector.fromArray(SPECIES, sinLon, i).mul(targetSinLon));
+      // (1 - cosDeltaLat) * 0.5 + cosLat * (targetCosLat * 0.5) * (1 - cosDeltaLon)
+      DoubleVector result = cosDeltaLat.neg().add(1).mul(0.5)
+          .add(vCosLat.mul(targetCosLat * 0.5).mul(cosDeltaLon.neg().add(1)));
+      result.intoArray(out, i - from);
+    }
+    for (; i < to; i++) {
+      out[i - from] = ScalarLeafKernel.haversine(sinLat[i], cosLat[i], sinLon[i], cosLon[i],
+          targetSinLat, targetCosLat, targetSinLon, targetCosLon);
+    }
+  }
+
+  /**
+   * Буфер обертывает массив в куче целиком, индексы буфера совпадают с индексами массива.
+   */
+  private static boolean onHeap(DoubleBuffer buffer) {
+    return buffer.hasArray() && buffer.arrayOffset() == 0;
+  }
+
+  private static int collect(long bits, int base, int[] out, int n) {
+    while (bits != 0) {
+      out[n++] = base + Long.numberOfTrailingZeros(bits);
+      bits &= bits - 1;
+    }
+    return n;
+  }
+}
@@ -0,0 +1,108 @@
+package tree.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма задержек в наносекундах с логарифмически-линейными корзинами: каждая степень
+ * двойки делится на SUB_BUCKETS равных частей, поэтому относительная погрешность
+ * процентилей не превышает 1/SUB_BUCKETS. Запись не блокирует и не выделяет память.
+ */
+public class LatencyHistogram {
+  // Количество корзин внутри одной степени двойки, степень двойки
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Значения меньше SUB_BUCKETS хранятся точно, далее по SUB_BUCKETS корзин на каждую степень двойки
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+
+  /**
+   * Добавляет значение в гистограмму.
+   *
+   * @param nanos - задержка в наносекундах, отрицательные значения считаются нулем.
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    buckets.incrementAndGet(bucket(value));
+    count.increment();
+    sum.add(value);
+  }
+
+  /**
+   * Количество записанных значений.
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * Среднее значение в наносекундах.
+   */
+  public double mean() {
+    long total = count.sum();
+    return total == 0 ? 0 : (double) sum.sum() / total;
+  }
+
+  /**
+   * Оценка процентиля сверху: верхняя граница корзины, в которую попадает процентиль.
+   *
+   * @param percentile - процентиль в пределах [0; 100].
+   * @return значение в наносекундах, 0 если гистограмма пуста.
+   */
+  public long percentile(double percentile) {
+    long[] snapshot = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = buckets.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return upperBound(i);
+      }
+    }
+    return upperBound(BUCKET_COUNT - 1);
+  }
+
+  /**
+   * Обнуляет гистограмму. Значения, записываемые одновременно со сбросом, могут быть потеряны.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+  }
+
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return (shift + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long subBucket = bucket % SUB_BUCKETS;
+    long lower = (SUB_BUCKETS + subBucket) << shift;
+    return lower + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,133 @@
+package tree.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Счетчики и гистограммы задержек запросов. Включается свойством -Drtree.metrics=true.
+ * Флаг ENABLED - константа, поэтому при выключенных метриках JIT удаляет все вызовы
+ * из горячего пути целиком.
+ */
+public final class QueryMetrics {
+  public static final boolean ENABLED = Boolean.getBoolean("rtree.metrics");
+
+  // Имя MBean в JMX
+  public static final String OBJECT_NAME = "tree.metrics:type=QueryMetrics";
+
+  /**
+   * Счетчики событий.
+   */
+  public enum Counter {
+    // Посещенные внутренние узлы
+    INTERNAL_NODES,
+    // Посещенные листья
+    LEAF_NODES,
+    // Проверки пересечения или расстояния до MBR
+    MBR_TESTS,
+    // Точки-кандидаты, рассмотренные в листьях
+    CANDIDATES,
+    // Вызовы расчета расстояния по ортодромии
+    DISTANCE_CALLS,
+    // Прочитанные строки файла
+    ROWS_READ,
+    // Прочитанные байты строк
+    BYTES_READ
+  }
+
+  /**
+   * Этапы запроса, для каждого из которых ведется гистограмма задержек.
+   */
+  public enum Stage {
+    // Обход дерева
+    TREE,
+    // Поиск в IndexSearchEngine
+    SEARCH,
+    // Чтение строк файла
+    ROW_FETCH,
+    // Запрос целиком: поиск и чтение строк
+    QUERY
+  }
+
+  private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+  private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[Stage.values().length];
+
+  static {
+    for (int i = 0; i < COUNTERS.length; i++) {
+      COUNTERS[i] = new LongAdder();
+    }
+    for (int i = 0; i < HISTOGRAMS.length; i++) {
+      HISTOGRAMS[i] = new LatencyHistogram();
+    }
+  }
+
+  private QueryMetrics() {
+  }
+
+  public static void increment(Counter counter) {
+    if (ENABLED) {
+      COUNTERS[counter.ordinal()].increment();
+    }
+  }
+
+  public static void add(Counter counter, long value) {
+    if (ENABLED) {
+      COUNTERS[counter.ordinal()].add(value);
+    }
+  }
+
+  /**
+   * Время начала этапа для последующего вызова record.
+   *
+   * @return System.nanoTime() или 0, если метрики выключены.
+   */
+  public static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Записывает длительность этапа, начатого вызовом start.
+   */
+  public static void record(Stage stage, long start) {
+    if (ENABLED) {
+      HISTOGRAMS[stage.ordinal()].record(System.nanoTime() - start);
+    }
+  }
+
+  public static long get(Counter counter) {
+    return COUNTERS[counter.ordinal()].sum();
+  }
+
+  public static LatencyHistogram histogram(Stage stage) {
+    return HISTOGRAMS[stage.ordinal()];
+  }
+
+  /**
+   * Обнуляет все счетчики и гистограммы.
+   */
+  public static void reset() {
+    for (LongAdder counter : COUNTERS) {
+      counter.reset();
+    }
+    for (LatencyHistogram histogram : HISTOGRAMS) {
+      histogram.reset();
+    }
+  }
+
+  /**
+   * Регистрирует MBean с метриками в платформенном MBeanServer. Повторная регистрация игнорируется.
+   */
+  public static synchronized void registerMBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(new QueryMetricsBean(), name);
+      }
+    } catch (JMException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
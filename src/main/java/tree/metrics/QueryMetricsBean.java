@@ -0,0 +1,76 @@
+package tree.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import tree.metrics.QueryMetrics.Counter;
+import tree.metrics.QueryMetrics.Stage;
+
+/**
+ * Реализация QueryMetricsMXBean поверх статических счетчиков QueryMetrics.
+ */
+class QueryMetricsBean implements QueryMetricsMXBean {
+  // Процентили, публикуемые для каждого этапа
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  @Override
+  public boolean isEnabled() {
+    return QueryMetrics.ENABLED;
+  }
+
+  @Override
+  public long getInternalNodesVisited() {
+    return QueryMetrics.get(Counter.INTERNAL_NODES);
+  }
+
+  @Override
+  public long getLeafNodesVisited() {
+    return QueryMetrics.get(Counter.LEAF_NODES);
+  }
+
+  @Override
+  public long getMbrTests() {
+    return QueryMetrics.get(Counter.MBR_TESTS);
+  }
+
+  @Override
+  public long getCandidatePoints() {
+    return QueryMetrics.get(Counter.CANDIDATES);
+  }
+
+  @Override
+  public long getDistanceCalls() {
+    return QueryMetrics.get(Counter.DISTANCE_CALLS);
+  }
+
+  @Override
+  public long getRowsRead() {
+    return QueryMetrics.get(Counter.ROWS_READ);
+  }
+
+  @Override
+  public long getBytesRead() {
+    return QueryMetrics.get(Counter.BYTES_READ);
+  }
+
+  @Override
+  public Map<String, Double> getLatencies() {
+    Map<String, Double> result = new LinkedHashMap<>();
+    for (Stage stage : Stage.values()) {
+      LatencyHistogram histogram = QueryMetrics.histogram(stage);
+      String prefix = stage.name().toLowerCase(Locale.ROOT);
+      result.put(prefix + ".count", (double) histogram.count());
+      result.put(prefix + ".mean", histogram.mean() / 1000);
+      for (double percentile : PERCENTILES) {
+        result.put(prefix + ".p" + (percentile == (long) percentile
+            ? String.valueOf((long) percentile) : String.valueOf(percentile)), histogram.percentile(percentile) / 1000.0);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void reset() {
+    QueryMetrics.reset();
+  }
+}
@@ -0,0 +1,31 @@
+package tree.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX представление QueryMetrics.
+ */
+public interface QueryMetricsMXBean {
+  boolean isEnabled();
+
+  long getInternalNodesVisited();
+
+  long getLeafNodesVisited();
+
+  long getMbrTests();
+
+  long getCandidatePoints();
+
+  long getDistanceCalls();
+
+  long getRowsRead();
+
+  long getBytesRead();
+
+  /**
+   * Задержки этапов в микросекундах, ключ вида "tree.p99" или "query.mean".
+   */
+  Map<String, Double> getLatencies();
+
+  void reset();
+}
@@ -0,0 +1,102 @@
+package com.blodich.indexer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.blodich.reader.FileProcessor;
+import com.blodich.reader.FilteredCsvRandomAccessReader;
+import com.blodich.reader.MappedRowSource;
+import com.blodich.search.CsvIndexSearchEngine;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tree.ConcurrentRTree;
+import tree.RTree;
+import tree.SpatialIndex;
+import tree.geometry.Point;
+
+/**
+ * Индексация файла, который дописывается во время работы: последняя строка может быть недописана.
+ */
+public class RTreeFileIndexerTest {
+  private static final String COMPLETE = "1,\"Alpha\",55.5,37.5\r\n"
+      + "2,\"Beta\",48.8,2.3\r\n"
+      + "3,\"Gamma\",40.6,-73.8\r\n";
+  private static final String APPENDED = "4,\"Delta\",-33.9,151.2\r\n";
+  private static final int PARTIAL = 10;
+  private static final int[] COLUMNS = {2, 3};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void partialRowIsIndexedOnceCompleted() throws IOException {
+    Path source = write(COMPLETE + APPENDED.substring(0, PARTIAL));
+    RTreeFileIndexer indexer = new RTreeFileIndexer(source, COLUMNS, null, 2);
+    SpatialIndex index = new ConcurrentRTree(indexer.index(), indexer.getIndexFactory());
+    assertEquals(3, index.size());
+    assertEquals(bytes(COMPLETE), indexer.getIndexedLength());
+
+    assertEquals(0, indexer.update(index));
+    assertEquals(3, index.size());
+
+    append(source, APPENDED.substring(PARTIAL));
+    assertEquals(1, indexer.update(index));
+    assertEquals(4, index.size());
+    assertEquals(bytes(COMPLETE + APPENDED), indexer.getIndexedLength());
+    assertEquals(1, index.nearest(new Point(-33.9, 151.2), 1, 1).size());
+  }
+
+  @Test
+  public void partialRowIsIndexedAfterSnapshotLoad() throws IOException {
+    Path source = write(COMPLETE + APPENDED.substring(0, PARTIAL));
+    Path snapshot = folder.getRoot().toPath().resolve("airports.idx");
+    new RTreeFileIndexer(source, COLUMNS, snapshot, 2).index();
+    assertTrue(Files.exists(snapshot));
+
+    RTreeFileIndexer indexer = new RTreeFileIndexer(source, COLUMNS, snapshot, 2);
+    SpatialIndex index = new ConcurrentRTree(indexer.index(), indexer.getIndexFactory());
+    assertEquals(3, index.size());
+    assertEquals(bytes(COMPLETE), indexer.getIndexedLength());
+
+    append(source, APPENDED.substring(PARTIAL));
+    assertEquals(1, indexer.update(index));
+    assertEquals(4, index.size());
+  }
+
+  @Test
+  public void appendedRowIsReadableThroughMappedRowSource() throws IOException {
+    Path source = write(COMPLETE + APPENDED.substring(0, PARTIAL));
+    RTreeFileIndexer indexer = new RTreeFileIndexer(source, COLUMNS, null, 2, () -> new RTree(4), false);
+    FileProcessor fileProcessor = new FileProcessor(indexer,
+        new FilteredCsvRandomAccessReader(new MappedRowSource(source), new CsvIndexSearchEngine()));
+    fileProcessor.preprocess();
+    assertEquals(0, fileProcessor.update());
+
+    append(source, APPENDED.substring(PARTIAL));
+    assertEquals(1, fileProcessor.update());
+    List<String> rows = fileProcessor.process(new Point(-33.9, 151.2), 10);
+    assertEquals(List.of("4,\"Delta\",-33.9,151.2"), rows);
+    fileProcessor.close();
+  }
+
+  private Path write(String content) throws IOException {
+    Path source = folder.newFile("airports.csv").toPath();
+    Files.write(source, content.getBytes(StandardCharsets.UTF_8));
+    return source;
+  }
+
+  private static void append(Path source, String content) throws IOException {
+    Files.write(source, content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+  }
+
+  private static long bytes(String content) {
+    return content.getBytes(StandardCharsets.UTF_8).length;
+  }
+}
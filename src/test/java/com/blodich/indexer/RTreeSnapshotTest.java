@@ -0,0 +1,152 @@
+package com.blodich.indexer;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tree.BruteForce;
+import tree.PackedRTree;
+import tree.RTree;
+import tree.geometry.Point;
+
+/**
+ * Снимок индекса: сохранение и загрузка через отображение в память, отказ от устаревшего
+ * или поврежденного снимка (load возвращает null, и индекс перестраивается).
+ */
+public class RTreeSnapshotTest {
+  private static final int[] COLUMNS = {6, 7};
+  // Заголовок снимка: MAGIC, VERSION, размер, время изменения, CRC32, колонки
+  private static final int SNAPSHOT_HEADER_BYTES = 2 * Integer.BYTES + 3 * Long.BYTES
+      + (1 + COLUMNS.length) * Integer.BYTES;
+  // Заголовок дерева: maxKeysPerNode, nodeCount, pointCount, leafStart, elevationCount
+  private static final int TREE_HEADER_BYTES = 5 * Integer.BYTES;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private List<Point> points;
+  private Path source;
+  private Path snapshotFile;
+  private RTreeSnapshot snapshot;
+
+  @Before
+  public void setUp() throws IOException {
+    points = BruteForce.points();
+    source = folder.newFile("airports.csv").toPath();
+    Files.write(source, "1,\"Alpha\",55.5,37.5\r\n".getBytes(StandardCharsets.UTF_8));
+    snapshotFile = folder.getRoot().toPath().resolve("airports.idx");
+    snapshot = new RTreeSnapshot(snapshotFile, source, COLUMNS);
+    save();
+  }
+
+  private void save() throws IOException {
+    RTree tree = new RTree(4);
+    tree.bulkLoad(points);
+    snapshot.save(tree.freeze());
+  }
+
+  @Test
+  public void loadedTreeMatchesBruteForce() {
+    PackedRTree loaded = snapshot.load();
+    assertNotNull(loaded);
+    BruteForce.assertMatches(loaded, points, true);
+  }
+
+  @Test
+  public void missingSnapshotIsNotLoaded() throws IOException {
+    Files.delete(snapshotFile);
+    assertNull(snapshot.load());
+  }
+
+  @Test
+  public void changedSourceInvalidatesSnapshot() throws IOException {
+    FileTime modified = Files.getLastModifiedTime(source);
+    Files.setLastModifiedTime(source, FileTime.fromMillis(modified.toMillis() + 60_000));
+    assertNull(snapshot.load());
+
+    // Тот же размер и время изменения, другое содержимое: расходится контрольная сумма
+    Files.write(source, "1,\"Alpha\",55.5,37.6\r\n".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(source, modified);
+    assertNull(snapshot.load());
+
+    Files.write(source, "1,\"Alpha\",55.5,37.5\r\n".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(source, modified);
+    assertNotNull(snapshot.load());
+
+    Files.write(source, "2,\"Beta\",48.8,2.3\r\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    assertNull(snapshot.load());
+  }
+
+  @Test
+  public void differentColumnsInvalidateSnapshot() {
+    assertNull(new RTreeSnapshot(snapshotFile, source, new int[] {7, 6}).load());
+    assertNull(new RTreeSnapshot(snapshotFile, source, new int[] {6, 7, 8}).load());
+  }
+
+  @Test
+  public void truncatedSnapshotIsNotLoaded() throws IOException {
+    try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 1);
+    }
+    assertNull(snapshot.load());
+  }
+
+  @Test
+  public void corruptedLeafStartIsNotLoaded() throws IOException {
+    writeInt(3L * Integer.BYTES, header(1) + 1);
+    assertNull(snapshot.load());
+  }
+
+  @Test
+  public void corruptedChildReferenceIsNotLoaded() throws IOException {
+    int nodeCount = header(1);
+    int leafStart = header(3);
+    long childOffset = TREE_HEADER_BYTES + (long) nodeCount * 4 * Double.BYTES;
+    long childCount = childOffset + (long) nodeCount * Integer.BYTES;
+
+    // Корень ссылается на себя: обход зациклился бы
+    writeInt(childOffset, 0);
+    assertNull(snapshot.load());
+    save();
+
+    // Лист ссылается за пределы массива точек
+    writeInt(childCount + (long) (nodeCount - 1) * Integer.BYTES, points.size() + 1);
+    assertNull(snapshot.load());
+    save();
+
+    // Внутренний узел ссылается за пределы массива узлов
+    writeInt(childCount + (long) (leafStart - 1) * Integer.BYTES, nodeCount);
+    assertNull(snapshot.load());
+  }
+
+  private int header(int index) throws IOException {
+    try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(buffer, SNAPSHOT_HEADER_BYTES + (long) index * Integer.BYTES);
+      return buffer.getInt(0);
+    }
+  }
+
+  /**
+   * Перезаписывает int по смещению offset от начала дерева, не меняя размер файла.
+   */
+  private void writeInt(long offset, int value) throws IOException {
+    try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value);
+      channel.write(buffer, SNAPSHOT_HEADER_BYTES + offset);
+    }
+  }
+}
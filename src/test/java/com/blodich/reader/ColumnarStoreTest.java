@@ -0,0 +1,146 @@
+package com.blodich.reader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.blodich.indexer.RTreeFileIndexer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tree.RTree;
+import tree.SpatialIndex;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+
+/**
+ * Колоночное хранилище на airports.csv: строки CRLF, значения \N, имена в кавычках в UTF-8
+ * и широта -90, которая не совпадает с Double.toString и хранится в таблице исключений.
+ */
+public class ColumnarStoreTest {
+    private static final int LATITUDE = 6;
+    private static final int LONGITUDE = 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path source;
+    private List<byte[]> lines;
+    private ColumnarStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        source = RTreeFileIndexer.defaultSource();
+        lines = lines(Files.readAllBytes(source));
+        store = ColumnarStore.open(source, folder.getRoot().toPath().resolve("airports.columns"));
+    }
+
+    @Test
+    public void readRowBufferRestoresSourceBytes() throws IOException {
+        assertEquals(lines.size(), store.getRowCount());
+        for (int row = 0; row < lines.size(); row++) {
+            ByteBuffer buffer = store.readRowBuffer(row);
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            assertArrayEquals("Строка " + row, lines.get(row), bytes);
+            assertEquals(new String(lines.get(row), StandardCharsets.UTF_8), store.readRow(row));
+        }
+    }
+
+    @Test
+    public void readColumnsMatchesParsedSourceRow() throws IOException {
+        int[] columns = IntStream.range(0, store.getColumnCount()).toArray();
+        for (int row = 0; row < lines.size(); row++) {
+            assertArrayEquals("Строка " + row, CsvFields.select(ByteBuffer.wrap(lines.get(row)), columns),
+                store.readColumns(row, columns));
+        }
+    }
+
+    @Test
+    public void specialValuesRoundTrip() throws IOException {
+        int southPole = rowContaining(",-90,");
+        assertEquals(ColumnarStore.Type.DOUBLE, store.getType(LATITUDE));
+        assertEquals(-90.0, store.getDouble(LATITUDE, southPole), 0);
+        String[] values = store.readColumns(southPole, new int[] {1, 4, LATITUDE});
+        assertEquals("South Pole Station Airport", values[0]);
+        assertNull(values[1]);
+        assertEquals("-90", values[2]);
+
+        int utf8Names = 0;
+        for (int row = 0; row < lines.size(); row++) {
+            String name = CsvFields.select(ByteBuffer.wrap(lines.get(row)), new int[] {1})[0];
+            if (name != null && name.chars().anyMatch(c -> c > 127)) {
+                assertEquals(name, store.readColumns(row, new int[] {1})[0]);
+                assertEquals(name, store.getString(1, row));
+                utf8Names++;
+            }
+        }
+        assertTrue(utf8Names > 0);
+    }
+
+    @Test
+    public void rowIdsMatchIndexer() throws IOException {
+        SpatialIndex index = new RTreeFileIndexer(source, new int[] {LATITUDE, LONGITUDE}, null, 2,
+            () -> new RTree(4), true).index();
+        assertEquals(store.getRowCount(), index.size());
+
+        Set<Long> seen = new HashSet<>();
+        for (Point point : index.range(new Rectangle(-90, -180, 90, 180))) {
+            int row = (int) point.getSeek();
+            assertTrue(seen.add(point.getSeek()));
+            assertEquals(store.getDouble(LATITUDE, row), point.getX(), 0);
+            assertEquals(store.getDouble(LONGITUDE, row), point.getY(), 0);
+        }
+        assertEquals(store.getRowCount(), seen.size());
+        assertEquals(rowContaining(",-90,"),
+            index.nearest(new Point(-90, 0), 1, 1).get(0).getSeek());
+    }
+
+    private int rowContaining(String text) {
+        for (int row = 0; row < lines.size(); row++) {
+            if (new String(lines.get(row), StandardCharsets.UTF_8).contains(text)) {
+                return row;
+            }
+        }
+        throw new AssertionError("Нет строки с " + text);
+    }
+
+    /**
+     * Непустые строки файла без символов конца строки; проверяет, что файл действительно в CRLF.
+     */
+    private static List<byte[]> lines(byte[] content) {
+        List<byte[]> result = new ArrayList<>();
+        int crlf = 0;
+        int start = 0;
+        while (start < content.length) {
+            int end = start;
+            while (end < content.length && content[end] != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            if (end > start && content[end - 1] == '\r') {
+                end--;
+                crlf++;
+            }
+            if (end > start) {
+                result.add(Arrays.copyOfRange(content, start, end));
+            }
+            start = next;
+        }
+        assertTrue(crlf > 0);
+        return result;
+    }
+}
@@ -0,0 +1,112 @@
+package com.blodich.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import tree.BruteForce;
+import tree.ConcurrentRTree;
+import tree.RTree;
+import tree.geometry.Point;
+
+/**
+ * Кэш результатов поиска: ответы совпадают с полным перебором для точек одной ячейки,
+ * кэш сбрасывается при изменении индекса, запросы с высотой обслуживает fallback.
+ */
+public class CachingIndexSearchEngineTest {
+  private static final int LIMIT = CsvIndexSearchEngine.RESULT_LIMIT;
+  private static final double[] OFFSETS = {-0.3, 0, 0.3};
+
+  @Test
+  public void cachedResultsMatchBruteForce() throws IOException {
+    List<Point> points = BruteForce.points();
+    RTree tree = new RTree(4);
+    tree.bulkLoad(points);
+    for (double cellDegrees : new double[] {1, 5, 180}) {
+      CachingIndexSearchEngine engine = engine(cellDegrees);
+      for (Point target : targets()) {
+        for (double radius : BruteForce.RADII_KM) {
+          BruteForce.assertDistances(target + " " + radius + " " + cellDegrees,
+              BruteForce.nearest(points, target, LIMIT, radius, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY),
+              target, engine.search(tree, target, radius));
+        }
+      }
+      assertTrue(engine.stats().hits() > 0);
+    }
+  }
+
+  @Test
+  public void cacheIsInvalidatedWhenIndexChanges() throws IOException {
+    List<Point> points = BruteForce.points();
+    RTree tree = new RTree(4);
+    tree.bulkLoad(points);
+    CachingIndexSearchEngine engine = engine(5);
+    // Ближайшая точка сетки дальше 500 км
+    Point target = new Point(30.5, 5.5);
+    assertTrue(engine.search(tree, target, 150.5).isEmpty());
+    assertTrue(engine.search(tree, target, 150.5).isEmpty());
+    assertEquals(1, engine.stats().hits());
+
+    // Новая точка в той же ячейке должна попасть в ответ
+    tree.add(new Point(30.6, 5.6, points.size()));
+    assertEquals(List.of((long) points.size()), BruteForce.seeks(engine.search(tree, target, 150.5)));
+    assertEquals(1, engine.stats().hits());
+
+    ConcurrentRTree concurrent = new ConcurrentRTree(tree.freeze(), () -> new RTree(4));
+    assertEquals(1, engine.search(concurrent, target, 150.5).size());
+    concurrent.add(new Point(30.4, 5.4, points.size() + 1));
+    assertEquals(2, engine.search(concurrent, target, 150.5).size());
+
+    engine.invalidate();
+    assertEquals(0, engine.stats().entries());
+  }
+
+  @Test
+  public void uncacheableQueriesUseFallback() throws IOException {
+    List<Point> points = BruteForce.points();
+    RTree tree = new RTree(4);
+    tree.bulkLoad(points);
+    CsvIndexSearchEngine fallback = new CsvIndexSearchEngine();
+    CachingIndexSearchEngine engine = engine(5);
+    for (Point target : BruteForce.targets()) {
+      for (double[] range : BruteForce.ELEVATIONS) {
+        BruteForce.assertDistances(target + " " + range[0] + " " + range[1],
+            BruteForce.nearest(points, target, LIMIT, 3000.5, range[0], range[1]),
+            target, engine.search(tree, target, 3000.5, range[0], range[1]));
+      }
+      assertEquals(BruteForce.seeks(fallback.search(tree, target, Double.POSITIVE_INFINITY)),
+          BruteForce.seeks(engine.search(tree, target, Double.POSITIVE_INFINITY)));
+    }
+    // Через кэш прошел только запрос без ограничения по высоте
+    assertEquals(BruteForce.targets().size(), engine.stats().hits() + engine.stats().misses());
+  }
+
+  private static CachingIndexSearchEngine engine(double cellDegrees) {
+    return new CachingIndexSearchEngine(new CsvIndexSearchEngine(), LIMIT, cellDegrees, 1000, 60_000);
+  }
+
+  /**
+   * Целевые точки и точки рядом с ними, попадающие в те же или соседние ячейки.
+   */
+  private static List<Point> targets() {
+    List<Point> targets = new ArrayList<>();
+    for (Point target : BruteForce.targets()) {
+      for (double latitudeOffset : OFFSETS) {
+        for (double longitudeOffset : OFFSETS) {
+          double latitude = Math.max(-90, Math.min(90, target.getX() + latitudeOffset));
+          double longitude = target.getY() + longitudeOffset;
+          if (longitude > 180) {
+            longitude -= 360;
+          } else if (longitude < -180) {
+            longitude += 360;
+          }
+          targets.add(new Point(latitude, longitude));
+        }
+      }
+    }
+    return targets;
+  }
+}
@@ -0,0 +1,173 @@
+package tree;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+
+/**
+ * Эталонные ответы полным перебором для проверки индексов на фиксированном наборе точек.
+ * Набор содержит точки на меридиане ±180°, рядом с ним с обеих сторон, на полюсах и рядом с ними;
+ * у части точек нет высоты (NaN).
+ */
+public final class BruteForce {
+  // Допустимое расхождение расстояний, вычисленных разными способами
+  private static final double DISTANCE_TOLERANCE_KM = 1e-9;
+
+  // Вместо нулевого радиуса - 0.5 км: разные формулы расстояния по-разному округляют нулевое
+  // расстояние между совпадающими точками (полюс с разными долготами, долготы -180 и 180)
+  public static final double[] RADII_KM = {0.5, 150.5, 1234.5, 5000.5};
+  public static final int[] K = {1, 10, 50};
+  public static final double[] MAX_DISTANCES_KM = {300.5, 3000.5, Double.POSITIVE_INFINITY};
+  public static final double[][] ELEVATIONS = {
+      {Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY},
+      {100, 1000},
+      {Double.NEGATIVE_INFINITY, 0}};
+  public static final Rectangle[] RECTANGLES = {
+      new Rectangle(-90, -180, 90, 180),
+      new Rectangle(-10, 170, 10, 180),
+      new Rectangle(-10, -180, 10, -170),
+      new Rectangle(80, -180, 90, 180),
+      new Rectangle(-90, -180, -85, -170),
+      new Rectangle(40, 30, 60, 50)};
+
+  private BruteForce() {
+  }
+
+  /**
+   * Фиксированный набор точек: сетка 10 на 20 градусов от полюса до полюса и от -180 до 180
+   * и точки в 0.1° от меридиана ±180° и в 0.5° от полюсов.
+   */
+  public static List<Point> points() {
+    List<Point> points = new ArrayList<>();
+    for (int latitude = -90; latitude <= 90; latitude += 10) {
+      for (int longitude = -180; longitude <= 180; longitude += 20) {
+        points.add(point(points.size(), latitude, longitude));
+      }
+    }
+    for (double latitude : new double[] {-60, -5, 0, 5, 60}) {
+      points.add(point(points.size(), latitude, 179.9));
+      points.add(point(points.size(), latitude, -179.9));
+    }
+    for (int longitude = -180; longitude < 180; longitude += 45) {
+      points.add(point(points.size(), 89.5, longitude));
+      points.add(point(points.size(), -89.5, longitude));
+    }
+    return points;
+  }
+
+  /**
+   * Целевые точки на меридиане ±180°, рядом с ним, на полюсах и рядом с ними.
+   */
+  public static List<Point> targets() {
+    return List.of(
+        new Point(0, 180), new Point(0, -180), new Point(10, 179.95), new Point(-10, -179.95),
+        new Point(90, 0), new Point(-90, 123), new Point(89.7, -170), new Point(-89.7, 10),
+        new Point(55.97, 37.41), new Point(0, 0));
+  }
+
+  private static Point point(int seek, double latitude, double longitude) {
+    double elevation = seek % 7 == 0 ? Double.NaN : (seek * 37) % 3000 - 200;
+    return new Point(latitude, longitude, seek, elevation);
+  }
+
+  public static List<Long> range(List<Point> points, Rectangle target) {
+    List<Long> result = new ArrayList<>();
+    for (Point point : points) {
+      if (point.getX() >= target.getMinX() && point.getX() <= target.getMaxX()
+          && point.getY() >= target.getMinY() && point.getY() <= target.getMaxY()) {
+        result.add(point.getSeek());
+      }
+    }
+    return result;
+  }
+
+  public static List<Long> within(List<Point> points, Point target, double radiusKm,
+                                  double minElevation, double maxElevation) {
+    List<Long> result = new ArrayList<>();
+    for (Point point : points) {
+      if (point.distance(target) <= radiusKm && matches(point, minElevation, maxElevation)) {
+        result.add(point.getSeek());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Расстояния до k ближайших точек: при равных расстояниях порядок точек не определен.
+   */
+  public static List<Double> nearest(List<Point> points, Point target, int k, double maxDistanceKm,
+                                     double minElevation, double maxElevation) {
+    return points.stream()
+        .filter(point -> matches(point, minElevation, maxElevation))
+        .map(target::distance)
+        .filter(distance -> distance <= maxDistanceKm)
+        .sorted(Comparator.naturalOrder())
+        .limit(k)
+        .toList();
+  }
+
+  private static boolean matches(Point point, double minElevation, double maxElevation) {
+    return SpatialIndex.isUnbounded(minElevation, maxElevation)
+        || point.getElevation() >= minElevation && point.getElevation() <= maxElevation;
+  }
+
+  /**
+   * Сравнивает range, within и nearest индекса с полным перебором по points для всех целевых точек,
+   * радиусов, k и диапазонов высот. elevation - индекс хранит высоты точек.
+   */
+  public static void assertMatches(SpatialIndex index, List<Point> points, boolean elevation) {
+    assertEquals(points.size(), index.size());
+    for (Rectangle rectangle : RECTANGLES) {
+      assertEquals(rectangle.toString(), sorted(range(points, rectangle)), seeks(index.range(rectangle)));
+    }
+
+    double[][] elevations = elevation ? ELEVATIONS : new double[][] {ELEVATIONS[0]};
+    for (Point target : targets()) {
+      for (double radius : RADII_KM) {
+        String message = target + " " + radius;
+        List<Long> expected = within(points, target, radius, elevations[0][0], elevations[0][1]);
+        assertEquals(message, sorted(expected), seeks(index.within(target, radius)));
+
+        for (double[] range : elevations) {
+          List<Point> visited = new ArrayList<>();
+          assertEquals(true, index.within(target, radius, range[0], range[1], visited::add));
+          assertEquals(message + " " + range[0] + " " + range[1],
+              sorted(within(points, target, radius, range[0], range[1])), seeks(visited));
+        }
+      }
+
+      for (int k : K) {
+        for (double maxDistance : MAX_DISTANCES_KM) {
+          for (double[] range : elevations) {
+            assertDistances(target + " " + k + " " + maxDistance + " " + range[0] + " " + range[1],
+                nearest(points, target, k, maxDistance, range[0], range[1]),
+                target, index.nearest(target, k, maxDistance, range[0], range[1]));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Сравнивает расстояния до найденных соседей с ожидаемыми. Индексы могут считать расстояние
+   * своим вычислением, поэтому почти равные расстояния допускаются в любом порядке.
+   */
+  public static void assertDistances(String message, List<Double> expected, Point target, List<Point> actual) {
+    assertEquals(message, expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(message, expected.get(i), target.distance(actual.get(i)), DISTANCE_TOLERANCE_KM);
+    }
+  }
+
+  public static List<Long> seeks(List<Point> points) {
+    return sorted(points.stream().map(Point::getSeek).toList());
+  }
+
+  private static List<Long> sorted(List<Long> seeks) {
+    return seeks.stream().sorted().toList();
+  }
+}
@@ -0,0 +1,161 @@
+package tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+
+/**
+ * Потокобезопасный индекс: слияние результатов основного индекса и delta, перенос delta
+ * в новый основной индекс, закрытие замененных индексов и согласованное чтение во время записи.
+ */
+public class ConcurrentRTreeTest {
+  // Размер delta, при котором она сливается с основным индексом небольшого размера
+  private static final int COMPACTION_SIZE = 1024;
+  private static final Rectangle EVERYWHERE = new Rectangle(-90, -180, 90, 180);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void deltaResultsAreMergedWithBase() {
+    List<Point> points = BruteForce.points();
+    int half = points.size() / 2;
+    RTree base = new RTree(4);
+    base.bulkLoad(points.subList(0, half));
+    ConcurrentRTree tree = new ConcurrentRTree(base.freeze(), () -> new RTree(4));
+    assertNotNull(tree.getPacked());
+
+    long version = tree.getVersion();
+    for (int from = half; from < points.size(); from += 50) {
+      tree.bulkLoad(points.subList(from, Math.min(points.size(), from + 50)));
+      assertEquals(++version, tree.getVersion());
+    }
+    assertNull(tree.getPacked());
+    BruteForce.assertMatches(tree, points, true);
+  }
+
+  @Test
+  public void compactionMovesDeltaToNewBase() {
+    List<Point> points = new ArrayList<>(BruteForce.points());
+    Random random = new Random(3);
+    while (points.size() < COMPACTION_SIZE + 100) {
+      points.add(new Point(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, points.size()));
+    }
+
+    ConcurrentRTree tree = new ConcurrentRTree(new RTree(4).freeze(), () -> new RTree(4));
+    int from = 0;
+    do {
+      tree.bulkLoad(points.subList(from, from + 100));
+      from += 100;
+    } while (tree.getPacked() == null);
+    // Delta пуста, все точки в основном индексе
+    assertEquals(COMPACTION_SIZE / 100 * 100 + 100, from);
+    assertEquals(from, tree.getPacked().size());
+
+    tree.bulkLoad(points.subList(from, points.size()));
+    BruteForce.assertMatches(tree, points, true);
+  }
+
+  @Test
+  public void replacedOffHeapBaseIsClosed() throws IOException {
+    ConcurrentRTree tree = new ConcurrentRTree(offHeapFactory().get(), offHeapFactory());
+    assertEquals(1, pageFiles());
+    for (int compaction = 0; compaction < 3; compaction++) {
+      tree.bulkLoad(randomPoints(new Random(compaction), COMPACTION_SIZE * (compaction + 1)));
+      assertEquals(1, pageFiles());
+    }
+    tree.close();
+    assertEquals(0, pageFiles());
+  }
+
+  @Test
+  public void replacedBaseStaysOpenWhileReaderUsesIt() throws IOException {
+    ConcurrentRTree tree = new ConcurrentRTree(offHeapFactory().get(), offHeapFactory());
+    tree.bulkLoad(randomPoints(new Random(1), COMPACTION_SIZE));
+    assertEquals(1, pageFiles());
+
+    List<Point> visited = new ArrayList<>();
+    int[] filesDuringRead = {-1};
+    assertTrue(tree.range(EVERYWHERE, point -> {
+      if (visited.isEmpty()) {
+        // Слияние во время чтения: старый основной индекс еще нужен этому читателю
+        tree.bulkLoad(randomPoints(new Random(2), COMPACTION_SIZE));
+        filesDuringRead[0] = pageFiles();
+      }
+      visited.add(point);
+      return true;
+    }));
+    assertEquals(2, filesDuringRead[0]);
+    assertEquals(COMPACTION_SIZE, visited.size());
+    assertEquals(1, pageFiles());
+    assertEquals(2 * COMPACTION_SIZE, tree.size());
+    tree.close();
+    assertEquals(0, pageFiles());
+  }
+
+  @Test
+  public void readersSeeWholeBatches() throws Exception {
+    int batch = 50;
+    ConcurrentRTree tree = new ConcurrentRTree(new RTree(4).freeze(), () -> new RTree(4));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    AtomicBoolean stop = new AtomicBoolean();
+    List<Future<?>> readers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      readers.add(executor.submit(() -> {
+        int previous = 0;
+        while (!stop.get()) {
+          int size = tree.range(EVERYWHERE).size();
+          assertEquals(0, size % batch);
+          assertTrue(size >= previous);
+          previous = size;
+        }
+        return null;
+      }));
+    }
+
+    Random random = new Random(4);
+    for (int i = 0; i < 60; i++) {
+      tree.bulkLoad(randomPoints(random, batch));
+    }
+    stop.set(true);
+    for (Future<?> reader : readers) {
+      reader.get();
+    }
+    executor.shutdown();
+    assertEquals(60 * batch, tree.size());
+  }
+
+  private Supplier<SpatialIndex> offHeapFactory() {
+    Path directory = folder.getRoot().toPath();
+    return () -> new OffHeapRTree(16, new QuadraticSplitStrategy(), directory);
+  }
+
+  private int pageFiles() {
+    return folder.getRoot().list((directory, name) -> name.endsWith(".pages")).length;
+  }
+
+  private static List<Point> randomPoints(Random random, int count) {
+    List<Point> points = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      points.add(new Point(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, i));
+    }
+    return points;
+  }
+}
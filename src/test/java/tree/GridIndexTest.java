@@ -0,0 +1,57 @@
+package tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+import tree.geometry.Point;
+
+/**
+ * Индекс на равномерной сетке в сравнении с полным перебором при разных размерах ячейки,
+ * включая точки на границах сетки (широта ±90, долгота ±180).
+ */
+public class GridIndexTest {
+  private static final double[] CELL_DEGREES = {1, 7, 45, 180};
+
+  @Test
+  public void gridMatchesBruteForce() {
+    List<Point> points = BruteForce.points();
+    for (double cellDegrees : CELL_DEGREES) {
+      GridIndex added = new GridIndex(cellDegrees);
+      points.forEach(added::add);
+      BruteForce.assertMatches(added, points, true);
+
+      GridIndex bulk = new GridIndex(cellDegrees);
+      bulk.bulkLoad(points);
+      BruteForce.assertMatches(bulk, points, true);
+    }
+  }
+
+  @Test
+  public void modificationChangesVersion() {
+    GridIndex grid = new GridIndex(5);
+    long version = grid.getVersion();
+    grid.add(new Point(90, 180, 1));
+    assertNotEquals(version, grid.getVersion());
+    version = grid.getVersion();
+    grid.bulkLoad(List.of(new Point(-90, -180, 2)));
+    assertNotEquals(version, grid.getVersion());
+    assertEquals(2, grid.size());
+    assertEquals(2, grid.nearest(new Point(0, 0), 10, Double.POSITIVE_INFINITY).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void cellLargerThanHalfCircleIsRejected() {
+    new GridIndex(181);
+  }
+
+  @Test
+  public void emptyGridFindsNothing() {
+    GridIndex grid = new GridIndex(5);
+    assertTrue(grid.range(BruteForce.RECTANGLES[0]).isEmpty());
+    assertTrue(grid.within(new Point(90, 0), 5000).isEmpty());
+    assertTrue(grid.nearest(new Point(0, 180), 5, Double.POSITIVE_INFINITY).isEmpty());
+  }
+}
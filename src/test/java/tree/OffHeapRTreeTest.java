@@ -0,0 +1,70 @@
+package tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tree.geometry.Point;
+
+/**
+ * R-дерево с узлами вне кучи в сравнении с полным перебором: страницы во временном файле
+ * и в direct буферах, последовательное добавление и пакетная загрузка.
+ */
+public class OffHeapRTreeTest {
+  private static final SplitStrategy[] STRATEGIES = {
+      new LinearSplitStrategy(), new QuadraticSplitStrategy(), new RStarSplitStrategy()};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void offHeapTreeMatchesBruteForce() throws IOException {
+    List<Point> points = BruteForce.points();
+    for (Path directory : new Path[] {folder.getRoot().toPath(), null}) {
+      for (SplitStrategy strategy : STRATEGIES) {
+        try (OffHeapRTree tree = new OffHeapRTree(4, strategy, directory)) {
+          points.forEach(tree::add);
+          BruteForce.assertMatches(tree, points, true);
+        }
+      }
+      try (OffHeapRTree bulk = new OffHeapRTree(16, new QuadraticSplitStrategy(), directory)) {
+        bulk.bulkLoad(points);
+        BruteForce.assertMatches(bulk, points, true);
+      }
+    }
+  }
+
+  @Test
+  public void bulkLoadAppendsToExistingTree() throws IOException {
+    List<Point> points = BruteForce.points();
+    try (OffHeapRTree tree = new OffHeapRTree(8, new QuadraticSplitStrategy(), folder.getRoot().toPath())) {
+      tree.bulkLoad(points.subList(0, points.size() / 2));
+      points.subList(points.size() / 2, points.size()).forEach(tree::add);
+      BruteForce.assertMatches(tree, points, true);
+    }
+  }
+
+  @Test
+  public void closeDeletesPageFile() throws IOException {
+    OffHeapRTree tree = new OffHeapRTree(4, new QuadraticSplitStrategy(), folder.getRoot().toPath());
+    tree.bulkLoad(BruteForce.points());
+    assertEquals(1, pageFiles());
+    tree.close();
+    assertEquals(0, pageFiles());
+    assertEquals(0, tree.size());
+    assertTrue(tree.nearest(new Point(0, 0), 5, Double.POSITIVE_INFINITY).isEmpty());
+  }
+
+  private long pageFiles() throws IOException {
+    try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+      return files.filter(file -> file.getFileName().toString().endsWith(".pages")).count();
+    }
+  }
+}
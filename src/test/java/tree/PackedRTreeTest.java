@@ -0,0 +1,68 @@
+package tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+import tree.geometry.Point;
+import tree.geometry.Rectangle;
+
+/**
+ * Замороженное дерево PackedRTree в сравнении с исходным RTree и с полным перебором.
+ */
+public class PackedRTreeTest {
+  @Test
+  public void frozenTreeMatchesBruteForce() {
+    List<Point> points = BruteForce.points();
+    for (int maxKeys : new int[] {4, 16}) {
+      RTree tree = new RTree(maxKeys);
+      points.forEach(tree::add);
+      BruteForce.assertMatches(tree.freeze(), points, true);
+
+      RTree bulk = new RTree(maxKeys);
+      bulk.bulkLoad(points);
+      BruteForce.assertMatches(bulk.freeze(), points, true);
+    }
+  }
+
+  @Test
+  public void frozenTreeMatchesSourceTree() {
+    List<Point> points = BruteForce.points().stream()
+        .map(point -> new Point(point.getX(), point.getY(), point.getSeek()))
+        .toList();
+    RTree tree = new RTree(4);
+    tree.bulkLoad(points);
+    PackedRTree packed = tree.freeze();
+    assertEquals(tree.size(), packed.size());
+    for (Rectangle rectangle : BruteForce.RECTANGLES) {
+      assertEquals(BruteForce.seeks(tree.range(rectangle)), BruteForce.seeks(packed.range(rectangle)));
+    }
+    for (Point target : BruteForce.targets()) {
+      for (double radius : BruteForce.RADII_KM) {
+        assertEquals(BruteForce.seeks(tree.within(target, radius)), BruteForce.seeks(packed.within(target, radius)));
+      }
+      for (int k : BruteForce.K) {
+        BruteForce.assertDistances(target + " " + k,
+            tree.nearest(target, k, 3000.5).stream().map(target::distance).toList(),
+            target, packed.nearest(target, k, 3000.5));
+      }
+      // Точки без высоты не проходят ни через какой ограниченный диапазон
+      assertTrue(packed.nearest(target, 10, Double.POSITIVE_INFINITY, -1000, 10000).isEmpty());
+    }
+  }
+
+  @Test
+  public void emptyTreeFindsNothing() {
+    PackedRTree packed = new RTree(4).freeze();
+    assertEquals(0, packed.size());
+    assertTrue(packed.range(BruteForce.RECTANGLES[0]).isEmpty());
+    assertTrue(packed.within(new Point(0, 0), 5000).isEmpty());
+    assertTrue(packed.nearest(new Point(0, 0), 5, Double.POSITIVE_INFINITY).isEmpty());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void frozenTreeIsImmutable() {
+    new RTree(4).freeze().add(new Point(0, 0, 1));
+  }
+}
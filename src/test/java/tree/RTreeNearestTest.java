@@ -0,0 +1,63 @@
+package tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+import tree.geometry.Point;
+
+/**
+ * Поиск k ближайших соседей в RTree (best-first обход) в сравнении с полным перебором.
+ */
+public class RTreeNearestTest {
+  private static final SplitStrategy[] STRATEGIES = {
+      new LinearSplitStrategy(), new QuadraticSplitStrategy(), new RStarSplitStrategy()};
+
+  @Test
+  public void nearestMatchesBruteForce() {
+    List<Point> points = BruteForce.points();
+    for (SplitStrategy strategy : STRATEGIES) {
+      RTree tree = new RTree(4, strategy);
+      points.forEach(tree::add);
+      BruteForce.assertMatches(tree, points, true);
+    }
+
+    RTree bulk = new RTree(4);
+    bulk.bulkLoad(points);
+    BruteForce.assertMatches(bulk, points, true);
+  }
+
+  @Test
+  public void nearestIsOrderedByDistance() {
+    RTree tree = new RTree(4);
+    tree.bulkLoad(BruteForce.points());
+    for (Point target : BruteForce.targets()) {
+      List<Point> nearest = tree.nearest(target, 50, Double.POSITIVE_INFINITY);
+      assertEquals(50, nearest.size());
+      for (int i = 1; i < nearest.size(); i++) {
+        assertTrue(target.distance(nearest.get(i - 1)) <= target.distance(nearest.get(i)));
+      }
+    }
+  }
+
+  @Test
+  public void maxDistanceCutsOffFartherPoints() {
+    RTree tree = new RTree(4);
+    tree.bulkLoad(BruteForce.points());
+    // Соседи точки (0, 0) по сетке лежат в 10 градусах, то есть дальше 1111 км
+    Point target = new Point(0, 0);
+    List<Point> nearest = tree.nearest(target, 10, 1111);
+    assertEquals(1, nearest.size());
+    assertEquals(0, target.distance(nearest.get(0)), 0);
+    assertEquals(3, tree.nearest(target, 10, 1112).size());
+
+    // Полюс: все точки сетки на широте 80 и точки на широте 89.5 ближе 1112 км
+    Point pole = new Point(90, 0);
+    for (Point point : tree.nearest(pole, 100, 1112)) {
+      assertTrue(point.getX() >= 80);
+    }
+    assertTrue(tree.nearest(target, 0, 1000).isEmpty());
+    assertTrue(tree.nearest(target, 10, -1).isEmpty());
+  }
+}
@@ -0,0 +1,123 @@
+package tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import tree.geometry.Point;
+
+/**
+ * Удаление и замена точек R-дерева (remove, update, condense tree) в сравнении с полным перебором.
+ */
+public class RTreeRemoveTest {
+  private static final double RADIUS_KM = 800;
+  private static final int K = 10;
+  private static final double MAX_DISTANCE_KM = 3000;
+
+  @Test
+  public void removeInRandomOrderMatchesBruteForce() {
+    Random random = new Random(42);
+    List<Point> points = randomPoints(random, 3000);
+    List<Point> targets = randomPoints(random, 20);
+    for (boolean bulk : new boolean[] {false, true}) {
+      RTree tree = new RTree(4);
+      if (bulk) {
+        tree.bulkLoad(points);
+      } else {
+        points.forEach(tree::add);
+      }
+
+      List<Point> remaining = new ArrayList<>(points);
+      Collections.shuffle(remaining, random);
+      while (!remaining.isEmpty()) {
+        Point removed = remaining.remove(remaining.size() - 1);
+        assertTrue(tree.remove(removed));
+        assertEquals(remaining.size(), tree.size());
+        if (remaining.size() % 250 == 0) {
+          assertMatchesBruteForce(tree, remaining, targets);
+        }
+      }
+      assertFalse(tree.remove(points.get(0)));
+    }
+  }
+
+  @Test
+  public void reinsertAfterTreeIsEmptied() {
+    Random random = new Random(7);
+    List<Point> points = randomPoints(random, 500);
+    RTree tree = new RTree(4);
+    points.forEach(tree::add);
+    for (Point point : points) {
+      assertTrue(tree.remove(point));
+    }
+    assertEquals(0, tree.size());
+    assertTrue(tree.within(points.get(0), RADIUS_KM).isEmpty());
+    assertTrue(tree.nearest(points.get(0), K, MAX_DISTANCE_KM).isEmpty());
+
+    List<Point> again = randomPoints(random, 500);
+    again.forEach(tree::add);
+    assertEquals(again.size(), tree.size());
+    assertMatchesBruteForce(tree, again, randomPoints(random, 20));
+  }
+
+  @Test
+  public void updateMovesPoint() {
+    Random random = new Random(11);
+    List<Point> points = randomPoints(random, 1000);
+    RTree tree = new RTree(4);
+    tree.bulkLoad(points);
+
+    List<Point> expected = new ArrayList<>(points);
+    for (int i = 0; i < 200; i++) {
+      Point oldPoint = expected.get(i);
+      Point newPoint = new Point(random.nextDouble() * 170 - 85, random.nextDouble() * 360 - 180, oldPoint.getSeek());
+      assertTrue(tree.update(oldPoint, newPoint));
+      expected.set(i, newPoint);
+    }
+    assertFalse(tree.update(new Point(0, 0, -1), new Point(1, 1, -1)));
+    assertEquals(expected.size(), tree.size());
+    assertMatchesBruteForce(tree, expected, randomPoints(random, 20));
+  }
+
+  private static void assertMatchesBruteForce(RTree tree, List<Point> points, List<Point> targets) {
+    for (Point target : targets) {
+      Set<Long> expectedWithin = new HashSet<>();
+      for (Point point : points) {
+        if (point.distance(target) <= RADIUS_KM) {
+          expectedWithin.add(point.getSeek());
+        }
+      }
+      Set<Long> actualWithin = new HashSet<>();
+      tree.within(target, RADIUS_KM).forEach(point -> actualWithin.add(point.getSeek()));
+      assertEquals(expectedWithin, actualWithin);
+
+      // Сравниваются расстояния, а не точки: при равных расстояниях порядок не определен
+      List<Double> expectedNearest = points.stream()
+          .map(target::distance)
+          .filter(distance -> distance <= MAX_DISTANCE_KM)
+          .sorted(Comparator.naturalOrder())
+          .limit(K)
+          .toList();
+      List<Double> actualNearest = tree.nearest(target, K, MAX_DISTANCE_KM).stream()
+          .map(target::distance)
+          .toList();
+      assertEquals(expectedNearest, actualNearest);
+    }
+  }
+
+  private static List<Point> randomPoints(Random random, int count) {
+    List<Point> points = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      points.add(new Point(random.nextDouble() * 170 - 85, random.nextDouble() * 360 - 180, i));
+    }
+    return points;
+  }
+}
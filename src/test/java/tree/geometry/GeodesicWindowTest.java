@@ -0,0 +1,88 @@
+package tree.geometry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import tree.BruteForce;
+
+/**
+ * Окно поиска вокруг точки: деление на меридиане ±180°, полоса во всю долготу у полюсов
+ * и покрытие всех точек круга в сравнении с полным перебором.
+ */
+public class GeodesicWindowTest {
+  @Test
+  public void windowCoversEveryPointInCircle() {
+    List<Point> points = new ArrayList<>(BruteForce.points());
+    Random random = new Random(5);
+    for (int i = 0; i < 5000; i++) {
+      points.add(new Point(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, points.size()));
+    }
+    for (Point target : BruteForce.targets()) {
+      for (double radius : BruteForce.RADII_KM) {
+        List<Rectangle> window = GeodesicWindow.around(target.getX(), target.getY(), radius);
+        for (Rectangle rectangle : window) {
+          assertTrue(rectangle.getMinX() >= -90 && rectangle.getMaxX() <= 90);
+          assertTrue(rectangle.getMinY() >= -180 && rectangle.getMaxY() <= 180);
+        }
+        for (Point point : points) {
+          if (point.distance(target) <= radius) {
+            assertTrue(target + " " + radius + " " + point, contains(window, point));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void windowSplitsAtAntimeridian() {
+    List<Rectangle> east = GeodesicWindow.around(10, 179.95, 100);
+    assertEquals(2, east.size());
+    assertEquals(180, east.get(0).getMaxY(), 0);
+    assertEquals(-180, east.get(1).getMinY(), 0);
+    assertFalse(contains(east, new Point(10, 0)));
+
+    List<Rectangle> west = GeodesicWindow.around(-10, -179.95, 100);
+    assertEquals(2, west.size());
+    assertTrue(contains(west, new Point(-10, 179.5)));
+    assertTrue(contains(west, new Point(-10, -179.5)));
+
+    // Точка на самом меридиане: -180 и 180 - одно и то же место
+    for (double longitude : new double[] {180, -180}) {
+      List<Rectangle> window = GeodesicWindow.around(0, longitude, 0);
+      assertTrue(contains(window, new Point(0, 180)));
+      assertTrue(contains(window, new Point(0, -180)));
+    }
+  }
+
+  @Test
+  public void windowContainingPoleSpansAllLongitudes() {
+    for (Point target : List.of(new Point(90, 0), new Point(89.7, -170), new Point(-89.7, 10))) {
+      List<Rectangle> window = GeodesicWindow.around(target.getX(), target.getY(), 150.5);
+      assertEquals(1, window.size());
+      assertEquals(-180, window.get(0).getMinY(), 0);
+      assertEquals(180, window.get(0).getMaxY(), 0);
+      assertEquals(Math.signum(target.getX()) * 90,
+          target.getX() > 0 ? window.get(0).getMaxX() : window.get(0).getMinX(), 0);
+    }
+
+    List<Rectangle> everywhere = GeodesicWindow.around(0, 0, Math.PI * Point.EARTH_RADIUS);
+    assertEquals(1, everywhere.size());
+    assertTrue(contains(everywhere, new Point(0, 180)));
+    assertTrue(contains(everywhere, new Point(-90, 0)));
+  }
+
+  private static boolean contains(List<Rectangle> window, Point point) {
+    for (Rectangle rectangle : window) {
+      if (point.getX() >= rectangle.getMinX() && point.getX() <= rectangle.getMaxX()
+          && point.getY() >= rectangle.getMinY() && point.getY() <= rectangle.getMaxY()) {
+        return true;
+      }
+    }
+    return false;
+  }
+}